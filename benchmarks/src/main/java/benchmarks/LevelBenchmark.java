@@ -0,0 +1,59 @@
+package benchmarks;
+
+import game.CastleLevel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import physics.LevelFile;
+import physics.PhysicsWorld;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load a fortress of castles from a level file into an empty world, from opening the file to the last body
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class LevelBenchmark {
+    @Param({"100000", "1000000"})
+    public int blocks;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        CastleLevel fortress = CastleLevel.buildFortress(blocks, 400, 550);
+        file = Files.createTempFile("fortress", ".lvl");
+        fortress.write(file, fortress.getRight() + 400, 600);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public PhysicsWorld load() throws IOException {
+        LevelFile level = LevelFile.open(file);
+        PhysicsWorld world = new PhysicsWorld(level.getWorldWidth(), level.getWorldHeight());
+        level.addTo(world);
+        return world;
+    }
+}
@@ -0,0 +1,107 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import physics.BodyStore;
+import physics.Broadphase;
+import physics.Contact;
+import physics.Narrowphase;
+import physics.PhysicsWorld;
+import physics.RigidBody;
+import physics.SpatialHashBroadphase;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The collision detection phases of a step on their own, on a frozen world
+ * <p>
+ * Nothing is stepped here, every invocation looks at exactly the same bodies, so a change in one phase shows up
+ * without the noise of the others.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PhaseBenchmark {
+    @Param({"scattered", "castles", "barrage"})
+    public String scenario;
+
+    @Param({"1000", "5000"})
+    public int bodies;
+
+    private BodyStore store;
+    private SpatialHashBroadphase broadphase;
+    private Narrowphase narrowphase;
+    private Contact contact;
+    private int[] pairs; // a, b, a, b, ...
+    private int pairCount;
+    private Blackhole blackhole;
+    private final Broadphase.PairCallback pairConsumer = (a, b) -> blackhole.consume(a + b);
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        PhysicsWorld world = Scenarios.build(scenario, bodies);
+        // A few steps in, so scattered boxes are falling and cannonballs are on their way
+        for (int i = 0; i < 30; i++) {
+            world.update(Scenarios.STEP);
+        }
+        store = world.getBodyStore();
+        broadphase = new SpatialHashBroadphase(64);
+        narrowphase = world.getNarrowphase();
+        contact = new Contact();
+
+        pairs = new int[64];
+        broadphase.findPairs(store, (a, b) -> {
+            if (pairCount * 2 + 2 > pairs.length) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            pairs[pairCount * 2] = a;
+            pairs[pairCount * 2 + 1] = b;
+            pairCount++;
+        });
+    }
+
+    @Benchmark
+    public void broadphase() {
+        broadphase.findPairs(store, pairConsumer);
+    }
+
+    @Benchmark
+    public int narrowphase() {
+        int touching = 0;
+        for (int i = 0; i < pairCount; i++) {
+            if (narrowphase.collide(store, pairs[i * 2], pairs[i * 2 + 1], contact)) {
+                touching++;
+            }
+        }
+        return touching;
+    }
+
+    @Benchmark
+    public int collidesWith() {
+        int touching = 0;
+        for (int i = 0; i < pairCount; i++) {
+            RigidBody a = store.handle(pairs[i * 2]);
+            RigidBody b = store.handle(pairs[i * 2 + 1]);
+            if (a.collidesWith(b)) {
+                touching++;
+            }
+        }
+        return touching;
+    }
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import engine.LGNode;
+import engine.LGPanel;
+import game.Cannon;
+import game.CastleBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drawing one frame the way LGEngine.run does: clear the image, then render every node into it
+ * <p>
+ * Runs on an offscreen image, so it needs no display. Copying the image to the window is left out, that part depends
+ * on the machine more than on our code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    @Param({"1", "10"})
+    public int castles;
+
+    private LGPanel panel;
+    private Graphics2D g2d;
+    private List<LGNode> nodes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int width = castles * 250 + 100;
+        BufferedImage image = new BufferedImage(width, 600, BufferedImage.TYPE_INT_RGB);
+        panel = new LGPanel(image);
+        g2d = image.createGraphics();
+
+        nodes = new ArrayList<>();
+        nodes.add(new Cannon(50, 550));
+        for (int i = 0; i < castles; i++) {
+            nodes.addAll(CastleBuilder.buildComplexCastle(i * 250 + 100, 550));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g2d.dispose();
+    }
+
+    @Benchmark
+    public void renderFrame() {
+        panel.clear(g2d);
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.get(i).render(g2d);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package benchmarks;
+
+import game.CastleBuilder;
+import physics.PhysicsWorld;
+import physics.RigidBody;
+import physics.ShapeType;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The worlds the benchmarks run on
+ * <p>
+ * Every scenario is built from a fixed seed, so two runs measure exactly the same work.
+ */
+final class Scenarios {
+    static final double STEP = 1.0 / 60;
+
+    // Same gravity as the game
+    private static final double GRAVITY = 9.8;
+    private static final int CASTLE_WIDTH = 250; // A complex castle is 9 blocks of 25 pixels, plus a gap
+    private static final int CASTLE_HEIGHT = 600;
+    private static final int MAX_SETTLE_STEPS = 3000;
+
+    private Scenarios() {
+    }
+
+    /**
+     * @param scenario "scattered", "castles" or "barrage"
+     * @param bodies Roughly how many bodies the world should have
+     */
+    static PhysicsWorld build(String scenario, int bodies) {
+        switch (scenario) {
+            case "scattered":
+                return scattered(bodies);
+            case "castles":
+                return castles(bodies);
+            case "barrage":
+                return barrage(bodies);
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+    }
+
+    /**
+     * Boxes of mixed sizes dropped at random spots, most of them falling and piling up
+     */
+    static PhysicsWorld scattered(int bodies) {
+        int side = (int) Math.ceil(Math.sqrt(bodies)) * 40;
+        PhysicsWorld world = new PhysicsWorld(side, side);
+        world.setGravity(GRAVITY);
+
+        Random random = new Random(42);
+        for (int i = 0; i < bodies; i++) {
+            double width = 10 + random.nextInt(20);
+            double height = 10 + random.nextInt(20);
+            RigidBody box = new RigidBody(random.nextDouble() * (side - width), random.nextDouble() * (side - height),
+                    width, height, 1 + random.nextDouble());
+            box.setVelocityX(random.nextDouble() * 40 - 20);
+            world.addBody(box);
+        }
+        return world;
+    }
+
+    /**
+     * Complex castles side by side, stepped until every block is asleep
+     */
+    static PhysicsWorld castles(int bodies) {
+        PhysicsWorld world = castleRow(Math.max(1, bodies / 24));
+        settle(world);
+        return world;
+    }
+
+    /**
+     * Settled castles, with a cannonball in flight towards each of them
+     */
+    static PhysicsWorld barrage(int bodies) {
+        int castles = Math.max(1, bodies / 25);
+        PhysicsWorld world = castleRow(castles);
+        settle(world);
+
+        Random random = new Random(42);
+        for (int i = 0; i < castles; i++) {
+            // Fired like Cannon.fire does, from a little to the left of each castle
+            double angle = -random.nextDouble() * Math.PI / 6;
+            double power = 300;
+            RigidBody ball = new RigidBody(i * CASTLE_WIDTH + 5, CASTLE_HEIGHT - 80, 12, 12, 0.8);
+            ball.setShape(ShapeType.CIRCLE);
+            ball.setRestitution(0.6);
+            ball.setFriction(0.3);
+            ball.setContinuous(true);
+            ball.setVelocityX(Math.cos(angle) * power);
+            ball.setVelocityY(Math.sin(angle) * power);
+            world.addBody(ball);
+        }
+        return world;
+    }
+
+    private static PhysicsWorld castleRow(int castles) {
+        PhysicsWorld world = new PhysicsWorld(castles * CASTLE_WIDTH + 100, CASTLE_HEIGHT);
+        world.setGravity(GRAVITY);
+        for (int i = 0; i < castles; i++) {
+            List<RigidBody> blocks = CastleBuilder.buildBodies(CastleBuilder::layoutComplexCastle,
+                    i * CASTLE_WIDTH + 20, CASTLE_HEIGHT);
+            for (RigidBody block : blocks) {
+                world.addBody(block);
+            }
+        }
+        return world;
+    }
+
+    private static void settle(PhysicsWorld world) {
+        for (int i = 0; i < MAX_SETTLE_STEPS && world.getSleepingBodyCount() < world.getBodyCount(); i++) {
+            world.update(STEP);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import engine.SnapshotBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import physics.PhysicsWorld;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to capture a frame into a snapshot buffer and to restore one, which is what rewinding costs per frame
+ * <p>
+ * Run with the GC profiler (the default in {@link BenchmarkMain}) to check that neither allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SnapshotBenchmark {
+    @Param({"scattered", "castles"})
+    public String scenario;
+
+    @Param({"1000", "10000"})
+    public int bodies;
+
+    private PhysicsWorld world;
+    private SnapshotBuffer snapshots;
+    private long frame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        world = Scenarios.build(scenario, bodies);
+        snapshots = new SnapshotBuffer(world, 60, bodies);
+        snapshots.capture(frame);
+    }
+
+    @Benchmark
+    public SnapshotBuffer capture() {
+        snapshots.capture(++frame);
+        return snapshots;
+    }
+
+    @Benchmark
+    public PhysicsWorld restore() {
+        snapshots.restore(frame);
+        return world;
+    }
+}
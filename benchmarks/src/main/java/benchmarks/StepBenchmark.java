@@ -0,0 +1,50 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import physics.PhysicsWorld;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole physics steps per second, the number that decides how many bodies a frame can afford
+ * <p>
+ * The world is rebuilt before every iteration, so each iteration starts from the same state instead of from wherever
+ * the last one left off (scattered boxes end up in a pile, cannonballs end up on the ground).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StepBenchmark {
+    @Param({"scattered", "castles", "barrage"})
+    public String scenario;
+
+    @Param({"1000", "5000"})
+    public int bodies;
+
+    private PhysicsWorld world;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        world = Scenarios.build(scenario, bodies);
+    }
+
+    @Benchmark
+    public PhysicsWorld step() {
+        world.update(Scenarios.STEP);
+        return world;
+    }
+}
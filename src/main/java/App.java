@@ -1,51 +1,171 @@
+import engine.Camera;
+import engine.ChunkStreamer;
 import engine.LGEngine;
+import engine.LGHeadlessEngine;
+import engine.Replay;
 import game.*;
+import physics.LevelFile;
 
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.List;
 
 public class App {
     // Castle destruction game with cannon
+    // Pass --record <file> to record the session, and --replay <file> to play a recording back without a window
+    // The battlefield is three screens wide: left and right move the camera, + and - zoom
+    // Pass --export-level <file> <blocks> to write a fortress of that many blocks, and --level <file> to play it
+    private static final int WORLD_WIDTH = 2400;
+    private static final int WORLD_HEIGHT = 600;
 
-    public static void main(String[] args) {
-        LGEngine engine = new LGEngine(800, 600);
-
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("--replay")) {
+            replay(args[1]);
+            return;
+        }
+        if (args.length == 3 && args[0].equals("--export-level")) {
+            exportLevel(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        
+        LevelFile level = args.length == 2 && args[0].equals("--level") ? LevelFile.open(Paths.get(args[1])) : null;
+        double worldWidth = level != null ? Math.max(WORLD_WIDTH, level.getWorldWidth()) : WORLD_WIDTH;
+        LGEngine engine = new LGEngine(800, 600, worldWidth, WORLD_HEIGHT);
+        
         // Create cannon
         Cannon cannon = new Cannon(50, 550);
         engine.register(cannon);
+        engine.register(cannon.getHud());
+        engine.addKeyHandler(cannon);
         
-        // Build castle
-        List<BuildingBlock> castle = CastleBuilder.buildComplexCastle(400, 550);
-        for (BuildingBlock block : castle) {
-            engine.register(block);
+        // Move the camera around the battlefield
+        Camera camera = engine.getCamera();
+        engine.addKeyHandler(keyCode -> {
+            switch (keyCode) {
+                case KeyEvent.VK_LEFT:
+                    camera.pan(-40 / camera.getZoom(), 0);
+                    break;
+                case KeyEvent.VK_RIGHT:
+                    camera.pan(40 / camera.getZoom(), 0);
+                    break;
+                case KeyEvent.VK_EQUALS:
+                case KeyEvent.VK_ADD:
+                    camera.setZoom(Math.min(4, camera.getZoom() * 1.25));
+                    break;
+                case KeyEvent.VK_MINUS:
+                case KeyEvent.VK_SUBTRACT:
+                    camera.setZoom(Math.max(0.25, camera.getZoom() / 1.25));
+                    break;
+            }
+        });
+        
+        // Build castle, or load the whole battlefield of a level
+        if (level != null) {
+            engine.loadLevel(level, new BlockNodes());
+        } else {
+            List<BuildingBlock> castle = CastleBuilder.buildComplexCastle(400, 550);
+            for (BuildingBlock block : castle) {
+                engine.register(block);
+            }
         }
         
         // Set realistic gravity
         engine.setGravity(9.8);
         
-        // Start the engine at 60 FPS
-        engine.start(16);
+        // Step physics at a steady 60 Hz, whatever the timer does
+        engine.setFixedTimestep(1.0 / 60, 5);
+        
+        // Frame timings can be watched and turned on from JConsole or Mission Control
+        engine.getProfiler().registerMBeans("game");
+        engine.getRenderProfiler().registerMBeans("game-render");
         
-        // Game loop for cannonball management
-        new Thread(() -> {
-            while (true) {
+        // Update cannon before every physics step, cannonballs join the game when fired and leave it when spent
+        engine.addUpdatable(cannon);
+        cannon.setBallListener(new Cannon.BallListener() {
+            @Override
+            public void added(Cannonball ball) {
+                engine.register(ball);
+            }
+            
+            @Override
+            public void removed(Cannonball ball) {
+                engine.unregister(ball);
+            }
+        });
+        
+        if (args.length == 2 && args[0].equals("--record")) {
+            engine.startRecording(Paths.get(args[1]));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 try {
-                    Thread.sleep(16); // 60 FPS
-                    
-                    // Update cannon
-                    cannon.update();
-                    
-                    // Register new cannonballs
-                    List<Cannonball> activeBalls = cannon.getActiveCannonballs();
-                    for (Cannonball ball : activeBalls) {
-                        if (!engine.nodeList.contains(ball)) {
-                            engine.register(ball);
-                        }
-                    }
-                    
-                } catch (InterruptedException e) {
-                    break;
+                    engine.stopRecording();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
+            }));
+        } else {
+            // Castles far from the camera wait on disk, recorded sessions keep everything in memory
+            ChunkStreamer chunkStreamer = new ChunkStreamer(Files.createTempDirectory("lgengine-chunks"), 512,
+                    new BlockNodes());
+            engine.setChunkStreamer(chunkStreamer);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    chunkStreamer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+        
+        // Start the engine at 60 FPS
+        engine.start(16);
+    }
+
+    /**
+     * Write a fortress of castles in a row to a level file, starting where the game builds its castle
+     */
+    private static void exportLevel(String file, int blocks) throws IOException {
+        CastleLevel fortress = CastleLevel.buildFortress(blocks, 400, 550);
+        fortress.write(Paths.get(file), fortress.getRight() + 400, WORLD_HEIGHT);
+        System.out.println("Wrote " + fortress.getBlockCount() + " blocks to " + file);
+    }
+
+    /**
+     * Play a recorded session back on the same scene, and report where it stopped matching the recording
+     */
+    private static void replay(String file) throws IOException {
+        LGHeadlessEngine engine = new LGHeadlessEngine(WORLD_WIDTH, WORLD_HEIGHT);
+        
+        // The same scene as the game, built in the same order
+        Cannon cannon = new Cannon(50, 550);
+        engine.addKeyHandler(cannon);
+        CastleBuilder.buildBodies(CastleBuilder::layoutComplexCastle, 400, 550).forEach(engine::addPhysicsBody);
+        engine.setGravity(9.8);
+        engine.register(cannon);
+        cannon.setBallListener(new Cannon.BallListener() {
+            @Override
+            public void added(Cannonball ball) {
+                engine.addPhysicsBody(ball.getPhysicsBody());
             }
-        }).start();
+            
+            @Override
+            public void removed(Cannonball ball) {
+                engine.removePhysicsBody(ball.getPhysicsBody());
+            }
+        });
+        
+        Replay replay = new Replay(Paths.get(file));
+        long start = System.nanoTime();
+        long divergedAt = replay.run(engine);
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        
+        System.out.printf("Replayed %d steps (%.0f s of play) in %.2f s%n",
+                replay.getStepsReplayed(), replay.getStepsReplayed() * replay.getTimestep(), seconds);
+        if (divergedAt < 0) {
+            System.out.println("Every step matched the recording");
+        } else {
+            System.out.println("The world differs from the recording after step " + divergedAt);
+        }
     }
 }
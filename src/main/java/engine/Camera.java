@@ -0,0 +1,134 @@
+package engine;
+
+/**
+ * The part of the world that is on screen, which can be moved around and zoomed
+ * <p>
+ * The world can be much bigger than the window. The camera looks at a rectangle of it, starting at its position (the
+ * top left corner, in world units), as big as the window divided by the zoom: at a zoom of 2 everything is drawn twice
+ * as big and half as much of the world fits. The view is kept inside the world, and where the world is smaller than
+ * the view it is centered instead.
+ * <p>
+ * The camera is moved on the timer thread, from key handlers and updatables. Every frame is drawn through the camera
+ * as it was when the frame was captured, and physics steps bodies out of its view more coarsely when asked to.
+ */
+public final class Camera {
+    private final int viewportWidth, viewportHeight;
+    private final double worldWidth, worldHeight;
+    private double x, y;
+    private double zoom = 1;
+
+    /**
+     * @param viewportWidth Width of the window in pixels
+     * @param viewportHeight Height of the window in pixels
+     */
+    public Camera(int viewportWidth, int viewportHeight, double worldWidth, double worldHeight) {
+        if (viewportWidth < 1 || viewportHeight < 1) {
+            throw new IllegalArgumentException("Viewport needs at least one pixel: " + viewportWidth + "x"
+                    + viewportHeight);
+        }
+        this.viewportWidth = viewportWidth;
+        this.viewportHeight = viewportHeight;
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        setPosition(0, 0);
+    }
+
+    /**
+     * Move the view by a distance, in world units
+     */
+    public void pan(double dx, double dy) {
+        setPosition(x + dx, y + dy);
+    }
+
+    /**
+     * Move the top left corner of the view to a point of the world
+     */
+    public void setPosition(double x, double y) {
+        this.x = clamp(x, getViewWidth(), worldWidth);
+        this.y = clamp(y, getViewHeight(), worldHeight);
+    }
+
+    /**
+     * Move the view so a point of the world is in the middle of it
+     */
+    public void centerOn(double x, double y) {
+        setPosition(x - getViewWidth() / 2, y - getViewHeight() / 2);
+    }
+
+    /**
+     * Zoom in or out, keeping what is in the middle of the view there
+     *
+     * @param zoom Screen pixels per world unit, above 1 zooms in
+     */
+    public void setZoom(double zoom) {
+        if (!(zoom > 0) || Double.isInfinite(zoom)) {
+            throw new IllegalArgumentException("Zoom must be positive: " + zoom);
+        }
+        double centerX = getCenterX(), centerY = getCenterY();
+        this.zoom = zoom;
+        centerOn(centerX, centerY);
+    }
+
+    private static double clamp(double position, double view, double world) {
+        if (view >= world) {
+            return (world - view) / 2;
+        }
+        return Math.max(0, Math.min(world - view, position));
+    }
+
+    /**
+     * @return Left edge of the view, in world units
+     */
+    public double getX() {
+        return x;
+    }
+
+    /**
+     * @return Top edge of the view, in world units
+     */
+    public double getY() {
+        return y;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    public double getCenterX() {
+        return x + getViewWidth() / 2;
+    }
+
+    public double getCenterY() {
+        return y + getViewHeight() / 2;
+    }
+
+    /**
+     * @return How much of the world is in view across, in world units
+     */
+    public double getViewWidth() {
+        return viewportWidth / zoom;
+    }
+
+    /**
+     * @return How much of the world is in view from top to bottom, in world units
+     */
+    public double getViewHeight() {
+        return viewportHeight / zoom;
+    }
+
+    public int getViewportWidth() {
+        return viewportWidth;
+    }
+
+    public int getViewportHeight() {
+        return viewportHeight;
+    }
+
+    public double getWorldWidth() {
+        return worldWidth;
+    }
+
+    public double getWorldHeight() {
+        return worldHeight;
+    }
+}
@@ -0,0 +1,437 @@
+package engine;
+
+import physics.BodyStore;
+import physics.PhysicsWorld;
+import physics.RigidBody;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the parts of a large world that are far from the action on disk, so memory and step time only grow with
+ * what is near the camera and the bodies that move
+ * <p>
+ * The world is cut into square chunks. Chunks in and around the view are wanted, and so are the chunks next to every
+ * body that moves. Resting bodies (static or asleep) in chunks that are neither wanted nor next to one are written to
+ * a file for their chunk and taken out of the world, together with their nodes, in one pass. Their simulation is
+ * frozen: nothing can hit them, and they can't fall. Once the camera or a moving body comes near again, the chunk is
+ * read back and its bodies and nodes are added again where they were, asleep if they were asleep.
+ * <p>
+ * Files are written and read on a thread of their own, in the order they were asked for, and what was read is added
+ * on the timer thread at the start of a later step, so steps never wait for the disk. Chunks are wanted a chunk
+ * before they come into view, to give the disk time. Chunks are written in a compact form (see
+ * {@link PhysicsWorld#writeChunk}), each time a chunk is left a new piece is added to its file, and a file is deleted
+ * once it was read back.
+ * <p>
+ * Nodes go to disk with their bodies only when the {@link NodeFactory} can make them again. Bodies of other nodes
+ * stay in the world wherever they are, and bodies without a node go to disk and come back without one.
+ * <p>
+ * Bodies come back with their ids, but with new handles and in other slots, so sessions that stream chunks can't be
+ * recorded, and their snapshots don't bring back what was on disk.
+ */
+public final class ChunkStreamer implements Closeable {
+    private static final int UPDATE_INTERVAL = 15; // Steps between looking for chunks to load and unload
+    private static final String FILE_PREFIX = "chunk_", FILE_SUFFIX = ".bin";
+
+    /**
+     * Takes nodes to disk with their bodies, and makes them again when the bodies come back
+     */
+    public interface NodeFactory {
+        /**
+         * @return Whether the node can go to disk with its body and be made again by createNode
+         */
+        boolean isStreamable(LGNode node);
+
+        /**
+         * Make the node for a body that came back from disk
+         */
+        LGNode createNode(RigidBody body);
+    }
+
+    private final Path directory;
+    private final double chunkSize;
+    private final NodeFactory nodeFactory;
+    private int loadRadius = 1;
+    private final ExecutorService io;
+    private final Queue<Object> finished = new ConcurrentLinkedQueue<>(); // Chunks read back, or what went wrong
+    private final Map<Long, Chunk> chunks = new HashMap<>(); // Chunks with bodies on disk, or being read
+    private long steps;
+    private int bodiesOnDisk;
+
+    // Reused from update to update
+    private final Set<Long> wanted = new HashSet<>(), kept = new HashSet<>();
+    private final List<Chunk> leaving = new ArrayList<>();
+    private long[] bodyChunks = new long[64];
+    private LGNode[] bodyNodes = new LGNode[64];
+    private boolean[] removing = new boolean[64];
+    private int[] unloading = new int[64];
+    private int[] chunkBodies = new int[64];
+    private byte[] hasNode = new byte[64];
+
+    /**
+     * @param directory Where to keep the chunk files, chunk files left there by an earlier session are deleted
+     * @param chunkSize Width and height of the chunks, in world units
+     */
+    public ChunkStreamer(Path directory, double chunkSize, NodeFactory nodeFactory) throws IOException {
+        if (!(chunkSize > 0)) {
+            throw new IllegalArgumentException("Chunks need a positive size: " + chunkSize);
+        }
+        this.directory = directory;
+        this.chunkSize = chunkSize;
+        this.nodeFactory = nodeFactory;
+        Files.createDirectories(directory);
+        deleteChunkFiles();
+        this.io = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LGEngine chunks");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * How many chunks around the view are kept loaded, 1 by default
+     * Together with the chunk size this is the memory budget: only what is this close to the view, or to something
+     * moving, stays in the world.
+     */
+    public void setLoadRadius(int chunks) {
+        if (chunks < 0) {
+            throw new IllegalArgumentException("Load radius can't be negative: " + chunks);
+        }
+        this.loadRadius = chunks;
+    }
+
+    public int getLoadRadius() {
+        return loadRadius;
+    }
+
+    public double getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return How many bodies are on disk, or on their way there or back
+     */
+    public int getBodiesOnDisk() {
+        return bodiesOnDisk;
+    }
+
+    /**
+     * @return How many chunks have bodies on disk, or are being read back
+     */
+    public int getChunksOnDisk() {
+        return chunks.size();
+    }
+
+    /**
+     * Add what was read back, and every few steps load and unload chunks, on the timer thread before a step
+     */
+    void update(PhysicsWorld world, List<LGNode> nodeList, Camera camera) {
+        addLoaded(world, nodeList);
+        if (steps++ % UPDATE_INTERVAL != 0) return;
+
+        findWanted(world, camera);
+        for (Chunk chunk : chunks.values()) {
+            if (chunk.pieces > 0 && !chunk.loading && wanted.contains(chunk.key)) {
+                // Everything written so far is read in one go, pieces written from now on wait for the next load
+                chunk.pieces = 0;
+                chunk.loading = true;
+                io.execute(() -> read(chunk));
+            }
+        }
+        unload(world, nodeList);
+    }
+
+    /**
+     * Find the chunks that have to be loaded, and the ones that have to stay loaded, around the view and moving bodies
+     */
+    private void findWanted(PhysicsWorld world, Camera camera) {
+        wanted.clear();
+        kept.clear();
+        int minX = cell(camera.getX()), maxX = cell(camera.getX() + camera.getViewWidth());
+        int minY = cell(camera.getY()), maxY = cell(camera.getY() + camera.getViewHeight());
+        addRange(wanted, minX - loadRadius, minY - loadRadius, maxX + loadRadius, maxY + loadRadius);
+        addRange(kept, minX - loadRadius - 1, minY - loadRadius - 1, maxX + loadRadius + 1, maxY + loadRadius + 1);
+
+        BodyStore store = world.getBodyStore();
+        int count = store.getCount();
+        if (bodyChunks.length < count) {
+            int capacity = Math.max(count, bodyChunks.length * 2);
+            bodyChunks = new long[capacity];
+            bodyNodes = new LGNode[capacity];
+            removing = new boolean[capacity];
+        }
+        long lastMoving = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            int cx = cell(store.getCenterX(i)), cy = cell(store.getCenterY(i));
+            long key = key(cx, cy);
+            bodyChunks[i] = key;
+            // Bodies moving together are usually in the same chunk
+            if (store.isResting(i) || key == lastMoving) continue;
+
+            lastMoving = key;
+            addRange(wanted, cx - 1, cy - 1, cx + 1, cy + 1);
+            addRange(kept, cx - 2, cy - 2, cx + 2, cy + 2);
+        }
+    }
+
+    /**
+     * Write the resting bodies in chunks that don't have to stay loaded to disk, and take them out of the world
+     */
+    private void unload(PhysicsWorld world, List<LGNode> nodeList) {
+        BodyStore store = world.getBodyStore();
+        int count = store.getCount();
+        for (int n = 0; n < nodeList.size(); n++) {
+            LGNode node = nodeList.get(n);
+            int body = world.indexOf(node.getPhysicsBody());
+            if (body >= 0) {
+                bodyNodes[body] = node;
+            }
+        }
+
+        // Count the bodies leaving each chunk
+        leaving.clear();
+        int unloadCount = 0;
+        long lastKey = Long.MIN_VALUE;
+        boolean lastKept = true;
+        Chunk lastChunk = null;
+        for (int i = 0; i < count; i++) {
+            long key = bodyChunks[i];
+            if (key != lastKey) {
+                lastKey = key;
+                lastKept = kept.contains(key);
+                lastChunk = null;
+            }
+            if (lastKept || !store.isResting(i)) continue;
+            if (bodyNodes[i] != null && !nodeFactory.isStreamable(bodyNodes[i])) continue;
+
+            if (lastChunk == null) {
+                lastChunk = chunks.computeIfAbsent(key, Chunk::new);
+                if (lastChunk.leaving == 0) {
+                    leaving.add(lastChunk);
+                }
+            }
+            lastChunk.leaving++;
+            removing[i] = true;
+            unloadCount++;
+        }
+
+        if (unloadCount > 0) {
+            // Group the bodies by chunk
+            if (unloading.length < unloadCount) {
+                unloading = new int[Math.max(unloadCount, unloading.length * 2)];
+            }
+            int start = 0;
+            for (int c = 0; c < leaving.size(); c++) {
+                Chunk chunk = leaving.get(c);
+                chunk.start = start;
+                start += chunk.leaving;
+                chunk.leaving = 0;
+            }
+            lastKey = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                if (!removing[i]) continue;
+                if (bodyChunks[i] != lastKey) {
+                    lastKey = bodyChunks[i];
+                    lastChunk = chunks.get(lastKey);
+                }
+                unloading[lastChunk.start + lastChunk.leaving++] = i;
+            }
+            for (int c = 0; c < leaving.size(); c++) {
+                write(world, leaving.get(c));
+            }
+
+            nodeList.removeIf(node -> {
+                int body = world.indexOf(node.getPhysicsBody());
+                return body >= 0 && removing[body];
+            });
+            world.removeBodies(unloading, unloadCount);
+            bodiesOnDisk += unloadCount;
+        }
+        for (int c = 0; c < leaving.size(); c++) {
+            leaving.get(c).leaving = 0;
+        }
+        Arrays.fill(bodyNodes, 0, count, null);
+        Arrays.fill(removing, 0, count, false);
+    }
+
+    /**
+     * Write the bodies leaving a chunk as a new piece of its file
+     * A piece is the number of bodies, whether each of them had a node, and the bodies as the world writes them.
+     */
+    private void write(PhysicsWorld world, Chunk chunk) {
+        int n = chunk.leaving;
+        if (chunkBodies.length < n) {
+            chunkBodies = new int[Math.max(n, chunkBodies.length * 2)];
+        }
+        System.arraycopy(unloading, chunk.start, chunkBodies, 0, n);
+        ByteBuffer piece = ByteBuffer.allocate(4 + n + PhysicsWorld.getChunkSize(n));
+        piece.putInt(n);
+        for (int k = 0; k < n; k++) {
+            piece.put(bodyNodes[chunkBodies[k]] != null ? (byte) 1 : 0);
+        }
+        world.writeChunk(chunkBodies, n, piece);
+        piece.flip();
+        chunk.pieces++;
+        chunk.bodies += n;
+        Path file = chunk.file;
+        io.execute(() -> append(file, piece));
+    }
+
+    /**
+     * Add the bodies of chunks that were read back, and make their nodes again
+     */
+    private void addLoaded(PhysicsWorld world, List<LGNode> nodeList) {
+        Object done;
+        while ((done = finished.poll()) != null) {
+            if (done instanceof UncheckedIOException) {
+                throw (UncheckedIOException) done;
+            }
+            Loaded loaded = (Loaded) done;
+            Chunk chunk = loaded.chunk;
+            ByteBuffer data = loaded.data;
+            BodyStore store = world.getBodyStore();
+            while (data.hasRemaining()) {
+                int n = data.getInt();
+                if (hasNode.length < n) {
+                    hasNode = new byte[Math.max(n, hasNode.length * 2)];
+                }
+                data.get(hasNode, 0, n);
+                int first = world.readChunk(data);
+                for (int k = 0; k < n; k++) {
+                    if (hasNode[k] != 0) {
+                        nodeList.add(nodeFactory.createNode(store.handle(first + k)));
+                    }
+                }
+                chunk.bodies -= n;
+                bodiesOnDisk -= n;
+            }
+            chunk.loading = false;
+            if (chunk.pieces == 0) {
+                chunks.remove(chunk.key);
+            }
+        }
+    }
+
+    /**
+     * Add a piece at the end of a chunk file, on the I/O thread
+     */
+    private void append(Path file, ByteBuffer piece) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            while (piece.hasRemaining()) {
+                channel.write(piece);
+            }
+        } catch (IOException e) {
+            finished.add(new UncheckedIOException("Can't write chunk " + file, e));
+        }
+    }
+
+    /**
+     * Read a whole chunk file and delete it, on the I/O thread
+     */
+    private void read(Chunk chunk) {
+        try {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(chunk.file));
+            Files.delete(chunk.file);
+            finished.add(new Loaded(chunk, data));
+        } catch (IOException e) {
+            finished.add(new UncheckedIOException("Can't read chunk " + chunk.file, e));
+        }
+    }
+
+    /**
+     * Stop the I/O thread once it has written everything asked for, then delete the chunk files, and the directory if
+     * nothing else is in it
+     * What was on disk is gone after this, the streamer is closed when the session ends.
+     */
+    @Override
+    public void close() throws IOException {
+        io.shutdown();
+        try {
+            io.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deleteChunkFiles();
+        try {
+            Files.deleteIfExists(directory);
+        } catch (DirectoryNotEmptyException e) {
+            // Other files live there, they aren't ours to delete
+        }
+    }
+
+    private void deleteChunkFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private int cell(double position) {
+        return (int) Math.floor(position / chunkSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private static void addRange(Set<Long> set, int minX, int minY, int maxX, int maxY) {
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                set.add(key(cx, cy));
+            }
+        }
+    }
+
+    /**
+     * A chunk with bodies on disk
+     */
+    private final class Chunk {
+        final long key;
+        final Path file;
+        int pieces; // Written and not read back yet
+        int bodies; // On disk, or on their way
+        boolean loading;
+        // While unloading, how many bodies leave and where they are in the list of bodies leaving
+        int leaving, start;
+
+        Chunk(long key) {
+            this.key = key;
+            this.file = directory.resolve(FILE_PREFIX + (int) (key >> 32) + "_" + (int) key + FILE_SUFFIX);
+        }
+    }
+
+    /**
+     * A chunk file read back, waiting for the timer thread
+     */
+    private static final class Loaded {
+        final Chunk chunk;
+        final ByteBuffer data;
+
+        Loaded(Chunk chunk, ByteBuffer data) {
+            this.chunk = chunk;
+            this.data = data;
+        }
+    }
+}
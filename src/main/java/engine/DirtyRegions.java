@@ -0,0 +1,371 @@
+package engine;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Works out which parts of each layer, and of the frame, have to be drawn again
+ * <p>
+ * Every node reports where it is drawn and on which layer. A node that moved, or went to another layer, makes both
+ * the area it was drawn in last frame and the area it is drawn in now dirty, on the layers it was and is on. A node
+ * that only changed its look makes its own area dirty, and everything else can stay as it is. The dirty areas are
+ * merged into a few rectangles per layer, and the frame has to be put together again wherever any layer is dirty.
+ * <p>
+ * A layer is drawn again as a whole on the first frame, after {@link #invalidate}, when nodes were removed or
+ * reordered (nodes added at the end are fine), or when its dirty rectangles would cover a large part of it anyway.
+ * When a node can't tell its bounds, nothing can be tracked, and the caller has to draw everything itself.
+ * <p>
+ * Bounds of the static and dynamic layers are in world units, and are put on screen with the camera the frame was
+ * captured with. Moving or zooming the camera moves everything on those layers, so every layer is drawn again as a
+ * whole. Culled nodes are drawn nowhere.
+ */
+class DirtyRegions {
+    private static final Layer[] LAYERS = Layer.values();
+    // Room for outlines, which are drawn half outside the shape, and rounding to whole pixels
+    private static final int MARGIN = 2;
+
+    // Nodes drawn last frame, where and on which layer they were drawn, and where and on which layer they are now
+    private LGNode[] nodes = new LGNode[64];
+    private Rectangle[] drawn = newRectangles(64);
+    private Rectangle[] current = newRectangles(64);
+    private Layer[] drawnLayers = new Layer[64];
+    private Layer[] currentLayers = new Layer[64];
+    private int nodeCount;
+    private boolean invalid = true;
+    private boolean tracked;
+    private double zoom = 1;
+    private int scrollX, scrollY;
+
+    private final Region[] layerRegions = new Region[LAYERS.length];
+    // Everything drawn on each layer this frame lies inside these
+    private final Rectangle[] layerBounds = newRectangles(LAYERS.length);
+    private final Region frameRegion;
+
+    DirtyRegions(int width, int height) {
+        for (int l = 0; l < LAYERS.length; l++) {
+            layerRegions[l] = new Region(width, height);
+        }
+        frameRegion = new Region(width, height);
+    }
+
+    /**
+     * Compare every node with the last frame
+     */
+    void update(RenderState state) {
+        int n = state.getCount();
+        ensureCapacity(n);
+        boolean reset = invalid || n < nodeCount
+                || state.getZoom() != zoom || state.getScrollX() != scrollX || state.getScrollY() != scrollY;
+        zoom = state.getZoom();
+        scrollX = state.getScrollX();
+        scrollY = state.getScrollY();
+        tracked = true;
+        for (Region region : layerRegions) {
+            region.clear();
+        }
+        frameRegion.clear();
+        for (Rectangle bounds : layerBounds) {
+            bounds.setBounds(0, 0, 0, 0);
+        }
+
+        for (int i = 0; i < n; i++) {
+            LGNode node = state.getNode(i);
+            if (i >= nodeCount) {
+                // New at the end of the list, it wasn't drawn anywhere yet
+                nodes[i] = node;
+                drawn[i].setBounds(0, 0, 0, 0);
+                drawnLayers[i] = null;
+            } else if (nodes[i] != node) {
+                nodes[i] = node;
+                reset = true;
+            }
+
+            Rectangle bounds = current[i];
+            Layer layer;
+            if (state.isCulled(i)) {
+                bounds.setBounds(0, 0, 0, 0);
+                layer = Layer.DYNAMIC;
+            } else {
+                if (!node.getBounds(bounds, state, i)) {
+                    tracked = false;
+                    continue;
+                }
+                layer = node.getLayer(state, i);
+                if (!bounds.isEmpty()) {
+                    if (layer != Layer.HUD) {
+                        toScreen(bounds);
+                    }
+                    bounds.grow(MARGIN, MARGIN);
+                }
+            }
+            currentLayers[i] = layer;
+            if (!bounds.isEmpty()) {
+                Rectangle contents = layerBounds[layer.ordinal()];
+                if (contents.isEmpty()) {
+                    contents.setBounds(bounds);
+                } else {
+                    contents.add(bounds);
+                }
+            }
+            if (reset) continue;
+
+            Layer drawnLayer = drawnLayers[i];
+            if (layer != drawnLayer || !bounds.equals(drawn[i])) {
+                if (drawnLayer != null) {
+                    layerRegions[drawnLayer.ordinal()].add(drawn[i]);
+                }
+                layerRegions[layer.ordinal()].add(bounds);
+            } else if (node.needsRedraw(state, i)) {
+                layerRegions[layer.ordinal()].add(bounds);
+            }
+        }
+        nodeCount = n;
+
+        if (!tracked) {
+            invalid = true;
+            return;
+        }
+        for (Region region : layerRegions) {
+            if (reset) {
+                region.setFull();
+            }
+            frameRegion.addAll(region);
+        }
+        invalid = false;
+    }
+
+    /**
+     * Put bounds in world units on screen, covering every pixel they touch
+     */
+    private void toScreen(Rectangle bounds) {
+        if (zoom == 1) {
+            bounds.translate(-scrollX, -scrollY);
+            return;
+        }
+        int minX = (int) Math.floor(bounds.x * zoom) - scrollX;
+        int minY = (int) Math.floor(bounds.y * zoom) - scrollY;
+        int maxX = (int) Math.ceil((bounds.x + bounds.width) * zoom) - scrollX;
+        int maxY = (int) Math.ceil((bounds.y + bounds.height) * zoom) - scrollY;
+        // Outlines get thicker when zoomed in
+        int outline = (int) Math.ceil(zoom);
+        bounds.setBounds(minX - outline, minY - outline, maxX - minX + 2 * outline, maxY - minY + 2 * outline);
+    }
+
+    /**
+     * The nodes have been drawn where {@link #update} found them, that is where they are on screen now
+     */
+    void drawn() {
+        Rectangle[] swap = drawn;
+        drawn = current;
+        current = swap;
+        Layer[] swapLayers = drawnLayers;
+        drawnLayers = currentLayers;
+        currentLayers = swapLayers;
+    }
+
+    /**
+     * Draw every layer as a whole on the next frame
+     */
+    void invalidate() {
+        invalid = true;
+    }
+
+    /**
+     * @return false if some node couldn't tell its bounds, nothing else means anything then
+     */
+    boolean isTracked() {
+        return tracked;
+    }
+
+    /**
+     * @return What has to be drawn again on one layer
+     */
+    Region getRegion(Layer layer) {
+        return layerRegions[layer.ordinal()];
+    }
+
+    /**
+     * @return An area holding everything drawn on a layer this frame
+     */
+    Rectangle getLayerBounds(Layer layer) {
+        return layerBounds[layer.ordinal()];
+    }
+
+    /**
+     * @return Where the frame has to be put together again, wherever any of the layers changed
+     */
+    Region getFrameRegion() {
+        return frameRegion;
+    }
+
+    /**
+     * Whether a node is on a layer this frame and touches a rectangle, so it has to be drawn for it
+     */
+    boolean touches(int node, Layer layer, Rectangle rectangle) {
+        Rectangle bounds = current[node];
+        return currentLayers[node] == layer && !bounds.isEmpty() && bounds.intersects(rectangle);
+    }
+
+    private void ensureCapacity(int count) {
+        if (count <= nodes.length) return;
+
+        int capacity = Math.max(count, nodes.length * 2);
+        nodes = Arrays.copyOf(nodes, capacity);
+        drawn = grow(drawn, capacity);
+        current = grow(current, capacity);
+        drawnLayers = Arrays.copyOf(drawnLayers, capacity);
+        currentLayers = Arrays.copyOf(currentLayers, capacity);
+    }
+
+    private static Rectangle[] grow(Rectangle[] rectangles, int capacity) {
+        Rectangle[] grown = Arrays.copyOf(rectangles, capacity);
+        for (int i = rectangles.length; i < capacity; i++) {
+            grown[i] = new Rectangle();
+        }
+        return grown;
+    }
+
+    private static Rectangle[] newRectangles(int count) {
+        Rectangle[] rectangles = new Rectangle[count];
+        for (int i = 0; i < count; i++) {
+            rectangles[i] = new Rectangle();
+        }
+        return rectangles;
+    }
+
+    /**
+     * A few rectangles, or the whole screen
+     */
+    static class Region {
+        private static final int MAX_RECTANGLES = 8;
+        // Above this share of the screen, one pass over everything is cheaper than clipping
+        private static final double MAX_DIRTY_SHARE = 0.5;
+
+        private final int width, height;
+        private final Rectangle[] rectangles = newRectangles(MAX_RECTANGLES);
+        private int count;
+        private long area;
+        private boolean full;
+
+        Region(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * @return Whether all of it is dirty, the rectangles don't mean anything then
+         */
+        boolean isFull() {
+            return full;
+        }
+
+        /**
+         * @return Whether nothing is dirty
+         */
+        boolean isEmpty() {
+            return !full && count == 0;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        Rectangle get(int k) {
+            return rectangles[k];
+        }
+
+        void clear() {
+            count = 0;
+            area = 0;
+            full = false;
+        }
+
+        void setFull() {
+            full = true;
+        }
+
+        void addAll(Region other) {
+            if (other.full) {
+                full = true;
+                return;
+            }
+            for (int k = 0; k < other.count && !full; k++) {
+                add(other.rectangles[k]);
+            }
+        }
+
+        /**
+         * Add an area, merging it with the rectangles it overlaps
+         */
+        void add(Rectangle dirty) {
+            if (full) return;
+
+            int minX = Math.max(0, dirty.x), minY = Math.max(0, dirty.y);
+            int maxX = Math.min(width, dirty.x + dirty.width), maxY = Math.min(height, dirty.y + dirty.height);
+            if (minX >= maxX || minY >= maxY) return;
+
+            Rectangle merged = rectangles[count];
+            merged.setBounds(minX, minY, maxX - minX, maxY - minY);
+
+            // Merging can make the rectangle overlap ones it didn't before, so go again until nothing overlaps
+            boolean mergedAny = true;
+            while (mergedAny) {
+                mergedAny = false;
+                for (int k = 0; k < count; k++) {
+                    if (!rectangles[k].intersects(merged)) continue;
+
+                    merged.add(rectangles[k]);
+                    remove(k);
+                    // The rectangle being built was moved down by one
+                    merged = rectangles[count];
+                    mergedAny = true;
+                    break;
+                }
+            }
+
+            if (count < MAX_RECTANGLES - 1) {
+                count++;
+            } else {
+                // Out of rectangles, grow the one that grows the least
+                int best = 0;
+                long bestGrowth = Long.MAX_VALUE;
+                for (int k = 0; k < count; k++) {
+                    long growth = unionArea(rectangles[k], merged) - area(rectangles[k]);
+                    if (growth < bestGrowth) {
+                        bestGrowth = growth;
+                        best = k;
+                    }
+                }
+                rectangles[best].add(merged);
+            }
+
+            area = 0;
+            for (int k = 0; k < count; k++) {
+                area += area(rectangles[k]);
+            }
+            if (area > MAX_DIRTY_SHARE * width * height) {
+                full = true;
+            }
+        }
+
+        /**
+         * Remove a rectangle, keeping the one being built right after the others
+         */
+        private void remove(int k) {
+            Rectangle removed = rectangles[k];
+            System.arraycopy(rectangles, k + 1, rectangles, k, count - k);
+            count--;
+            rectangles[count + 1] = removed;
+        }
+
+        private static long area(Rectangle rectangle) {
+            return (long) rectangle.width * rectangle.height;
+        }
+
+        private static long unionArea(Rectangle a, Rectangle b) {
+            long unionWidth = Math.max(a.x + a.width, b.x + b.width) - Math.min(a.x, b.x);
+            long unionHeight = Math.max(a.y + a.height, b.y + b.height) - Math.min(a.y, b.y);
+            return unionWidth * unionHeight;
+        }
+    }
+}
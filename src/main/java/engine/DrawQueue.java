@@ -0,0 +1,95 @@
+package engine;
+
+import java.awt.Graphics2D;
+import java.util.Arrays;
+
+/**
+ * Collects what the nodes of one pass draw, and draws it sorted by material
+ * <p>
+ * Nodes that look the same every time submit a sprite from the {@link SpriteAtlas} instead of drawing themselves (see
+ * {@link LGNode#submit}). When the pass is done, the sprites are drawn grouped by material and then by sprite, so
+ * the painter copies out of the same page again and again without a color or any other state changing in between.
+ * Sprites of one material keep the order they were submitted in. Nodes that draw themselves go after every sprite,
+ * in the order they were submitted.
+ * <p>
+ * Storage is kept between passes, so once it has grown to fit the scene a pass allocates nothing.
+ */
+public final class DrawQueue {
+    // Sort keys hold the material, the sprite and the submission order, 21 bits each
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+    private static final long NODE_GROUP = MASK; // Sorts after every material
+
+    private final SpriteAtlas atlas;
+    private long[] keys = new long[64];
+    private int[] values = new int[64]; // Sprite x or node index, by submission order
+    private int[] spriteY = new int[64];
+    private int count;
+
+    public DrawQueue(SpriteAtlas atlas) {
+        this.atlas = atlas;
+    }
+
+    /**
+     * @return The atlas to find and add sprites in
+     */
+    public SpriteAtlas getAtlas() {
+        return atlas;
+    }
+
+    /**
+     * Draw a sprite with its top left corner at a position, rounded to the nearest pixel
+     *
+     * @param material Sprites are grouped by this, materials of bodies are a good choice
+     */
+    public void drawSprite(int material, int sprite, double x, double y) {
+        if (material < 0 || material >= NODE_GROUP) {
+            throw new IllegalArgumentException("Material out of range: " + material);
+        }
+        int k = next();
+        keys[k] = ((long) material << (2 * BITS)) | ((long) sprite << BITS) | k;
+        values[k] = (int) Math.floor(x + 0.5);
+        spriteY[k] = (int) Math.floor(y + 0.5);
+    }
+
+    /**
+     * Have a node draw itself with {@link LGNode#render(Graphics2D, RenderState, int)}, after every sprite
+     */
+    public void drawNode(int node) {
+        int k = next();
+        keys[k] = (NODE_GROUP << (2 * BITS)) | k;
+        values[k] = node;
+    }
+
+    /**
+     * Draw everything submitted since the last flush, and start over
+     */
+    void flush(Graphics2D g2d, RenderState state) {
+        int n = count;
+        count = 0;
+        Arrays.sort(keys, 0, n);
+        for (int i = 0; i < n; i++) {
+            long key = keys[i];
+            int k = (int) (key & MASK);
+            if (key >>> (2 * BITS) == NODE_GROUP) {
+                int node = values[k];
+                state.getNode(node).render(g2d, state, node);
+            } else {
+                atlas.draw(g2d, (int) ((key >>> BITS) & MASK), values[k], spriteY[k]);
+            }
+        }
+    }
+
+    private int next() {
+        if (count == keys.length) {
+            if (count > MASK) {
+                throw new IllegalStateException("Too many draw commands in one pass: " + count);
+            }
+            int capacity = count * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            spriteY = Arrays.copyOf(spriteY, capacity);
+        }
+        return count++;
+    }
+}
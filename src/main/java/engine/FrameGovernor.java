@@ -0,0 +1,130 @@
+package engine;
+
+/**
+ * Watches how long frames take and picks a {@link Quality} that fits them in the frame budget
+ * <p>
+ * Frame times are smoothed, so a single slow frame doesn't change anything. When frames stay over budget for a while,
+ * quality goes down one level; when they stay well under it for longer, quality goes back up one level. Going up is
+ * slower than going down, and each level gets time to show its effect before the next change, so quality doesn't
+ * flip back and forth at the edge of the budget.
+ * <p>
+ * Only frames that were drawn are measured. A frame that was dropped says nothing about what drawing would have cost.
+ */
+public class FrameGovernor {
+    // Weight of the newest frame in the smoothed frame time
+    private static final double SMOOTHING = 0.1;
+    // Frames the smoothed time has to stay over budget before quality goes down
+    private static final int FRAMES_TO_DEGRADE = 10;
+    // Frames the smoothed time has to stay under the headroom before quality goes back up
+    private static final int FRAMES_TO_RECOVER = 120;
+
+    private long budgetNanos;
+    private double headroom;
+    private boolean enabled;
+
+    private Quality quality;
+    private double smoothedNanos;
+    private int framesOver, framesUnder;
+
+    /**
+     * @param budgetMillis How long a frame may take, usually the frame period
+     */
+    public FrameGovernor(double budgetMillis) {
+        setBudget(budgetMillis);
+        this.headroom = 0.6;
+        this.enabled = true;
+        this.quality = Quality.FULL;
+    }
+
+    /**
+     * Record a frame that was drawn
+     *
+     * @param frameNanos How long the frame took, physics and drawing together
+     * @return Whether the quality changed
+     */
+    public boolean frameDone(long frameNanos) {
+        if (!enabled) return false;
+
+        smoothedNanos = smoothedNanos == 0 ? frameNanos : smoothedNanos + (frameNanos - smoothedNanos) * SMOOTHING;
+        if (smoothedNanos > budgetNanos) {
+            framesOver++;
+            framesUnder = 0;
+        } else if (smoothedNanos < budgetNanos * headroom) {
+            framesUnder++;
+            framesOver = 0;
+        } else {
+            framesOver = 0;
+            framesUnder = 0;
+        }
+
+        if (framesOver >= FRAMES_TO_DEGRADE && quality != Quality.DROP_FRAMES) {
+            return changeQuality(quality.lower());
+        }
+        if (framesUnder >= FRAMES_TO_RECOVER && quality != Quality.FULL) {
+            return changeQuality(quality.higher());
+        }
+        return false;
+    }
+
+    private boolean changeQuality(Quality quality) {
+        this.quality = quality;
+        framesOver = 0;
+        framesUnder = 0;
+        // Start measuring the new level afresh
+        smoothedNanos = 0;
+        return true;
+    }
+
+    public Quality getQuality() {
+        return quality;
+    }
+
+    /**
+     * @return The smoothed time of the frames drawn lately, in milliseconds
+     */
+    public double getSmoothedFrameMillis() {
+        return smoothedNanos / 1_000_000;
+    }
+
+    /**
+     * @param budgetMillis How long a frame may take
+     */
+    public void setBudget(double budgetMillis) {
+        if (budgetMillis <= 0) {
+            throw new IllegalArgumentException("Frame budget must be positive: " + budgetMillis);
+        }
+        this.budgetNanos = (long) (budgetMillis * 1_000_000);
+    }
+
+    public double getBudget() {
+        return budgetNanos / 1_000_000.0;
+    }
+
+    /**
+     * @param headroom Part of the budget frames have to stay under before quality goes back up, between 0 and 1
+     */
+    public void setHeadroom(double headroom) {
+        if (headroom <= 0 || headroom >= 1) {
+            throw new IllegalArgumentException("Headroom must be between 0 and 1: " + headroom);
+        }
+        this.headroom = headroom;
+    }
+
+    public double getHeadroom() {
+        return headroom;
+    }
+
+    /**
+     * Turn the governor on or off, turning it off goes back to full quality
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            changeQuality(Quality.FULL);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
@@ -0,0 +1,120 @@
+package engine;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One match running on a {@link WorldHost}
+ * <p>
+ * The engine belongs to the host while the match is hosted: only the host's threads step it. Keys can be sent from any
+ * thread, they are handed to the engine at the start of the match's next step.
+ * <p>
+ * Every tick adds the match's budget to its credit, and every step takes what the step cost. A match only steps while
+ * it has credit, so a match that costs more than its budget steps on some ticks only, and a cheap match is never held
+ * back. A little unused credit is kept for the odd slow step.
+ */
+public final class HostedMatch {
+    // Most credit a match can save up, in ticks' worth of budget
+    private static final int MAX_CREDIT_TICKS = 2;
+
+    private final LGHeadlessEngine engine;
+    private final Queue<Integer> pendingKeys;
+    private volatile long budgetNanos;
+    private long credit;
+
+    // Written by whichever pool thread stepped the match last, read by anyone
+    private volatile long steps;
+    private volatile long throttledTicks;
+    private volatile long lastStepNanos;
+    private volatile RuntimeException failure;
+
+    HostedMatch(LGHeadlessEngine engine, long budgetNanos) {
+        this.engine = engine;
+        this.pendingKeys = new ConcurrentLinkedQueue<>();
+        this.budgetNanos = budgetNanos;
+        this.credit = budgetNanos;
+    }
+
+    /**
+     * Run this match's share of a tick, on a pool thread
+     */
+    void tick() {
+        if (failure != null) return;
+
+        credit = Math.min(credit + budgetNanos, budgetNanos * MAX_CREDIT_TICKS);
+        if (credit <= 0) {
+            throttledTicks++;
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            Integer key;
+            while ((key = pendingKeys.poll()) != null) {
+                engine.keyPressed(key);
+            }
+            engine.step();
+        } catch (RuntimeException e) {
+            // Whatever went wrong stays with this match, the others keep running
+            failure = e;
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        credit -= elapsed;
+        lastStepNanos = elapsed;
+        steps++;
+    }
+
+    /**
+     * Press a key in this match, from any thread
+     */
+    public void keyPressed(int keyCode) {
+        pendingKeys.add(keyCode);
+    }
+
+    /**
+     * Get the engine running the match, only to be touched by the host's threads while the match is hosted
+     */
+    public LGHeadlessEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @param budgetMillis CPU time the match may use per tick, on average
+     */
+    public void setTickBudget(double budgetMillis) {
+        if (budgetMillis <= 0) {
+            throw new IllegalArgumentException("Tick budget must be positive: " + budgetMillis);
+        }
+        this.budgetNanos = (long) (budgetMillis * 1_000_000);
+    }
+
+    public double getTickBudget() {
+        return budgetNanos / 1_000_000.0;
+    }
+
+    /**
+     * @return How many steps the match has run on the host
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return How many ticks the match sat out because it had used up its budget
+     */
+    public long getThrottledTicks() {
+        return throttledTicks;
+    }
+
+    public double getLastStepMillis() {
+        return lastStepNanos / 1_000_000.0;
+    }
+
+    /**
+     * @return What made a step of this match throw, or null while it is fine; a failed match no longer steps
+     */
+    public RuntimeException getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,151 @@
+package engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records a session step by step into a memory mapped file, so it can be played back with {@link Replay}
+ * <p>
+ * Only key codes are recorded, and they are played back to {@link LGKeyHandler}s, so a recorded session hands keys to
+ * nothing else: {@link LGNode#keyPressed} isn't called while recording.
+ * <p>
+ * Every record is stamped with the simulation step it belongs to. Keys, settings and views are stamped with the step
+ * they are applied before, world hashes with the step they were taken after. Records are written straight into the
+ * mapping, so recording costs a few stores per step, and whatever was recorded is in the file even if the process
+ * dies without closing the journal: the operating system writes the mapped pages out on its own.
+ * <p>
+ * The file is a header (magic, version, timestep) followed by records, each a type byte, the step, and the payload.
+ * A zero type byte, which is what unwritten parts of the file read as, ends the journal.
+ */
+public class InputJournal implements Closeable {
+    static final int MAGIC = 0x4C474A31; // "LGJ1"
+    static final int VERSION = 2; // Version 1 had no views
+
+    // Record types
+    static final byte END = 0;
+    static final byte KEY = 1; // Key code
+    static final byte HASH = 2; // World hash
+    static final byte SETTINGS = 3; // Solver iterations and off-screen step divisor
+    static final byte VIEW = 4; // Part of the world on screen
+
+    // The file is mapped a piece at a time, and grows by another piece whenever one is full
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int LONGEST_RECORD = 1 + 8 + 4 * 8;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long bufferStart; // Where the current piece starts in the file
+    private boolean closed;
+
+    /**
+     * Start a new journal, replacing the file if it exists
+     *
+     * @param timestep Seconds per step of the recorded session
+     */
+    public static InputJournal create(Path file, double timestep) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new InputJournal(channel, timestep);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private InputJournal(FileChannel channel, double timestep) throws IOException {
+        this.channel = channel;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, CHUNK_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putDouble(timestep);
+    }
+
+    /**
+     * Record a key pressed before a step
+     */
+    public synchronized void recordKey(long step, int keyCode) {
+        if (!beginRecord(KEY, step)) return;
+        buffer.putInt(keyCode);
+    }
+
+    /**
+     * Record the hash of the world after a step
+     */
+    public synchronized void recordHash(long step, long hash) {
+        if (!beginRecord(HASH, step)) return;
+        buffer.putLong(hash);
+    }
+
+    /**
+     * Record physics settings that change how steps come out, from the given step on
+     */
+    public synchronized void recordSettings(long step, int solverIterations, int offscreenStepDivisor) {
+        if (!beginRecord(SETTINGS, step)) return;
+        buffer.putInt(solverIterations);
+        buffer.putInt(offscreenStepDivisor);
+    }
+
+    /**
+     * Record the part of the world on screen from the given step on, bodies out of it may be stepped differently
+     */
+    public synchronized void recordView(long step, double x, double y, double width, double height) {
+        if (!beginRecord(VIEW, step)) return;
+        buffer.putDouble(x);
+        buffer.putDouble(y);
+        buffer.putDouble(width);
+        buffer.putDouble(height);
+    }
+
+    /**
+     * @return Whether the record can be written, false once the journal is closed
+     */
+    private boolean beginRecord(byte type, long step) {
+        if (closed) return false;
+
+        if (buffer.remaining() < LONGEST_RECORD) {
+            long end = bufferStart + buffer.position();
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, end, CHUNK_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't grow the input journal", e);
+            }
+            bufferStart = end;
+        }
+        buffer.put(type);
+        buffer.putLong(step);
+        return true;
+    }
+
+    /**
+     * Make sure everything recorded so far is on disk, not only in the page cache
+     */
+    public synchronized void flush() {
+        if (!closed) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Write everything out and cut the file down to what was recorded, later records are ignored
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+
+        closed = true;
+        long end = bufferStart + buffer.position();
+        buffer.force();
+        buffer = null;
+        try {
+            channel.truncate(end);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package engine;
+
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.image.BufferStrategy;
+
+/**
+ * The place our frames are shown in when the game loop draws them itself
+ * <p>
+ * Unlike {@link LGPanel}, Swing never paints this. Each frame is drawn straight into one of three buffers from the
+ * game loop and shown right away, so there is no copy of the frame waiting for the event dispatch thread, and the
+ * buffers are swapped in one go instead of being copied over the window while it is on screen.
+ */
+public class LGCanvas extends Canvas {
+    private static final long serialVersionUID = 1L;
+
+    public LGCanvas() {
+        // We draw it ourselves, and keys should keep going to the window
+        setIgnoreRepaint(true);
+        setFocusable(false);
+        setBackground(Color.black);
+    }
+
+    /**
+     * Set up the buffers to draw into, once the canvas is in a window that is on screen
+     *
+     * @param count How many buffers, 3 lets the next frame be drawn while the last one waits to be shown
+     * @return The buffers, or null if this canvas can't have any, then {@link LGPanel} has to be used
+     */
+    public BufferStrategy createBuffers(int count) {
+        if (!isDisplayable()) return null;
+        try {
+            createBufferStrategy(count);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            return null;
+        }
+        return getBufferStrategy();
+    }
+}
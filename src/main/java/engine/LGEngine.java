@@ -1,16 +1,24 @@
 package engine;
 
+import physics.BodyStore;
+import physics.LevelFile;
 import physics.PhysicsWorld;
 import physics.RigidBody;
+import profiling.FrameProfiler;
 
-import java.awt.Graphics2D;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The thing that combines everything together
@@ -18,45 +26,154 @@ import java.util.TimerTask;
  */
 public class LGEngine extends TimerTask implements KeyListener {
     public final List<LGNode> nodeList;
+    private final List<LGUpdatable> updatables;
+    private final List<LGKeyHandler> keyHandlers;
+    private final Queue<KeyEvent> pendingKeys;
+    private volatile InputJournal journal;
     private final LGFrame frame;
     private final LGPanel panel;
-    private final Graphics2D g2d;
+    private final LGCanvas canvas;
+    private BufferStrategy strategy; // Buffers of the canvas, null when drawing through the panel
+    private boolean activeRendering;
     private final PhysicsWorld physicsWorld;
+    private final Camera camera;
+    private ChunkStreamer chunkStreamer;
+    private double viewX, viewY, viewWidth, viewHeight; // View physics was last given
     private long lastTime;
+    private double fixedTimestep; // Seconds per physics step, 0 for a variable timestep
+    private int maxStepsPerFrame;
+    private double accumulator;
+    private long simulationStep;
+    
+    // Degrading gracefully when frames run late
+    private static final int OFFSCREEN_STEP_DIVISOR = 3;
+    private final FrameGovernor governor;
+    private Quality appliedQuality;
+    private int fullSolverIterations;
+    private long frameCount;
+    
+    // Drawing in layers, and only what changed since the last frame
+    private final LayerCompositor compositor;
+    private volatile boolean dirtyRendering;
+    
+    // Drawing on a thread of its own, from frames captured by the timer thread
+    private final RenderBuffer renderBuffer;
+    private final FrameProfiler renderProfiler;
+    private Object renderDetail;
+    private boolean threadedRendering;
+    private Thread renderThread;
 
     public LGEngine(final int width, final int height) {
+        this(width, height, width, height);
+    }
+
+    /**
+     * @param width Width of the window
+     * @param height Height of the window
+     * @param worldWidth Width of the world, which the {@link Camera} shows a window's worth of at a time
+     * @param worldHeight Height of the world
+     */
+    public LGEngine(final int width, final int height, final double worldWidth, final double worldHeight) {
         final BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         this.nodeList = new ArrayList<>();
+        this.updatables = new ArrayList<>();
+        this.keyHandlers = new ArrayList<>();
+        this.pendingKeys = new ConcurrentLinkedQueue<>();
         this.frame = new LGFrame(width, height);
         this.panel = new LGPanel(bufferedImage);
-        this.g2d = bufferedImage.createGraphics();
-        this.physicsWorld = new PhysicsWorld(width, height);
-        this.lastTime = System.currentTimeMillis();
+        this.canvas = new LGCanvas();
+        this.activeRendering = true;
+        this.physicsWorld = new PhysicsWorld(worldWidth, worldHeight);
+        this.camera = new Camera(width, height, worldWidth, worldHeight);
+        this.viewWidth = -1; // Nothing given yet
+        this.lastTime = System.nanoTime();
+        this.fixedTimestep = 0;
+        this.maxStepsPerFrame = 1;
+        this.governor = new FrameGovernor(16);
+        this.appliedQuality = Quality.FULL;
+        this.compositor = new LayerCompositor(bufferedImage);
+        this.dirtyRendering = true;
+        this.renderBuffer = new RenderBuffer();
+        this.renderProfiler = new FrameProfiler();
+        this.renderDetail = RenderDetail.FULL;
+        this.threadedRendering = Runtime.getRuntime().availableProcessors() > 1;
     }
 
     public void register(LGNode node) {
         nodeList.add(node);
         
         // If the node has a physics body, add it to the physics world
-        if (node instanceof game.Box) {
-            game.Box box = (game.Box) node;
-            physicsWorld.addBody(box.getPhysicsBody());
-        } else if (node instanceof game.BuildingBlock) {
-            game.BuildingBlock block = (game.BuildingBlock) node;
-            physicsWorld.addBody(block.getPhysicsBody());
-        } else if (node instanceof game.Cannonball) {
-            game.Cannonball ball = (game.Cannonball) node;
-            physicsWorld.addBody(ball.getPhysicsBody());
+        RigidBody body = node.getPhysicsBody();
+        if (body != null) {
+            physicsWorld.addBody(body);
         }
     }
+    
+    /**
+     * Take a node out of the game, together with its physics body
+     * Finding the node is a pass over every node, which suits things that leave now and then, like a spent cannonball.
+     */
+    public void unregister(LGNode node) {
+        nodeList.remove(node);
+        RigidBody body = node.getPhysicsBody();
+        if (body != null) {
+            physicsWorld.removeBody(body);
+        }
+    }
+    
+    /**
+     * Add every body of a level to the world in one go, and register a node for each
+     *
+     * @param nodeFactory Makes the nodes drawing the bodies, like the factory of a {@link ChunkStreamer}
+     * @return Index of the first body of the level in the world
+     */
+    public int loadLevel(LevelFile level, ChunkStreamer.NodeFactory nodeFactory) {
+        int first = level.addTo(physicsWorld);
+        BodyStore store = physicsWorld.getBodyStore();
+        for (int i = first; i < store.getCount(); i++) {
+            nodeList.add(nodeFactory.createNode(store.handle(i)));
+        }
+        return first;
+    }
 
+    /**
+     * Run some game logic before every physics step, on the timer thread
+     * Nodes, updatables and key handlers may be registered from here
+     */
+    public void addUpdatable(LGUpdatable updatable) {
+        updatables.add(updatable);
+    }
+    
+    /**
+     * Hand keys to this handler at the start of the physics step after they were pressed
+     */
+    public void addKeyHandler(LGKeyHandler handler) {
+        keyHandlers.add(handler);
+    }
+    
     /**
      * @param period How long each frame lasts
      */
     public void start(final long period) {
         frame.constructFrame();
-        frame.register(panel);
+        if (activeRendering) {
+            frame.register(canvas);
+            strategy = canvas.createBuffers(3);
+            if (strategy == null) {
+                // No buffers to draw into, go through Swing like before
+                frame.unregister(canvas);
+            }
+        }
+        if (strategy == null) {
+            frame.register(panel);
+        }
         frame.getFrame().addKeyListener(this);
+        if (threadedRendering) {
+            renderThread = new Thread(this::renderLoop, "LGEngine render");
+            renderThread.setDaemon(true);
+            renderThread.start();
+        }
+        governor.setBudget(period);
         new Timer().schedule(this, 0, period);
     }
 
@@ -66,29 +183,253 @@ public class LGEngine extends TimerTask implements KeyListener {
     @Override
     public void run() {
         // Calculate delta time
-        long currentTime = System.currentTimeMillis();
-        double deltaTime = (currentTime - lastTime) / 1000.0; // Convert to seconds
+        long currentTime = System.nanoTime();
+        double deltaTime = (currentTime - lastTime) / 1_000_000_000.0; // Convert to seconds
         lastTime = currentTime;
         
+        if (governor.getQuality() != appliedQuality) {
+            applyQuality(governor.getQuality());
+        }
+        
         // Update physics simulation
-        physicsWorld.update(deltaTime);
+        if (fixedTimestep > 0) {
+            stepFixed(deltaTime);
+        } else {
+            step(deltaTime);
+        }
+        
+        FrameProfiler profiler = physicsWorld.getProfiler();
+        // Physics has to keep up with the clock, drawing can skip a frame
+        boolean draw = appliedQuality != Quality.DROP_FRAMES || frameCount % 2 == 0;
+        frameCount++;
+        if (!draw) {
+            profiler.endFrame();
+            return;
+        }
+        
+        renderBuffer.getWriteState().capture(nodeList, renderDetail, frameCount, camera, physicsWorld);
+        renderBuffer.publish();
+        Thread renderThread = this.renderThread;
+        if (renderThread != null) {
+            LockSupport.unpark(renderThread);
+        } else {
+            draw(renderBuffer.take(), profiler);
+        }
+        profiler.endFrame();
+        governor.frameDone(System.nanoTime() - currentTime);
+    }
+    
+    /**
+     * Draw the newest frame whenever there is one, on the render thread
+     */
+    private void renderLoop() {
+        while (true) {
+            RenderState state = renderBuffer.take();
+            if (state == null) {
+                // Nothing new yet, the timer thread wakes us up when it publishes a frame
+                LockSupport.park(this);
+                continue;
+            }
+            draw(state, renderProfiler);
+            renderProfiler.endFrame();
+        }
+    }
+    
+    private void draw(RenderState state, FrameProfiler profiler) {
+        if (strategy != null) {
+            compositor.draw(state, dirtyRendering, strategy, profiler);
+        } else {
+            compositor.draw(state, dirtyRendering, panel, profiler);
+        }
+    }
+    
+    /**
+     * Set up physics and drawing for a quality level
+     */
+    private void applyQuality(Quality quality) {
+        // Whatever was configured at full quality is what we come back to
+        if (appliedQuality == Quality.FULL) {
+            fullSolverIterations = physicsWorld.getSolverIterations();
+        }
+        boolean fewerIterations = quality.compareTo(Quality.FEWER_ITERATIONS) >= 0;
+        physicsWorld.setSolverIterations(fewerIterations
+                ? Math.max(2, fullSolverIterations / 2) : fullSolverIterations);
+        physicsWorld.setOffscreenStepDivisor(quality.compareTo(Quality.COARSE_OFFSCREEN) >= 0
+                ? OFFSCREEN_STEP_DIVISOR : 1);
+        renderDetail = quality.compareTo(Quality.NO_TEXTURE) >= 0 ? RenderDetail.REDUCED : RenderDetail.FULL;
+        appliedQuality = quality;
         
-        // First, we clean the image
-        panel.clear(g2d);
-        // Next, we update image
-        nodeList.forEach(item -> item.render(g2d));
-        // Next, we update the window
-        panel.repaint();
+        // These change how steps come out, so a replay has to make the same changes at the same step
+        InputJournal journal = this.journal;
+        if (journal != null) {
+            journal.recordSettings(simulationStep, physicsWorld.getSolverIterations(),
+                    physicsWorld.getOffscreenStepDivisor());
+        }
     }
 
+    /**
+     * Step physics in fixed increments until it has caught up with the time that passed
+     */
+    private void stepFixed(double deltaTime) {
+        accumulator += deltaTime;
+        int steps = 0;
+        while (accumulator >= fixedTimestep && steps < maxStepsPerFrame) {
+            step(fixedTimestep);
+            accumulator -= fixedTimestep;
+            steps++;
+        }
+        
+        // Too far behind (a GC pause, a breakpoint), give up on the time we couldn't catch up with
+        // rather than trying harder and falling behind even more
+        if (accumulator >= fixedTimestep) {
+            accumulator %= fixedTimestep;
+        }
+        
+        // Draw the bodies part of the way to the next step
+        physicsWorld.setInterpolationAlpha(accumulator / fixedTimestep);
+    }
+    
+    /**
+     * Run one step: keys pressed since the last step, then game logic, then physics
+     */
+    private void step(double deltaTime) {
+        InputJournal journal = this.journal;
+        KeyEvent key;
+        while ((key = pendingKeys.poll()) != null) {
+            if (journal != null) {
+                journal.recordKey(simulationStep, key.getKeyCode());
+            } else {
+                // Only the key code is recorded, and replays hand it to key handlers, so nodes only get keys live
+                for (int i = 0; i < nodeList.size(); i++) {
+                    nodeList.get(i).keyPressed(key);
+                }
+            }
+            for (int i = 0; i < keyHandlers.size(); i++) {
+                keyHandlers.get(i).keyPressed(key.getKeyCode());
+            }
+        }
+        for (int i = 0; i < updatables.size(); i++) {
+            updatables.get(i).update();
+        }
+        applyView(journal);
+        if (chunkStreamer != null) {
+            chunkStreamer.update(physicsWorld, nodeList, camera);
+        }
+        
+        physicsWorld.update(deltaTime);
+        if (journal != null) {
+            journal.recordHash(simulationStep, physicsWorld.computeHash());
+        }
+        simulationStep++;
+    }
+    
+    /**
+     * Tell physics what the camera looks at, if it moved
+     * Bodies out of view may be stepped more coarsely, so a replay has to see the same view at the same step.
+     */
+    private void applyView(InputJournal journal) {
+        double x = camera.getX(), y = camera.getY();
+        double width = camera.getViewWidth(), height = camera.getViewHeight();
+        if (x == viewX && y == viewY && width == viewWidth && height == viewHeight) return;
+        
+        physicsWorld.setViewBounds(x, y, width, height);
+        viewX = x;
+        viewY = y;
+        viewWidth = width;
+        viewHeight = height;
+        if (journal != null) {
+            journal.recordView(simulationStep, x, y, width, height);
+        }
+    }
+    
+    /**
+     * Record the session to a file, for {@link Replay} to play back
+     * <p>
+     * Needs a fixed timestep, and has to start before the first step, so the recording starts from the scene as it
+     * was built. Contacts are solved in deterministic order from here on. While recording, keys only go to
+     * {@link LGKeyHandler}s, the way {@link Replay} plays them back, and no longer to {@link LGNode#keyPressed}.
+     */
+    public void startRecording(Path file) throws IOException {
+        if (fixedTimestep <= 0) {
+            throw new IllegalStateException("Recording needs a fixed timestep");
+        }
+        if (simulationStep != 0 || journal != null) {
+            throw new IllegalStateException("Recording has to start before the first step");
+        }
+        if (chunkStreamer != null) {
+            throw new IllegalStateException("Sessions that stream chunks can't be recorded");
+        }
+        physicsWorld.setDeterministic(true);
+        InputJournal journal = InputJournal.create(file, fixedTimestep);
+        journal.recordSettings(0, physicsWorld.getSolverIterations(), physicsWorld.getOffscreenStepDivisor());
+        this.journal = journal;
+        // The view goes into the recording on the first step
+        viewWidth = -1;
+    }
+    
+    /**
+     * Stop recording and close the file
+     */
+    public void stopRecording() throws IOException {
+        InputJournal journal = this.journal;
+        if (journal == null) return;
+        
+        this.journal = null;
+        journal.close();
+    }
+    
+    /**
+     * Step physics by a fixed amount of time, and draw in between steps
+     * Physics steps as many times as needed to catch up with the clock, and nodes are drawn in between the last two
+     * steps, so the physics rate and the frame rate don't depend on each other.
+     *
+     * @param stepSeconds How much time each physics step covers
+     * @param maxStepsPerFrame The most steps to run in one frame to catch up, any time beyond that is dropped
+     */
+    public void setFixedTimestep(double stepSeconds, int maxStepsPerFrame) {
+        if (stepSeconds <= 0 || maxStepsPerFrame < 1) {
+            throw new IllegalArgumentException("Need a positive step and at least one step per frame");
+        }
+        if (journal != null && stepSeconds != fixedTimestep) {
+            throw new IllegalStateException("The timestep can't change while recording");
+        }
+        this.fixedTimestep = stepSeconds;
+        this.maxStepsPerFrame = maxStepsPerFrame;
+        this.accumulator = 0;
+    }
+    
+    /**
+     * Go back to stepping physics once per frame by the time the frame took
+     */
+    public void setVariableTimestep() {
+        if (journal != null) {
+            throw new IllegalStateException("Recording needs a fixed timestep");
+        }
+        this.fixedTimestep = 0;
+        this.accumulator = 0;
+        physicsWorld.setInterpolationAlpha(1);
+    }
+    
+    /**
+     * @return The number of physics steps run so far
+     */
+    public long getSimulationStep() {
+        return simulationStep;
+    }
+    
     @Override
     public void keyTyped(KeyEvent e) {
 
     }
 
+    /**
+     * Queue the key for the next physics step
+     * Keys then reach nodes and key handlers on the timer thread, so with a fixed timestep a session is fully decided
+     * by which key landed on which step, which is what {@link InputJournal} records.
+     */
     @Override
     public void keyPressed(KeyEvent e) {
-        nodeList.forEach(item->item.keyPressed(e));
+        pendingKeys.add(e);
     }
 
     @Override
@@ -96,6 +437,101 @@ public class LGEngine extends TimerTask implements KeyListener {
 
     }
     
+    /**
+     * Only draw the parts of the screen where nodes moved or changed, and keep the static and HUD layers, the default
+     * Turned off, the whole screen is cleared and every node drawn on every frame. A single node that can't tell its
+     * bounds (see {@link LGNode#getBounds}) makes every frame a full redraw as well.
+     */
+    public void setDirtyRendering(boolean dirtyRendering) {
+        this.dirtyRendering = dirtyRendering;
+    }
+    
+    public boolean isDirtyRendering() {
+        return dirtyRendering;
+    }
+    
+    /**
+     * Draw and show frames from the timer thread through a canvas, the default
+     * Turned off, frames go through an {@link LGPanel} that Swing paints. Has to be chosen before {@link #start}.
+     */
+    public void setActiveRendering(boolean activeRendering) {
+        if (frame.getFrame().isDisplayable()) {
+            throw new IllegalStateException("Choose how frames are drawn before starting");
+        }
+        this.activeRendering = activeRendering;
+    }
+    
+    /**
+     * @return Whether frames are being drawn through the canvas, false before starting or if it couldn't be used
+     */
+    public boolean isActiveRendering() {
+        return strategy != null;
+    }
+    
+    /**
+     * Draw on a thread of its own, the default with more than one core
+     * Frames are handed over through a {@link RenderBuffer}, so the timer thread goes on simulating while a frame is
+     * drawn. Turned off, frames are drawn on the timer thread right after they are simulated. Has to be chosen before
+     * {@link #start}.
+     */
+    public void setThreadedRendering(boolean threadedRendering) {
+        if (frame.getFrame().isDisplayable()) {
+            throw new IllegalStateException("Choose how frames are drawn before starting");
+        }
+        this.threadedRendering = threadedRendering;
+    }
+    
+    public boolean isThreadedRendering() {
+        return threadedRendering;
+    }
+    
+    /**
+     * Get the governor trading quality for frame time, its budget is the frame period once started
+     */
+    public FrameGovernor getGovernor() {
+        return governor;
+    }
+    
+    /**
+     * Get the profiler that times every frame, physics and drawing together
+     * With threaded rendering it only times physics, see {@link #getRenderProfiler}. It is off until turned on, from
+     * code or over JMX once its beans are registered.
+     */
+    public FrameProfiler getProfiler() {
+        return physicsWorld.getProfiler();
+    }
+    
+    /**
+     * Get the profiler that times drawing on the render thread, unused when drawing on the timer thread
+     */
+    public FrameProfiler getRenderProfiler() {
+        return renderProfiler;
+    }
+    
+    /**
+     * Keep the parts of the world far from the camera and from anything moving on disk, null to keep everything
+     * Nodes and bodies of chunks on disk stay there when streaming is turned off, until it is turned on again with the
+     * same streamer.
+     */
+    public void setChunkStreamer(ChunkStreamer chunkStreamer) {
+        if (journal != null && chunkStreamer != null) {
+            throw new IllegalStateException("Sessions that stream chunks can't be recorded");
+        }
+        this.chunkStreamer = chunkStreamer;
+    }
+    
+    public ChunkStreamer getChunkStreamer() {
+        return chunkStreamer;
+    }
+    
+    /**
+     * Get the camera, to move and zoom it from key handlers and updatables
+     * Nodes whose body is out of its view are culled through the physics broadphase, so they cost nothing to draw.
+     */
+    public Camera getCamera() {
+        return camera;
+    }
+    
     /**
      * Get the physics world for external control
      */
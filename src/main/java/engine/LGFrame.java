@@ -50,4 +50,11 @@ public class LGFrame {
         component.setBounds(0, 0, width, height);
         frame.getContentPane().add(component);
     }
+
+    /**
+     * @param component A place holder to take out again
+     */
+    public void unregister(final Component component) {
+        frame.getContentPane().remove(component);
+    }
 }
@@ -0,0 +1,166 @@
+package engine;
+
+import physics.PhysicsWorld;
+import physics.RigidBody;
+import profiling.FrameProfiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs the simulation without a window, as fast as the CPU allows
+ * <p>
+ * Unlike {@link LGEngine} there is no frame, no panel, no image and no timer, so this works on machines without a
+ * display. Nothing here loads AWT or Swing, as long as the updatables and bodies put in don't either: game objects
+ * keep what they draw with out of their update path. Every step has the same length, so a run only depends on what was
+ * put in, not on how fast the machine is.
+ */
+public class LGHeadlessEngine {
+    private final PhysicsWorld physicsWorld;
+    private final List<LGUpdatable> updatables;
+    private final List<LGKeyHandler> keyHandlers;
+    private int[] pendingKeys;
+    private int pendingKeyCount;
+    private double timestep;
+    private long simulationStep;
+
+    public LGHeadlessEngine(final int width, final int height) {
+        this.physicsWorld = new PhysicsWorld(width, height);
+        this.updatables = new ArrayList<>();
+        this.keyHandlers = new ArrayList<>();
+        this.pendingKeys = new int[8];
+        this.timestep = 1.0 / 60;
+    }
+
+    /**
+     * Run some game logic before every physics step
+     */
+    public void register(LGUpdatable updatable) {
+        updatables.add(updatable);
+    }
+
+    /**
+     * Hand keys to this handler at the start of every step
+     */
+    public void addKeyHandler(LGKeyHandler handler) {
+        keyHandlers.add(handler);
+    }
+
+    /**
+     * Press a key, the key handlers get it at the start of the next step
+     */
+    public void keyPressed(int keyCode) {
+        if (pendingKeyCount == pendingKeys.length) {
+            pendingKeys = Arrays.copyOf(pendingKeys, pendingKeyCount * 2);
+        }
+        pendingKeys[pendingKeyCount++] = keyCode;
+    }
+
+    /**
+     * Add a physics body directly to the world
+     */
+    public void addPhysicsBody(RigidBody body) {
+        physicsWorld.addBody(body);
+    }
+
+    /**
+     * Take a physics body out of the world
+     */
+    public void removePhysicsBody(RigidBody body) {
+        physicsWorld.removeBody(body);
+    }
+
+    /**
+     * Run a single step: keys first, then game logic, then physics, in the same order as {@link LGEngine}
+     */
+    public void step() {
+        for (int k = 0; k < pendingKeyCount; k++) {
+            for (int i = 0; i < keyHandlers.size(); i++) {
+                keyHandlers.get(i).keyPressed(pendingKeys[k]);
+            }
+        }
+        pendingKeyCount = 0;
+        for (int i = 0; i < updatables.size(); i++) {
+            updatables.get(i).update();
+        }
+        physicsWorld.update(timestep);
+        simulationStep++;
+        // Without drawing, every step is a frame of its own
+        physicsWorld.getProfiler().endFrame();
+    }
+
+    /**
+     * Run a number of steps
+     */
+    public void run(long steps) {
+        for (long i = 0; i < steps; i++) {
+            step();
+        }
+    }
+
+    /**
+     * Run until a condition holds, checked after every step, or until a number of steps have run
+     *
+     * @param done Checked after each step, the run stops as soon as it returns true
+     * @param maxSteps The most steps to run
+     * @return Whether the condition was met, false if the run stopped at the step limit
+     */
+    public boolean runUntil(BooleanSupplier done, long maxSteps) {
+        for (long i = 0; i < maxSteps; i++) {
+            step();
+            if (done.getAsBoolean()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param stepSeconds How much time each step covers
+     */
+    public void setTimestep(double stepSeconds) {
+        if (stepSeconds <= 0) {
+            throw new IllegalArgumentException("Need a positive step: " + stepSeconds);
+        }
+        this.timestep = stepSeconds;
+    }
+
+    public double getTimestep() {
+        return timestep;
+    }
+
+    /**
+     * @return The number of steps run so far
+     */
+    public long getSimulationStep() {
+        return simulationStep;
+    }
+
+    /**
+     * @return How much simulated time has passed, in seconds
+     */
+    public double getSimulatedTime() {
+        return simulationStep * timestep;
+    }
+
+    /**
+     * Get the profiler that times every step, it is off until turned on
+     */
+    public FrameProfiler getProfiler() {
+        return physicsWorld.getProfiler();
+    }
+
+    /**
+     * Get the physics world for external control
+     */
+    public PhysicsWorld getPhysicsWorld() {
+        return physicsWorld;
+    }
+
+    /**
+     * Set gravity strength
+     */
+    public void setGravity(double gravity) {
+        physicsWorld.setGravity(gravity);
+    }
+}
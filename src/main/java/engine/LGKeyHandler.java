@@ -0,0 +1,12 @@
+package engine;
+
+/**
+ * Game logic that reacts to keys
+ * <p>
+ * Engines hand keys over at the start of a step, on the thread running the steps, so a key always lands on a known
+ * step and a recorded session can be played back exactly. Only the key code is passed, so {@link LGHeadlessEngine}
+ * can play keys back without AWT.
+ */
+public interface LGKeyHandler {
+    void keyPressed(int keyCode);
+}
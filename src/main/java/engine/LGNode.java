@@ -1,6 +1,9 @@
 package engine;
 
+import physics.RigidBody;
+
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 
 /**
@@ -18,6 +21,78 @@ public interface LGNode {
     void render(Graphics2D g2d);
 
     /**
+     * Draw the node the way it was captured for a frame
+     * Nodes that capture themselves draw from the state, the others are drawn with render as they are right now.
+     *
+     * @param state The frame being drawn
+     * @param node Index of this node in the frame
+     */
+    default void render(Graphics2D g2d, RenderState state, int node) {
+        render(g2d);
+    }
+
+    /**
+     * Hand what the node draws for a frame to the draw queue, which draws it once the pass is done
+     * Nodes that always look the same for the same state submit a sprite, so drawing them is a single copy. By
+     * default the node draws itself with render, after all the sprites.
+     *
+     * @param node Index of this node in the frame
+     */
+    default void submit(DrawQueue queue, RenderState state, int node) {
+        queue.drawNode(node);
+    }
+
+    /**
+     * Record what the node is drawn from, on the simulation thread, before the frame goes to the render thread
+     * The simulation goes on while the frame is drawn, so a node reading bodies or game state that changes should
+     * record it here, and read it back from the state everywhere else. A node that doesn't is drawn from its own
+     * fields, as they are at the time.
+     *
+     * @param node Index of this node in the frame
+     */
+    default void capture(RenderState state, int node) {
+
+    }
+
+    /**
+     * The body the node is drawn from, if it has one
+     * It is added to the physics world when the node is registered, and the node is culled while it is out of view.
+     */
+    default RigidBody getPhysicsBody() {
+        return null;
+    }
+
+    /**
+     * Where the node is drawn, so the engine only has to draw again what changed
+     * The engine leaves a pixel or two around the bounds for outlines and rounding. Bounds are in world units, except
+     * on the HUD layer, which is drawn in screen pixels.
+     *
+     * @param bounds Set to the area render will draw in, empty if it won't draw anything
+     * @return false if the node can't tell, then the whole screen is drawn again every frame
+     */
+    default boolean getBounds(Rectangle bounds, RenderState state, int node) {
+        return false;
+    }
+
+    /**
+     * The layer the node is drawn on, it may change from one frame to the next
+     * Nodes on the static and HUD layers are kept drawn in an image, which costs nothing until they change.
+     */
+    default Layer getLayer(RenderState state, int node) {
+        return Layer.DYNAMIC;
+    }
+
+    /**
+     * Whether the node looks different from the last time it was drawn, without having moved
+     * Only asked for nodes whose bounds didn't change.
+     */
+    default boolean needsRedraw(RenderState state, int node) {
+        return false;
+    }
+
+    /**
+     * Not called while a session is recorded, game logic that has to replay handles keys in an {@link LGKeyHandler}
+     *
      * @param e Now we need to implement key method
      */
     default void keyPressed(KeyEvent e) {
@@ -4,6 +4,7 @@ import javax.swing.JPanel;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 /**
@@ -29,9 +30,18 @@ public class LGPanel extends JPanel {
         g2d.fillRect(0, 0, bufferedImage.getWidth(), bufferedImage.getHeight());
     }
 
+    /**
+     * Clear only part of the image, when nothing changed anywhere else
+     */
+    public void clear(final Graphics2D g2d, final Rectangle area) {
+        g2d.setColor(Color.black);
+        g2d.fillRect(area.x, area.y, area.width, area.height);
+    }
+
     /**
      * We are going to use this method, which is coming from JPanel to update the image
-     * You need to call repaint() every time the image is updated
+     * You need to call repaint() every time the image is updated, or repaint(x, y, w, h) if only part of it was
+     * Swing clips to the repainted part, so only that part of the image is copied to the screen
      *
      * @param g The painter
      */
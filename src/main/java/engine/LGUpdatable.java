@@ -0,0 +1,11 @@
+package engine;
+
+/**
+ * Game logic that runs once per step, like counting down a cooldown
+ * <p>
+ * Separate from {@link LGNode} on purpose: this has nothing to do with drawing, so it can run in
+ * {@link LGHeadlessEngine} without AWT.
+ */
+public interface LGUpdatable {
+    void update();
+}
@@ -0,0 +1,16 @@
+package engine;
+
+/**
+ * The layers a frame is put together from, from back to front
+ * <p>
+ * The static and HUD layers are kept in images of their own and only drawn again where one of their nodes changed.
+ * The dynamic layer is drawn on every frame where anything changed, between the other two.
+ * <p>
+ * The static and dynamic layers show the world, and are drawn through the {@link Camera}. The HUD stays where it is
+ * on screen whatever the camera does, its nodes draw in screen pixels.
+ */
+public enum Layer {
+    STATIC, // Things that rarely change, like a castle that has come to rest
+    DYNAMIC, // Things that move, like falling blocks and cannonballs
+    HUD // Text and indicators on top of everything
+}
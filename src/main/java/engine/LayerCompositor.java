@@ -0,0 +1,304 @@
+package engine;
+
+import profiling.FrameProfiler;
+import profiling.Phase;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws the nodes into the frame image, layer by layer, drawing as little as it can
+ * <p>
+ * The static and HUD layers each have an image of their own, with nothing but their nodes on a transparent
+ * background. Where one of their nodes changed, that part of the image is cleared and drawn again, and everywhere
+ * else it stays as it is, so a castle at rest or a line of text is drawn once and then only copied.
+ * <p>
+ * The frame is then put together where any layer changed, in one pass per dirty rectangle: the background, the static
+ * image, the nodes of the dynamic layer drawn straight into the frame, and the HUD image on top. The dynamic layer has
+ * no image of its own, its nodes change on every frame they are drawn on, so one would only add a copy.
+ * <p>
+ * When drawing into the buffers of an {@link LGCanvas}, the whole frame is put together every time, but from the same
+ * cached layers, so a castle at rest is still only copied.
+ * <p>
+ * Every pass goes through a {@link DrawQueue}, so the sprites of the nodes in it are drawn batched by material.
+ * <p>
+ * The layer images and the frame are in screen pixels. Nodes of the static and dynamic layers are drawn through the
+ * camera the frame was captured with, and culled nodes are skipped.
+ * <p>
+ * Layer images are compatible with the screen, which lets Java2D keep a copy in video memory, or plain translucent
+ * images without a screen.
+ */
+class LayerCompositor {
+    private final int width, height;
+    private final Graphics2D frameGraphics;
+    private final BufferedImage staticImage, hudImage;
+    private final Graphics2D staticGraphics, hudGraphics;
+    private final DirtyRegions dirtyRegions;
+    private final DrawQueue queue = new DrawQueue(new SpriteAtlas());
+    private final Composite clearComposite = AlphaComposite.Clear;
+    private final Composite drawComposite = AlphaComposite.SrcOver;
+    private final Rectangle area = new Rectangle(); // Area being drawn, as the nodes are asked about it
+    private final RenderingHints hints = new RenderingHints(null); // For graphics made fresh every frame
+    private Object renderDetail;
+
+    LayerCompositor(BufferedImage frame) {
+        this.width = frame.getWidth();
+        this.height = frame.getHeight();
+        this.frameGraphics = frame.createGraphics();
+        this.staticImage = createLayerImage(width, height);
+        this.hudImage = createLayerImage(width, height);
+        this.staticGraphics = staticImage.createGraphics();
+        this.hudGraphics = hudImage.createGraphics();
+        this.dirtyRegions = new DirtyRegions(width, height);
+    }
+
+    private static BufferedImage createLayerImage(int width, int height) {
+        if (!GraphicsEnvironment.isHeadless()) {
+            GraphicsConfiguration configuration = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+            return configuration.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    /**
+     * Draw with the detail a frame was captured with, changing it draws every layer again
+     */
+    private void applyRenderDetail(RenderState state) {
+        Object detail = state.getRenderDetail();
+        if (detail != renderDetail) {
+            setRenderingHint(RenderDetail.KEY, detail);
+            renderDetail = detail;
+        }
+    }
+
+    /**
+     * Set a rendering hint on every layer, which draws every layer again on the next frame
+     */
+    private void setRenderingHint(RenderingHints.Key key, Object value) {
+        hints.put(key, value);
+        frameGraphics.setRenderingHint(key, value);
+        staticGraphics.setRenderingHint(key, value);
+        hudGraphics.setRenderingHint(key, value);
+        dirtyRegions.invalidate();
+    }
+
+    /**
+     * Bring the frame image up to date with the nodes, and repaint the parts of the panel that changed
+     *
+     * @param trackChanges false to clear and draw everything straight into the frame, like without layers
+     */
+    void draw(RenderState state, boolean trackChanges, LGPanel panel, FrameProfiler profiler) {
+        long phaseStart = profiler.begin();
+        applyRenderDetail(state);
+        if (trackChanges) {
+            dirtyRegions.update(state);
+        }
+        if (!trackChanges || !dirtyRegions.isTracked()) {
+            dirtyRegions.invalidate();
+            // First, we clean the image
+            panel.clear(frameGraphics);
+            phaseStart = profiler.lap(Phase.CLEAR, phaseStart);
+            // Next, we update image
+            drawAll(frameGraphics, state);
+            phaseStart = profiler.lap(Phase.RENDER, phaseStart);
+            // Next, we update the window
+            panel.repaint();
+            profiler.lap(Phase.REPAINT, phaseStart);
+            return;
+        }
+
+        // Bring the cached layers up to date where their nodes changed
+        updateLayer(state, Layer.STATIC, staticGraphics);
+        updateLayer(state, Layer.HUD, hudGraphics);
+        phaseStart = profiler.lap(Phase.CLEAR, phaseStart);
+
+        DirtyRegions.Region frame = dirtyRegions.getFrameRegion();
+        if (frame.isFull()) {
+            composite(frameGraphics, state, 0, 0, width, height);
+        } else {
+            for (int k = 0; k < frame.getCount(); k++) {
+                Rectangle dirty = frame.get(k);
+                composite(frameGraphics, state, dirty.x, dirty.y, dirty.width, dirty.height);
+            }
+        }
+        dirtyRegions.drawn();
+        phaseStart = profiler.lap(Phase.RENDER, phaseStart);
+
+        if (frame.isFull()) {
+            panel.repaint();
+        } else {
+            for (int k = 0; k < frame.getCount(); k++) {
+                Rectangle dirty = frame.get(k);
+                panel.repaint(dirty.x, dirty.y, dirty.width, dirty.height);
+            }
+        }
+        profiler.lap(Phase.REPAINT, phaseStart);
+    }
+
+    /**
+     * Draw a whole frame into the next buffer of a canvas and show it
+     * <p>
+     * What a buffer holds once it has been shown isn't defined, so every frame is put together as a whole, from the
+     * cached layers when changes are tracked. The layers are still only drawn again where their nodes changed.
+     *
+     * @param trackChanges false to draw every node straight into the buffer, like without layers
+     */
+    void draw(RenderState state, boolean trackChanges, BufferStrategy strategy, FrameProfiler profiler) {
+        long phaseStart = profiler.begin();
+        applyRenderDetail(state);
+        if (trackChanges) {
+            dirtyRegions.update(state);
+        }
+        boolean layered = trackChanges && dirtyRegions.isTracked();
+        if (layered) {
+            updateLayer(state, Layer.STATIC, staticGraphics);
+            updateLayer(state, Layer.HUD, hudGraphics);
+        } else {
+            dirtyRegions.invalidate();
+        }
+        phaseStart = profiler.lap(Phase.CLEAR, phaseStart);
+
+        // The buffers live in video memory and can be lost at any time, then the frame is drawn again
+        do {
+            do {
+                Graphics2D graphics = (Graphics2D) strategy.getDrawGraphics();
+                graphics.addRenderingHints(hints);
+                if (layered) {
+                    composite(graphics, state, 0, 0, width, height);
+                } else {
+                    graphics.setColor(Color.black);
+                    graphics.fillRect(0, 0, width, height);
+                    drawAll(graphics, state);
+                }
+                graphics.dispose();
+            } while (strategy.contentsRestored());
+            phaseStart = profiler.lap(Phase.RENDER, phaseStart);
+
+            strategy.show();
+        } while (strategy.contentsLost());
+        // Some systems queue drawing commands, this makes sure the frame is on its way to the screen now
+        Toolkit.getDefaultToolkit().sync();
+        if (layered) {
+            dirtyRegions.drawn();
+        }
+        profiler.lap(Phase.REPAINT, phaseStart);
+    }
+
+    /**
+     * Draw every node that wasn't culled, the world first and the HUD on top
+     */
+    private void drawAll(Graphics2D graphics, RenderState state) {
+        AffineTransform screen = toWorld(graphics, state);
+        for (int i = 0; i < state.getCount(); i++) {
+            if (!state.isCulled(i) && state.getNode(i).getLayer(state, i) != Layer.HUD) {
+                state.getNode(i).submit(queue, state, i);
+            }
+        }
+        queue.flush(graphics, state);
+        toScreen(graphics, screen);
+        for (int i = 0; i < state.getCount(); i++) {
+            if (!state.isCulled(i) && state.getNode(i).getLayer(state, i) == Layer.HUD) {
+                state.getNode(i).submit(queue, state, i);
+            }
+        }
+        queue.flush(graphics, state);
+    }
+
+    /**
+     * Draw in world units from here on, through the camera of the frame
+     *
+     * @return What to go back to for drawing in screen pixels, null if the camera shows the world as it is
+     */
+    private static AffineTransform toWorld(Graphics2D graphics, RenderState state) {
+        double zoom = state.getZoom();
+        if (zoom == 1 && state.getScrollX() == 0 && state.getScrollY() == 0) return null;
+
+        AffineTransform screen = graphics.getTransform();
+        graphics.translate(-state.getScrollX(), -state.getScrollY());
+        graphics.scale(zoom, zoom);
+        return screen;
+    }
+
+    private static void toScreen(Graphics2D graphics, AffineTransform screen) {
+        if (screen != null) {
+            graphics.setTransform(screen);
+        }
+    }
+
+    /**
+     * Clear the dirty parts of a cached layer and draw its nodes there again
+     */
+    private void updateLayer(RenderState state, Layer layer, Graphics2D graphics) {
+        DirtyRegions.Region region = dirtyRegions.getRegion(layer);
+        if (region.isFull()) {
+            redrawLayer(state, layer, graphics, 0, 0, width, height);
+            return;
+        }
+        for (int k = 0; k < region.getCount(); k++) {
+            Rectangle dirty = region.get(k);
+            redrawLayer(state, layer, graphics, dirty.x, dirty.y, dirty.width, dirty.height);
+        }
+    }
+
+    private void redrawLayer(RenderState state, Layer layer, Graphics2D graphics, int x, int y, int w, int h) {
+        graphics.setComposite(clearComposite);
+        graphics.fillRect(x, y, w, h);
+        graphics.setComposite(drawComposite);
+        graphics.setClip(x, y, w, h);
+        area.setBounds(x, y, w, h);
+        for (int i = 0; i < state.getCount(); i++) {
+            if (dirtyRegions.touches(i, layer, area)) {
+                state.getNode(i).submit(queue, state, i);
+            }
+        }
+        AffineTransform screen = layer != Layer.HUD ? toWorld(graphics, state) : null;
+        queue.flush(graphics, state);
+        toScreen(graphics, screen);
+        graphics.setClip(null);
+    }
+
+    /**
+     * Put the frame together in one area: background, static layer, dynamic nodes, HUD
+     */
+    private void composite(Graphics2D graphics, RenderState state, int x, int y, int w, int h) {
+        graphics.setClip(x, y, w, h);
+        graphics.setColor(Color.black);
+        graphics.fillRect(x, y, w, h);
+        drawLayerImage(graphics, staticImage, Layer.STATIC, x, y, w, h);
+        area.setBounds(x, y, w, h);
+        for (int i = 0; i < state.getCount(); i++) {
+            if (dirtyRegions.touches(i, Layer.DYNAMIC, area)) {
+                state.getNode(i).submit(queue, state, i);
+            }
+        }
+        AffineTransform screen = toWorld(graphics, state);
+        queue.flush(graphics, state);
+        toScreen(graphics, screen);
+        drawLayerImage(graphics, hudImage, Layer.HUD, x, y, w, h);
+        graphics.setClip(null);
+    }
+
+    /**
+     * Copy the part of a layer image inside an area, skipping what is empty anyway
+     */
+    private void drawLayerImage(Graphics2D graphics, BufferedImage image, Layer layer, int x, int y, int w, int h) {
+        Rectangle contents = dirtyRegions.getLayerBounds(layer);
+        int minX = Math.max(x, contents.x), minY = Math.max(y, contents.y);
+        int maxX = Math.min(x + w, contents.x + contents.width), maxY = Math.min(y + h, contents.y + contents.height);
+        if (minX >= maxX || minY >= maxY) return;
+
+        graphics.drawImage(image, minX, minY, maxX, maxY, minX, minY, maxX, maxY, null);
+    }
+}
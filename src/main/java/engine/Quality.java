@@ -0,0 +1,22 @@
+package engine;
+
+/**
+ * How much the engine holds back to keep up with its frame budget, from nothing to the most
+ * <p>
+ * Every level keeps what the levels before it gave up.
+ */
+public enum Quality {
+    FULL, // Everything as configured
+    FEWER_ITERATIONS, // Half the contact solver iterations
+    COARSE_OFFSCREEN, // Bodies out of view are stepped every few steps
+    NO_TEXTURE, // Nodes skip their decoration
+    DROP_FRAMES; // Only every other frame is drawn, physics keeps stepping every frame
+
+    Quality lower() {
+        return this == DROP_FRAMES ? this : values()[ordinal() + 1];
+    }
+
+    Quality higher() {
+        return this == FULL ? this : values()[ordinal() - 1];
+    }
+}
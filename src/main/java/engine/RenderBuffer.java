@@ -0,0 +1,55 @@
+package engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands frames from the simulation thread to the render thread, without either of them ever waiting for the other
+ * <p>
+ * There are three {@link RenderState}s. The simulation thread owns one and captures into it, the render thread owns
+ * one and draws from it, and the third holds the newest captured frame not yet taken. Publishing swaps the captured
+ * state with the third one, taking swaps the drawn state with it, each with a single atomic exchange. A frame that
+ * isn't taken before the next one is published is simply dropped, so a slow render thread draws the newest frame
+ * instead of falling behind, and a slow simulation has the same frame drawn until there is a new one.
+ */
+final class RenderBuffer {
+    private static final int INDEX = 3; // Low bits hold the index of the state in the middle
+    private static final int FRESH = 4; // Set while the state in the middle hasn't been taken yet
+
+    private final RenderState[] states = { new RenderState(), new RenderState(), new RenderState() };
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int writing = 0; // Owned by the simulation thread
+    private int reading = 2; // Owned by the render thread
+
+    /**
+     * @return The state to capture the next frame into, on the simulation thread
+     */
+    RenderState getWriteState() {
+        return states[writing];
+    }
+
+    /**
+     * Make the captured frame the newest one, on the simulation thread
+     */
+    void publish() {
+        writing = middle.getAndSet(writing | FRESH) & INDEX;
+    }
+
+    /**
+     * Take the newest frame, on the render thread
+     *
+     * @return The newest frame, or null if none was published since the last one was taken
+     */
+    RenderState take() {
+        if ((middle.get() & FRESH) == 0) return null;
+
+        reading = middle.getAndSet(reading) & INDEX;
+        return states[reading];
+    }
+
+    /**
+     * @return The frame the render thread took last, it keeps it until it takes another one
+     */
+    RenderState getReadState() {
+        return states[reading];
+    }
+}
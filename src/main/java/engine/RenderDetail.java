@@ -0,0 +1,57 @@
+package engine;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+
+/**
+ * A rendering hint telling nodes how much detail to draw
+ * <p>
+ * The engine sets it on the painter before every frame. Nodes draw their outline either way, and only add decoration
+ * like textures while the hint is {@link #FULL}.
+ */
+public final class RenderDetail {
+    public static final RenderingHints.Key KEY = new Key();
+
+    /**
+     * Draw everything, the default
+     */
+    public static final Object FULL = "Full detail";
+
+    /**
+     * Draw only what is needed to tell things apart
+     */
+    public static final Object REDUCED = "Reduced detail";
+
+    private RenderDetail() {
+    }
+
+    /**
+     * @return Whether the painter asks for full detail, also when the hint was never set
+     */
+    public static boolean isFull(Graphics2D g2d) {
+        return g2d.getRenderingHint(KEY) != REDUCED;
+    }
+
+    /**
+     * @return Whether a frame is drawn with full detail
+     */
+    public static boolean isFull(RenderState state) {
+        return state.getRenderDetail() != REDUCED;
+    }
+
+    private static class Key extends RenderingHints.Key {
+        Key() {
+            super(0x4C47);
+        }
+
+        @Override
+        public boolean isCompatibleValue(Object value) {
+            return value == FULL || value == REDUCED;
+        }
+
+        @Override
+        public String toString() {
+            return "Render detail";
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package engine;
+
+import physics.Broadphase;
+import physics.PhysicsWorld;
+import physics.RigidBody;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Everything one frame is drawn from, captured on the simulation thread so it can be drawn on another
+ * <p>
+ * Holds the nodes to draw, in order, and for each node that captures itself (see {@link LGNode#capture}) where it is,
+ * its size, its angle and its material, one column per property like the {@link physics.BodyStore}. The simulation
+ * goes on changing bodies and nodes while the render thread draws, so nodes read what they draw from here instead,
+ * by their index in the frame.
+ * <p>
+ * The frame also holds the camera it was captured with. Nodes with a body (see {@link LGNode#getPhysicsBody}) whose
+ * body is out of view are culled: the physics broadphase is asked for the bodies in view, and the others are skipped
+ * without capturing them, so they are neither measured nor drawn. However big the world is, a frame costs what is on
+ * screen, plus a check per node.
+ * <p>
+ * States are reused from frame to frame, and only grow, so capturing doesn't allocate once they fit the scene.
+ */
+public final class RenderState {
+    private static final byte VISIBLE = 1;
+    private static final byte RESTING = 2; // Static or asleep
+    private static final byte CULLED = 4; // Body out of view, not captured
+    // Bodies are found where the broadphase saw them on the last step, and drawn part of the way to the next
+    private static final double CULL_MARGIN = 64;
+
+    private LGNode[] nodes = new LGNode[64];
+    private double[] x = new double[64], y = new double[64];
+    private double[] width = new double[64], height = new double[64];
+    private double[] angle = new double[64];
+    private int[] material = new int[64];
+    private byte[] flags = new byte[64];
+    private int count;
+    private Object renderDetail = RenderDetail.FULL;
+    private long frame;
+    private double zoom = 1;
+    private int scrollX, scrollY;
+
+    // Bodies found in view, marked with the number of the capture that found them
+    private int[] inView = new int[64];
+    private int viewMark;
+    private final Broadphase.QueryCallback markInView = body -> inView[body] = viewMark;
+
+    /**
+     * Capture the nodes of a frame, called on the simulation thread
+     *
+     * @param frame Frame number, counting every captured frame
+     * @param camera Where the frame is looked at from
+     * @param world The world the bodies of the nodes are in
+     */
+    void capture(List<LGNode> nodeList, Object renderDetail, long frame, Camera camera, PhysicsWorld world) {
+        int n = nodeList.size();
+        ensureCapacity(n);
+        // Nodes left over from a bigger frame would keep garbage alive
+        if (n < count) {
+            Arrays.fill(nodes, n, count, null);
+        }
+        count = n;
+        this.renderDetail = renderDetail;
+        this.frame = frame;
+        this.zoom = camera.getZoom();
+        // Whole pixels, so scrolling doesn't blur sprites
+        this.scrollX = (int) Math.round(camera.getX() * zoom);
+        this.scrollY = (int) Math.round(camera.getY() * zoom);
+        markBodiesInView(camera, world);
+        for (int i = 0; i < n; i++) {
+            LGNode node = nodeList.get(i);
+            nodes[i] = node;
+            int body = world.indexOf(node.getPhysicsBody());
+            if (body >= 0 && inView[body] != viewMark) {
+                flags[i] = CULLED;
+                continue;
+            }
+            flags[i] = 0;
+            node.capture(this, i);
+        }
+    }
+
+    private void markBodiesInView(Camera camera, PhysicsWorld world) {
+        int bodies = world.getBodyCount();
+        if (inView.length < bodies) {
+            inView = new int[Math.max(bodies, inView.length * 2)];
+            viewMark = 0;
+        }
+        if (++viewMark == 0) {
+            // Wrapped around, old marks could match again
+            Arrays.fill(inView, 0);
+            viewMark = 1;
+        }
+        world.queryBodies(camera.getX() - CULL_MARGIN, camera.getY() - CULL_MARGIN,
+                camera.getX() + camera.getViewWidth() + CULL_MARGIN,
+                camera.getY() + camera.getViewHeight() + CULL_MARGIN, markInView);
+    }
+
+    /**
+     * Record a node drawn from a body: where it is drawn right now, its size, angle and material
+     */
+    public void setBody(int node, RigidBody body) {
+        set(node, body.getRenderX(), body.getRenderY(), body.getWidth(), body.getHeight(), body.getAngle());
+        material[node] = body.getMaterial();
+        if (body.isStatic() || body.isSleeping()) {
+            flags[node] |= RESTING;
+        }
+    }
+
+    /**
+     * Record a node at a position, with a size and an angle, without a material
+     */
+    public void set(int node, double x, double y, double width, double height, double angle) {
+        this.x[node] = x;
+        this.y[node] = y;
+        this.width[node] = width;
+        this.height[node] = height;
+        this.angle[node] = angle;
+        material[node] = 0;
+        flags[node] = VISIBLE;
+    }
+
+    /**
+     * Record that a node draws nothing this frame
+     */
+    public void hide(int node) {
+        flags[node] = 0;
+    }
+
+    /**
+     * @return How many nodes the frame has, valid indices are 0 to count - 1
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public LGNode getNode(int node) {
+        return nodes[node];
+    }
+
+    public double getX(int node) { return x[node]; }
+    public double getY(int node) { return y[node]; }
+    public double getWidth(int node) { return width[node]; }
+    public double getHeight(int node) { return height[node]; }
+    public double getAngle(int node) { return angle[node]; }
+    public int getMaterial(int node) { return material[node]; }
+
+    /**
+     * @return Whether the node was recorded and draws something, always false for nodes that don't capture
+     */
+    public boolean isVisible(int node) {
+        return (flags[node] & VISIBLE) != 0;
+    }
+
+    /**
+     * @return Whether the body of the node was out of view, the node wasn't captured and draws nothing
+     */
+    public boolean isCulled(int node) {
+        return (flags[node] & CULLED) != 0;
+    }
+
+    /**
+     * @return Whether the body of the node was static or asleep
+     */
+    public boolean isResting(int node) {
+        return (flags[node] & RESTING) != 0;
+    }
+
+    /**
+     * @return The {@link RenderDetail} the frame is drawn with
+     */
+    public Object getRenderDetail() {
+        return renderDetail;
+    }
+
+    public long getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return Screen pixels per world unit
+     */
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * @return How far the view is scrolled across, in screen pixels: a point of the world is drawn at its x times the
+     *         zoom minus this
+     */
+    public int getScrollX() {
+        return scrollX;
+    }
+
+    /**
+     * @return How far the view is scrolled down, in screen pixels
+     */
+    public int getScrollY() {
+        return scrollY;
+    }
+
+    /**
+     * @return Where a point of the world is on screen across, for nodes drawn on the {@link Layer#HUD}
+     */
+    public double toScreenX(double x) {
+        return x * zoom - scrollX;
+    }
+
+    /**
+     * @return Where a point of the world is on screen from the top
+     */
+    public double toScreenY(double y) {
+        return y * zoom - scrollY;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= nodes.length) return;
+
+        capacity = Math.max(capacity, nodes.length * 2);
+        nodes = Arrays.copyOf(nodes, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        angle = Arrays.copyOf(angle, capacity);
+        material = Arrays.copyOf(material, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+    }
+}
@@ -0,0 +1,113 @@
+package engine;
+
+import physics.PhysicsWorld;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays a session recorded by an {@link InputJournal} back through a {@link LGHeadlessEngine}, as fast as it can
+ * <p>
+ * The engine has to be set up the way the recorded session started: the same bodies added in the same order, and the
+ * same key handlers and updatables. Keys, settings and views are applied before the step they were recorded for, keys
+ * only to the key handlers, as while recording. After every step the world is compared with the hash that was
+ * recorded for it. The first step that doesn't match is where the replay went its own way, which is usually where to
+ * start looking for the bug.
+ */
+public class Replay {
+    private final MappedByteBuffer journal;
+    private final double timestep;
+    private long stepsReplayed;
+
+    public Replay(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Input journal too large to map: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            this.journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (journal.remaining() < 16 || journal.getInt() != InputJournal.MAGIC) {
+            throw new IOException("Not an input journal: " + file);
+        }
+        int version = journal.getInt();
+        if (version < 1 || version > InputJournal.VERSION) {
+            throw new IOException("Unsupported input journal version " + version + ": " + file);
+        }
+        this.timestep = journal.getDouble();
+    }
+
+    /**
+     * @return Seconds per step of the recorded session
+     */
+    public double getTimestep() {
+        return timestep;
+    }
+
+    /**
+     * @return How many steps the last run got through
+     */
+    public long getStepsReplayed() {
+        return stepsReplayed;
+    }
+
+    /**
+     * Play the whole journal back
+     *
+     * @param engine Engine in the state the recording started from, that hasn't run a step yet
+     * @return The first step after which the world differs from the recording, or -1 if every step matched
+     */
+    public long run(LGHeadlessEngine engine) {
+        if (engine.getSimulationStep() != 0) {
+            throw new IllegalStateException("A replay has to start from the first step");
+        }
+        PhysicsWorld world = engine.getPhysicsWorld();
+        engine.setTimestep(timestep);
+        world.setDeterministic(true);
+        journal.position(16);
+
+        long divergedAt = -1;
+        while (journal.remaining() > 0) {
+            byte type = journal.get();
+            if (type == InputJournal.END) break;
+
+            long step = journal.getLong();
+            if (type == InputJournal.KEY) {
+                int keyCode = journal.getInt();
+                runUntil(engine, step);
+                engine.keyPressed(keyCode);
+            } else if (type == InputJournal.SETTINGS) {
+                int solverIterations = journal.getInt();
+                int offscreenStepDivisor = journal.getInt();
+                runUntil(engine, step);
+                world.setSolverIterations(solverIterations);
+                world.setOffscreenStepDivisor(offscreenStepDivisor);
+            } else if (type == InputJournal.VIEW) {
+                double x = journal.getDouble(), y = journal.getDouble();
+                double width = journal.getDouble(), height = journal.getDouble();
+                runUntil(engine, step);
+                world.setViewBounds(x, y, width, height);
+            } else if (type == InputJournal.HASH) {
+                long hash = journal.getLong();
+                runUntil(engine, step + 1);
+                if (world.computeHash() != hash) {
+                    divergedAt = step;
+                    break;
+                }
+            } else {
+                throw new IllegalStateException("Unknown record type " + type + " at " + (journal.position() - 9));
+            }
+        }
+        stepsReplayed = engine.getSimulationStep();
+        return divergedAt;
+    }
+
+    private static void runUntil(LGHeadlessEngine engine, long step) {
+        while (engine.getSimulationStep() < step) {
+            engine.step();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package engine;
+
+import physics.PhysicsWorld;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the state of the last few frames, so the game can be rewound to any of them
+ * <p>
+ * A frame is the physics world plus every registered {@link Snapshottable}, written into one buffer. The buffers are
+ * allocated up front and reused, so capturing and restoring don't allocate; a buffer only grows when the world has
+ * outgrown it. Once the ring is full, capturing a frame overwrites the oldest one.
+ * <p>
+ * Restoring a frame forgets every frame captured after it, as those belong to a future that won't happen anymore.
+ */
+public class SnapshotBuffer {
+    private final PhysicsWorld world;
+    private final List<Snapshottable> objects;
+    private final ByteBuffer[] buffers;
+    private final long[] frames;
+    private int newest; // Slot of the newest frame
+    private int size;
+
+    /**
+     * @param capacity How many frames to keep
+     * @param expectedBodies Bodies to make room for up front
+     */
+    public SnapshotBuffer(PhysicsWorld world, int capacity, int expectedBodies) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Need room for at least one frame: " + capacity);
+        }
+        this.world = world;
+        this.objects = new ArrayList<>();
+        this.buffers = new ByteBuffer[capacity];
+        this.frames = new long[capacity];
+        this.newest = capacity - 1;
+
+        // A rough guess, the buffers grow if the world turns out bigger
+        int bytes = Math.max(world.getSnapshotSize(), 1024 + expectedBodies * 200);
+        for (int i = 0; i < capacity; i++) {
+            buffers[i] = allocate(bytes);
+        }
+    }
+
+    /**
+     * Capture this object with every frame from now on
+     */
+    public void register(Snapshottable object) {
+        objects.add(object);
+    }
+
+    public void unregister(Snapshottable object) {
+        objects.remove(object);
+    }
+
+    /**
+     * Capture the current state as a frame
+     *
+     * @param frame Frame number, at least as high as the newest frame kept; the same number replaces that frame
+     */
+    public void capture(long frame) {
+        if (size > 0 && frame < frames[newest]) {
+            throw new IllegalArgumentException("Frame " + frame + " is older than the newest frame " + frames[newest]);
+        }
+        int slot = size > 0 && frame == frames[newest] ? newest : (newest + 1) % buffers.length;
+
+        int bytes = world.getSnapshotSize();
+        for (int i = 0; i < objects.size(); i++) {
+            bytes += objects.get(i).getSnapshotSize();
+        }
+        ByteBuffer buffer = buffers[slot];
+        if (buffer.capacity() < bytes) {
+            buffer = allocate(Math.max(bytes, buffer.capacity() * 2));
+            buffers[slot] = buffer;
+        }
+
+        buffer.clear();
+        world.writeSnapshot(buffer);
+        for (int i = 0; i < objects.size(); i++) {
+            objects.get(i).writeSnapshot(buffer);
+        }
+        buffer.flip();
+
+        frames[slot] = frame;
+        if (slot != newest) {
+            newest = slot;
+            size = Math.min(size + 1, buffers.length);
+        }
+    }
+
+    /**
+     * Put the world and every registered object back the way they were at a frame
+     *
+     * @return Whether the frame was still kept, nothing changes if it wasn't
+     */
+    public boolean restore(long frame) {
+        int slot = find(frame);
+        if (slot < 0) return false;
+
+        ByteBuffer buffer = buffers[slot];
+        buffer.rewind();
+        world.readSnapshot(buffer);
+        for (int i = 0; i < objects.size(); i++) {
+            objects.get(i).readSnapshot(buffer, world);
+        }
+
+        // Everything after this frame didn't happen
+        size -= (newest - slot + buffers.length) % buffers.length;
+        newest = slot;
+        return true;
+    }
+
+    public boolean contains(long frame) {
+        return find(frame) >= 0;
+    }
+
+    private int find(long frame) {
+        for (int k = 0; k < size; k++) {
+            int slot = (newest - k + buffers.length) % buffers.length;
+            if (frames[slot] == frame) return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * @return How many frames are kept right now
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return buffers.length;
+    }
+
+    public long getNewestFrame() {
+        if (size == 0) {
+            throw new IllegalStateException("No frame captured yet");
+        }
+        return frames[newest];
+    }
+
+    public long getOldestFrame() {
+        if (size == 0) {
+            throw new IllegalStateException("No frame captured yet");
+        }
+        return frames[(newest - size + 1 + buffers.length) % buffers.length];
+    }
+
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,27 @@
+package engine;
+
+import physics.PhysicsWorld;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Game state that goes back in time together with the physics world, kept in a {@link SnapshotBuffer}
+ * <p>
+ * Only state that changes while the game runs needs to be written. Bodies are part of the world's own snapshot, so
+ * an object holding bodies only writes their ids.
+ */
+public interface Snapshottable {
+    /**
+     * @return Most bytes {@link #writeSnapshot} would write right now
+     */
+    int getSnapshotSize();
+
+    void writeSnapshot(ByteBuffer buffer);
+
+    /**
+     * Read back what {@link #writeSnapshot} wrote, the world has already been restored
+     *
+     * @param world World to find bodies in by id
+     */
+    void readSnapshot(ByteBuffer buffer, PhysicsWorld world);
+}
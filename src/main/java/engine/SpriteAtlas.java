@@ -0,0 +1,180 @@
+package engine;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks of nodes drawn once into a few big images, so drawing a node is a single copy out of one of them
+ * <p>
+ * A sprite is found by a key naming its look, like the type and size of a block, and drawn by its painter the first
+ * time that key is asked for. Sprites are packed row by row into pages, and a new page is started when one is full.
+ * Sprites are never taken out again, so keys should tell apart looks, not nodes: a castle has a handful of sprites
+ * however many blocks it has.
+ * <p>
+ * Sprites that cover every pixel go on opaque pages, which are copied without blending, the others on translucent
+ * pages. Pages are compatible with the screen like the layer images, so copies out of them stay in video memory, and
+ * copying sprite after sprite from the same page costs Java2D no state changes in between.
+ */
+public final class SpriteAtlas {
+    private static final int PAGE_SIZE = 1024;
+
+    /**
+     * Draws the look of a sprite
+     */
+    public interface Painter {
+        /**
+         * @param g2d Painter with the top left corner of the sprite at 0, 0, clipped to its size
+         */
+        void paint(Graphics2D g2d);
+    }
+
+    private final List<BufferedImage> pages = new ArrayList<>();
+    private final Shelf opaqueShelf = new Shelf(Transparency.OPAQUE);
+    private final Shelf translucentShelf = new Shelf(Transparency.TRANSLUCENT);
+    private final Map<String, Integer> sprites = new HashMap<>();
+    // Where every sprite is, by sprite number
+    private int[] page = new int[64];
+    private int[] x = new int[64], y = new int[64];
+    private int[] width = new int[64], height = new int[64];
+    private int count;
+
+    /**
+     * @return The number of the sprite with this key, or -1 if it wasn't drawn yet
+     */
+    public int find(String key) {
+        Integer sprite = sprites.get(key);
+        return sprite != null ? sprite : -1;
+    }
+
+    /**
+     * Draw a new sprite into the atlas
+     *
+     * @param key Names the look, asking for the same key again finds this sprite
+     * @param transparency {@link Transparency#OPAQUE} if the painter covers every pixel of the sprite, what it
+     *                     doesn't cover is black then, or {@link Transparency#TRANSLUCENT}
+     * @return The number of the new sprite, for {@link DrawQueue#drawSprite}
+     */
+    public int add(String key, int width, int height, int transparency, Painter painter) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Sprites need at least one pixel: " + width + "x" + height);
+        }
+        if (sprites.containsKey(key)) {
+            throw new IllegalArgumentException("There already is a sprite " + key);
+        }
+        ensureCapacity(count + 1);
+        Shelf shelf = transparency == Transparency.OPAQUE ? opaqueShelf : translucentShelf;
+        shelf.place(width, height);
+
+        int sprite = count++;
+        page[sprite] = shelf.page;
+        x[sprite] = shelf.rowX;
+        y[sprite] = shelf.rowY;
+        this.width[sprite] = width;
+        this.height[sprite] = height;
+        shelf.rowX += width;
+        shelf.rowHeight = Math.max(shelf.rowHeight, height);
+        sprites.put(key, sprite);
+
+        Graphics2D graphics = pages.get(page[sprite]).createGraphics();
+        graphics.translate(x[sprite], y[sprite]);
+        graphics.clipRect(0, 0, width, height);
+        graphics.setComposite(AlphaComposite.Clear);
+        graphics.fillRect(0, 0, width, height);
+        graphics.setComposite(AlphaComposite.SrcOver);
+        painter.paint(graphics);
+        graphics.dispose();
+        return sprite;
+    }
+
+    private static BufferedImage createPage(int width, int height, int transparency) {
+        if (!GraphicsEnvironment.isHeadless()) {
+            GraphicsConfiguration configuration = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+            return configuration.createCompatibleImage(width, height, transparency);
+        }
+        return new BufferedImage(width, height, transparency == Transparency.OPAQUE
+                ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    /**
+     * Copy a sprite with its top left corner at a pixel
+     */
+    void draw(Graphics2D g2d, int sprite, int x, int y) {
+        int spriteX = this.x[sprite], spriteY = this.y[sprite];
+        int w = width[sprite], h = height[sprite];
+        g2d.drawImage(pages.get(page[sprite]), x, y, x + w, y + h, spriteX, spriteY, spriteX + w, spriteY + h, null);
+    }
+
+    public int getWidth(int sprite) {
+        return width[sprite];
+    }
+
+    public int getHeight(int sprite) {
+        return height[sprite];
+    }
+
+    /**
+     * @return How many sprites were drawn
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * The pages of one transparency, and the row being filled on the last of them
+     */
+    private class Shelf {
+        private final int transparency;
+        private int page = -1;
+        private int rowX, rowY, rowHeight;
+
+        Shelf(int transparency) {
+            this.transparency = transparency;
+        }
+
+        /**
+         * Find room for a sprite, on a new row or a new page if it doesn't fit
+         */
+        void place(int width, int height) {
+            if (page >= 0) {
+                BufferedImage last = pages.get(page);
+                if (rowX + width > last.getWidth()) {
+                    rowX = 0;
+                    rowY += rowHeight;
+                    rowHeight = 0;
+                }
+                if (rowX + width <= last.getWidth() && rowY + height <= last.getHeight()) return;
+            }
+            // Bigger sprites get a page of their own size
+            pages.add(createPage(Math.max(PAGE_SIZE, width), Math.max(PAGE_SIZE, height), transparency));
+            page = pages.size() - 1;
+            rowX = 0;
+            rowY = 0;
+            rowHeight = 0;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= page.length) return;
+
+        capacity = Math.max(capacity, page.length * 2);
+        page = Arrays.copyOf(page, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+    }
+}
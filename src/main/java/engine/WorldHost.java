@@ -0,0 +1,258 @@
+package engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs many independent matches side by side, each in its own {@link LGHeadlessEngine}, on one shared pool of threads
+ * <p>
+ * One clock thread ticks every match at a fixed rate. A tick steps the matches in parallel on a work-stealing
+ * {@link ForkJoinPool}. Matches share nothing and each is stepped by one thread at a time, so no locking is needed,
+ * and a few slow matches are picked up by idle threads instead of holding up a whole chunk.
+ * <p>
+ * Each match gets a budget of CPU time per tick (see {@link HostedMatch}). A match that keeps going over it steps on
+ * fewer ticks, so it falls behind in time instead of slowing down everybody else.
+ * <p>
+ * When the host as a whole can't finish a tick in time, the ticks it missed are dropped rather than queued, so every
+ * match slows down by the same amount and the host never builds up a backlog it can't work off. The load, the time a
+ * tick takes over the time between ticks, is smoothed over recent ticks; while it is above the limit,
+ * {@link #tryAddMatch} turns new matches away, which tells whoever hands out matches to send them to another host.
+ */
+public class WorldHost implements AutoCloseable {
+    // Weight of the newest tick in the smoothed load
+    private static final double LOAD_SMOOTHING = 0.05;
+
+    private final ForkJoinPool pool;
+    private final double timestep;
+    private final long periodNanos;
+    private volatile HostedMatch[] matches; // Replaced as a whole, so a tick steps the matches it started with
+    private final Object matchesLock = new Object(); // Taken to replace matches, never while ticking
+    private volatile long defaultBudgetNanos;
+    private volatile double maxLoad;
+
+    private volatile double load;
+    private volatile long tickCount;
+    private volatile long droppedTicks;
+
+    private volatile boolean running;
+    private Thread clock;
+
+    /**
+     * @param pool Pool the matches are stepped on, usually shared with nothing else
+     * @param timestep Seconds between ticks, and per step of every match
+     */
+    public WorldHost(ForkJoinPool pool, double timestep) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool can't be null");
+        }
+        if (timestep <= 0) {
+            throw new IllegalArgumentException("Need a positive step: " + timestep);
+        }
+        this.pool = pool;
+        this.timestep = timestep;
+        this.periodNanos = (long) (timestep * 1_000_000_000);
+        this.matches = new HostedMatch[0];
+        // Fair share of one thread for a few hundred matches
+        this.defaultBudgetNanos = periodNanos / 200;
+        this.maxLoad = 0.8;
+    }
+
+    /**
+     * Host a match, unless the host is too busy to take it
+     *
+     * @param engine Engine with the match set up, it steps at the host's rate from now on
+     * @return The hosted match, or null if the host is overloaded
+     */
+    public HostedMatch tryAddMatch(LGHeadlessEngine engine) {
+        if (isOverloaded()) return null;
+
+        engine.setTimestep(timestep);
+        HostedMatch match = new HostedMatch(engine, defaultBudgetNanos);
+        synchronized (matchesLock) {
+            HostedMatch[] matches = Arrays.copyOf(this.matches, this.matches.length + 1);
+            matches[matches.length - 1] = match;
+            this.matches = matches;
+        }
+        return match;
+    }
+
+    /**
+     * Stop hosting a match, it isn't stepped again once the tick running right now is done
+     */
+    public void removeMatch(HostedMatch match) {
+        synchronized (matchesLock) {
+            HostedMatch[] matches = this.matches;
+            for (int i = 0; i < matches.length; i++) {
+                if (matches[i] != match) continue;
+
+                HostedMatch[] remaining = new HostedMatch[matches.length - 1];
+                System.arraycopy(matches, 0, remaining, 0, i);
+                System.arraycopy(matches, i + 1, remaining, i, matches.length - i - 1);
+                this.matches = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start ticking on a clock thread of its own
+     */
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("Host is already running");
+        }
+        running = true;
+        clock = new Thread(this::runClock, "world-host-clock");
+        clock.setDaemon(true);
+        clock.start();
+    }
+
+    /**
+     * Stop ticking, the tick running right now is finished first
+     * Interrupted while waiting for it, this returns right away with the interrupt flag set again.
+     */
+    @Override
+    public void close() {
+        Thread clock;
+        synchronized (this) {
+            running = false;
+            clock = this.clock;
+            this.clock = null;
+        }
+        if (clock != null) {
+            try {
+                clock.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runClock() {
+        long next = System.nanoTime();
+        while (running) {
+            long now = System.nanoTime();
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+
+            tick();
+            next += periodNanos;
+            // Too late for one or more ticks, skip them instead of trying to catch up
+            long late = System.nanoTime() - next;
+            if (late > 0) {
+                long missed = late / periodNanos + 1;
+                droppedTicks += missed;
+                next += missed * periodNanos;
+            }
+        }
+    }
+
+    /**
+     * Step every match once, as far as its budget allows, on the pool
+     * The clock does this by itself once started, this is for driving the host by hand, from one thread and only
+     * while the clock isn't running. Adding and removing matches never waits for a tick.
+     */
+    public void tick() {
+        HostedMatch[] matches = this.matches;
+        long start = System.nanoTime();
+        if (matches.length > 0) {
+            int chunkSize = Math.max(1, matches.length / (pool.getParallelism() * 8));
+            pool.invoke(new TickTask(matches, 0, matches.length, chunkSize));
+        }
+        double tickLoad = (System.nanoTime() - start) / (double) periodNanos;
+        load += (tickLoad - load) * LOAD_SMOOTHING;
+        tickCount++;
+    }
+
+    /**
+     * @return Time a tick takes over the time between ticks, smoothed, above 1 the host can't keep up
+     */
+    public double getLoad() {
+        return load;
+    }
+
+    public boolean isOverloaded() {
+        return load > maxLoad;
+    }
+
+    /**
+     * @param maxLoad Load above which new matches are turned away, between 0 and 1 to keep some headroom
+     */
+    public void setMaxLoad(double maxLoad) {
+        if (maxLoad <= 0) {
+            throw new IllegalArgumentException("Max load must be positive: " + maxLoad);
+        }
+        this.maxLoad = maxLoad;
+    }
+
+    public double getMaxLoad() {
+        return maxLoad;
+    }
+
+    /**
+     * @param budgetMillis CPU time per tick for matches added from now on
+     */
+    public void setDefaultTickBudget(double budgetMillis) {
+        if (budgetMillis <= 0) {
+            throw new IllegalArgumentException("Tick budget must be positive: " + budgetMillis);
+        }
+        this.defaultBudgetNanos = (long) (budgetMillis * 1_000_000);
+    }
+
+    public double getDefaultTickBudget() {
+        return defaultBudgetNanos / 1_000_000.0;
+    }
+
+    public int getMatchCount() {
+        return matches.length;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * @return How many ticks were skipped because the host was still busy with an earlier one
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    public double getTimestep() {
+        return timestep;
+    }
+
+    /**
+     * Ticks a range of matches, split in halves until the pieces are small enough
+     */
+    private static class TickTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final HostedMatch[] matches;
+        private final int from, to;
+        private final int chunkSize;
+
+        TickTask(HostedMatch[] matches, int from, int to, int chunkSize) {
+            this.matches = matches;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                for (int i = from; i < to; i++) {
+                    matches[i].tick();
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TickTask(matches, from, middle, chunkSize), new TickTask(matches, middle, to, chunkSize));
+        }
+    }
+}
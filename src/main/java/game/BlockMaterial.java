@@ -0,0 +1,57 @@
+package game;
+
+import physics.RigidBody;
+
+/**
+ * Physical properties of the block types castles are built from
+ * <p>
+ * Kept apart from {@link BuildingBlock}, which draws the blocks, so castles can be simulated without loading any AWT
+ * classes.
+ */
+public final class BlockMaterial {
+    public static final int STONE = 0;
+    public static final int WOOD = 1;
+    public static final int BRICK = 2;
+
+    private BlockMaterial() {
+    }
+
+    /**
+     * Create the physics body of a block
+     *
+     * @param blockType 0 = stone, 1 = wood, 2 = brick, anything else gets middle of the road values
+     */
+    public static RigidBody createBody(int x, int y, int width, int height, int blockType) {
+        RigidBody body = new RigidBody(x, y, width, height, 2.0); // Heavier than regular boxes
+        apply(body, blockType);
+        return body;
+    }
+
+    /**
+     * Give a body the properties of a block type, like a body stored together with many others
+     */
+    public static void apply(RigidBody body, int blockType) {
+        body.setMaterial(blockType);
+        switch (blockType) {
+            case STONE:
+                body.setRestitution(0.3);
+                body.setFriction(0.8);
+                body.setMass(3.0);
+                break;
+            case WOOD:
+                body.setRestitution(0.5);
+                body.setFriction(0.6);
+                body.setMass(1.5);
+                break;
+            case BRICK:
+                body.setRestitution(0.4);
+                body.setFriction(0.7);
+                body.setMass(2.5);
+                break;
+            default:
+                body.setRestitution(0.4);
+                body.setFriction(0.7);
+                body.setMass(2.0);
+        }
+    }
+}
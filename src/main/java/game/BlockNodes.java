@@ -0,0 +1,21 @@
+package game;
+
+import engine.ChunkStreamer;
+import engine.LGNode;
+import physics.RigidBody;
+
+/**
+ * Lets castle blocks go to disk with their bodies when their part of the battlefield is far away
+ * Blocks are made again from the material and size of their bodies. Cannons and cannonballs stay in memory.
+ */
+public class BlockNodes implements ChunkStreamer.NodeFactory {
+    @Override
+    public boolean isStreamable(LGNode node) {
+        return node instanceof BuildingBlock;
+    }
+
+    @Override
+    public LGNode createNode(RigidBody body) {
+        return new BuildingBlock(body);
+    }
+}
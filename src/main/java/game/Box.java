@@ -1,10 +1,16 @@
 package game;
 
+import engine.DrawQueue;
 import engine.LGNode;
+import engine.Layer;
+import engine.RenderState;
+import engine.SpriteAtlas;
 import physics.RigidBody;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Transparency;
 import java.awt.geom.Rectangle2D;
 
 /**
@@ -13,10 +19,15 @@ import java.awt.geom.Rectangle2D;
 public class Box implements LGNode {
     private final RigidBody physicsBody;
     private final Rectangle2D.Double area;
+    private double drawnX = Double.NaN, drawnY = Double.NaN; // Where it was last drawn
+    private final int size;
+    private final String sprite; // Boxes of one size share their sprite
 
     public Box(final int x, final int y, final int size) {
         this.physicsBody = new RigidBody(x, y, size, size, 1.0); // Mass of 1.0
         this.area = new Rectangle2D.Double();
+        this.size = size;
+        this.sprite = "Box " + size;
         
         // Set physics properties
         physicsBody.setRestitution(0.8); // Bouncy
@@ -26,16 +37,70 @@ public class Box implements LGNode {
     /**
      * Get the physics body for external physics world management
      */
+    @Override
     public RigidBody getPhysicsBody() {
         return physicsBody;
     }
     
     /**
-     * Update the visual area based on physics body position
+     * Record where the box is, so it can be drawn while physics moves it on
      */
-    private void updateArea() {
-        area.setRect(physicsBody.getX(), physicsBody.getY(), 
-                    physicsBody.getWidth(), physicsBody.getHeight());
+    @Override
+    public void capture(RenderState state, int node) {
+        state.setBody(node, physicsBody);
+    }
+
+    /**
+     * Resting, the box is kept drawn with the rest of the scene that doesn't move
+     */
+    @Override
+    public Layer getLayer(RenderState state, int node) {
+        return state.isResting(node) ? Layer.STATIC : Layer.DYNAMIC;
+    }
+
+    /**
+     * Moving by less than a pixel doesn't change the bounds, but it can change which pixels are drawn
+     */
+    @Override
+    public boolean needsRedraw(RenderState state, int node) {
+        return state.getX(node) != drawnX || state.getY(node) != drawnY;
+    }
+
+    /**
+     * Where the box is drawn, the outline takes one more pixel to the right and at the bottom
+     */
+    @Override
+    public boolean getBounds(Rectangle bounds, RenderState state, int node) {
+        bounds.setRect(state.getX(node), state.getY(node), state.getWidth(node) + 1, state.getHeight(node) + 1);
+        return true;
+    }
+
+    /**
+     * One copy out of the atlas, the box and its outline are drawn into it the first time
+     */
+    @Override
+    public void submit(DrawQueue queue, RenderState state, int node) {
+        SpriteAtlas atlas = queue.getAtlas();
+        int sprite = atlas.find(this.sprite);
+        if (sprite < 0) {
+            sprite = atlas.add(this.sprite, size + 1, size + 1, Transparency.OPAQUE, g2d -> {
+                area.setRect(0, 0, size, size);
+                paint(g2d);
+            });
+        }
+        
+        drawnX = state.getX(node);
+        drawnY = state.getY(node);
+        queue.drawSprite(state.getMaterial(node), sprite, drawnX, drawnY);
+    }
+
+    /**
+     * Render the box where it was captured
+     */
+    @Override
+    public void render(Graphics2D g2d, RenderState state, int node) {
+        area.setRect(state.getX(node), state.getY(node), state.getWidth(node), state.getHeight(node));
+        draw(g2d);
     }
 
     /**
@@ -45,7 +110,18 @@ public class Box implements LGNode {
      */
     @Override
     public void render(Graphics2D g2d) {
-        updateArea();
+        area.setRect(physicsBody.getRenderX(), physicsBody.getRenderY(), 
+                    physicsBody.getWidth(), physicsBody.getHeight());
+        draw(g2d);
+    }
+
+    private void draw(Graphics2D g2d) {
+        drawnX = area.getX();
+        drawnY = area.getY();
+        paint(g2d);
+    }
+
+    private void paint(Graphics2D g2d) {
         g2d.setColor(Color.RED);
         g2d.fill(area);
         g2d.setColor(Color.gray);
@@ -1,10 +1,17 @@
 package game;
 
+import engine.DrawQueue;
 import engine.LGNode;
+import engine.Layer;
+import engine.RenderDetail;
+import engine.RenderState;
+import engine.SpriteAtlas;
 import physics.RigidBody;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Transparency;
 import java.awt.geom.Rectangle2D;
 
 /**
@@ -13,64 +20,135 @@ import java.awt.geom.Rectangle2D;
 public class BuildingBlock implements LGNode {
     private final RigidBody physicsBody;
     private final Rectangle2D.Double area;
+    private double drawnX = Double.NaN, drawnY = Double.NaN; // Where it was last drawn
     private final Color color;
     private final int blockType; // 0 = stone, 1 = wood, 2 = brick
+    private final int width, height;
+    private final String fullSprite, reducedSprite; // Blocks of one type and size share their sprites
 
     public BuildingBlock(final int x, final int y, final int width, final int height, int blockType) {
-        this.physicsBody = new RigidBody(x, y, width, height, 2.0); // Heavier than regular boxes
+        this(BlockMaterial.createBody(x, y, width, height, blockType));
+    }
+    
+    /**
+     * A block for a body that is already there, like one loaded back from disk
+     * The block type is the material of the body.
+     */
+    public BuildingBlock(final RigidBody physicsBody) {
+        this.physicsBody = physicsBody;
         this.area = new Rectangle2D.Double();
-        this.blockType = blockType;
+        this.blockType = physicsBody.getMaterial();
+        this.width = (int) physicsBody.getWidth();
+        this.height = (int) physicsBody.getHeight();
+        this.fullSprite = "Block " + blockType + " " + width + "x" + height;
+        this.reducedSprite = fullSprite + " reduced";
         
-        // Set physics properties based on block type
         switch (blockType) {
-            case 0: // Stone
+            case BlockMaterial.STONE:
                 this.color = Color.GRAY;
-                physicsBody.setRestitution(0.3);
-                physicsBody.setFriction(0.8);
-                physicsBody.setMass(3.0);
                 break;
-            case 1: // Wood
+            case BlockMaterial.WOOD:
                 this.color = new Color(139, 69, 19); // Brown
-                physicsBody.setRestitution(0.5);
-                physicsBody.setFriction(0.6);
-                physicsBody.setMass(1.5);
                 break;
-            case 2: // Brick
+            case BlockMaterial.BRICK:
                 this.color = new Color(178, 34, 34); // Red
-                physicsBody.setRestitution(0.4);
-                physicsBody.setFriction(0.7);
-                physicsBody.setMass(2.5);
                 break;
             default:
                 this.color = Color.GRAY;
-                physicsBody.setRestitution(0.4);
-                physicsBody.setFriction(0.7);
-                physicsBody.setMass(2.0);
         }
     }
     
     /**
      * Get the physics body for external physics world management
      */
+    @Override
     public RigidBody getPhysicsBody() {
         return physicsBody;
     }
     
     /**
-     * Update the visual area based on physics body position
+     * Record where the block is, so it can be drawn while physics moves it on
      */
-    private void updateArea() {
-        area.setRect(physicsBody.getX(), physicsBody.getY(), 
-                    physicsBody.getWidth(), physicsBody.getHeight());
+    @Override
+    public void capture(RenderState state, int node) {
+        state.setBody(node, physicsBody);
     }
 
     /**
-     * Render the building block
+     * Resting, the block is kept drawn with the rest of the scene that doesn't move
      */
     @Override
-    public void render(Graphics2D g2d) {
-        updateArea();
+    public Layer getLayer(RenderState state, int node) {
+        return state.isResting(node) ? Layer.STATIC : Layer.DYNAMIC;
+    }
+
+    /**
+     * Moving by less than a pixel doesn't change the bounds, but it can change which pixels are drawn
+     */
+    @Override
+    public boolean needsRedraw(RenderState state, int node) {
+        return state.getX(node) != drawnX || state.getY(node) != drawnY;
+    }
+
+    /**
+     * Where the block is drawn, the outline takes one more pixel to the right and at the bottom
+     */
+    @Override
+    public boolean getBounds(Rectangle bounds, RenderState state, int node) {
+        bounds.setRect(state.getX(node), state.getY(node), state.getWidth(node) + 1, state.getHeight(node) + 1);
+        return true;
+    }
+
+    /**
+     * One copy out of the atlas, the block and its outline are drawn into it the first time
+     */
+    @Override
+    public void submit(DrawQueue queue, RenderState state, int node) {
+        boolean full = RenderDetail.isFull(state);
+        String key = full ? fullSprite : reducedSprite;
+        SpriteAtlas atlas = queue.getAtlas();
+        int sprite = atlas.find(key);
+        if (sprite < 0) {
+            sprite = atlas.add(key, width + 1, height + 1, Transparency.OPAQUE, g2d -> {
+                area.setRect(0, 0, width, height);
+                paint(g2d, full);
+            });
+        }
         
+        drawnX = state.getX(node);
+        drawnY = state.getY(node);
+        queue.drawSprite(state.getMaterial(node), sprite, drawnX, drawnY);
+    }
+
+    /**
+     * Render the building block where it was captured
+     */
+    @Override
+    public void render(Graphics2D g2d, RenderState state, int node) {
+        area.setRect(state.getX(node), state.getY(node), state.getWidth(node), state.getHeight(node));
+        draw(g2d);
+    }
+
+    /**
+     * Render the building block where its body is right now
+     */
+    @Override
+    public void render(Graphics2D g2d) {
+        area.setRect(physicsBody.getRenderX(), physicsBody.getRenderY(), 
+                    physicsBody.getWidth(), physicsBody.getHeight());
+        draw(g2d);
+    }
+
+    private void draw(Graphics2D g2d) {
+        drawnX = area.getX();
+        drawnY = area.getY();
+        paint(g2d, RenderDetail.isFull(g2d));
+    }
+
+    /**
+     * Draw the block at its area
+     */
+    private void paint(Graphics2D g2d, boolean full) {
         // Draw the block
         g2d.setColor(color);
         g2d.fill(area);
@@ -79,6 +157,9 @@ public class BuildingBlock implements LGNode {
         g2d.setColor(Color.BLACK);
         g2d.draw(area);
         
+        // Texture is the first thing to go when frames run late
+        if (!full) return;
+        
         // Add some texture based on block type
         g2d.setColor(color.darker());
         switch (blockType) {
@@ -1,17 +1,35 @@
 package game;
 
+import engine.LGKeyHandler;
 import engine.LGNode;
+import engine.Layer;
+import engine.LGUpdatable;
+import engine.RenderState;
+import engine.Snapshottable;
+import physics.PhysicsWorld;
+import physics.RigidBody;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * A cannon that can shoot cannonballs
  */
-public class Cannon implements LGNode {
+public class Cannon implements LGNode, LGUpdatable, LGKeyHandler, Snapshottable {
+    /**
+     * Told when cannonballs come into the game and when they leave it, to add and remove their nodes and bodies
+     */
+    public interface BallListener {
+        void added(Cannonball ball);
+        
+        void removed(Cannonball ball);
+    }
+    
     private final int x, y;
     private final int width, height;
     private double angle; // Angle in radians
@@ -20,6 +38,10 @@ public class Cannon implements LGNode {
     private final double power; // Shot power
     private final List<Cannonball> cannonballs;
     private int cooldown; // Frames between shots
+    private final List<Cannonball> restoredCannonballs; // Reused while reading a snapshot
+    private double drawnAngle; // Angle the cannon was last drawn at
+    private final Hud hud;
+    private BallListener ballListener;
     
     public Cannon(final int x, final int y) {
         this.x = x;
@@ -30,6 +52,9 @@ public class Cannon implements LGNode {
         this.power = 300.0; // Shot power
         this.cannonballs = new ArrayList<>();
         this.cooldown = 0;
+        this.restoredCannonballs = new ArrayList<>();
+        this.drawnAngle = Double.NaN;
+        this.hud = new Hud();
     }
     
     /**
@@ -54,6 +79,19 @@ public class Cannon implements LGNode {
     public void fire() {
         if (cooldown > 0) return; // Still on cooldown
         
+        Cannonball ball = createCannonball(angle);
+        cannonballs.add(ball);
+        if (ballListener != null) {
+            ballListener.added(ball);
+        }
+        
+        cooldown = 30; // 0.5 second cooldown at 60 FPS
+    }
+    
+    /**
+     * A cannonball as fire would launch it at the given angle, not part of the game yet
+     */
+    Cannonball createCannonball(double angle) {
         // Calculate velocity based on angle and power
         double velocityX = Math.cos(angle) * power;
         double velocityY = Math.sin(angle) * power;
@@ -62,25 +100,122 @@ public class Cannon implements LGNode {
         int ballX = (int)(x + Math.cos(angle) * (width + 10));
         int ballY = (int)(y + Math.sin(angle) * (width + 10));
         
-        Cannonball ball = new Cannonball(ballX, ballY, velocityX, velocityY);
-        cannonballs.add(ball);
-        
-        cooldown = 30; // 0.5 second cooldown at 60 FPS
+        return new Cannonball(ballX, ballY, velocityX, velocityY);
+    }
+    
+    /**
+     * Point the cannon at an angle, limited to the range it can aim in
+     * @param angle Angle in radians, positive is down
+     */
+    public void setAngle(double angle) {
+        this.angle = Math.max(minAngle, Math.min(maxAngle, angle));
+    }
+    
+    public double getAngle() {
+        return angle;
+    }
+    
+    public double getMinAngle() {
+        return minAngle;
+    }
+    
+    public double getMaxAngle() {
+        return maxAngle;
     }
     
     /**
      * Update cannon and cannonballs
      */
+    @Override
     public void update() {
         if (cooldown > 0) cooldown--;
         
-        // Update cannonballs
+        // Update cannonballs, and take the spent ones out of the game
         cannonballs.removeIf(ball -> {
             ball.update();
-            return !ball.isActive();
+            if (ball.isActive()) return false;
+            
+            if (ballListener != null) {
+                ballListener.removed(ball);
+            }
+            return true;
         });
     }
     
+    @Override
+    public int getSnapshotSize() {
+        return 8 + 4 + 4 + cannonballs.size() * (4 + Cannonball.SNAPSHOT_SIZE);
+    }
+    
+    @Override
+    public void writeSnapshot(ByteBuffer buffer) {
+        buffer.putDouble(angle);
+        buffer.putInt(cooldown);
+        buffer.putInt(cannonballs.size());
+        for (int i = 0; i < cannonballs.size(); i++) {
+            Cannonball ball = cannonballs.get(i);
+            buffer.putInt(ball.getPhysicsBody().getId());
+            ball.writeSnapshot(buffer);
+        }
+    }
+    
+    /**
+     * Cannonballs fired after the snapshot are taken out of the game, and the ones that were in flight come back
+     */
+    @Override
+    public void readSnapshot(ByteBuffer buffer, PhysicsWorld world) {
+        angle = buffer.getDouble();
+        cooldown = buffer.getInt();
+        int count = buffer.getInt();
+        
+        restoredCannonballs.clear();
+        for (int k = 0; k < count; k++) {
+            int id = buffer.getInt();
+            Cannonball ball = findCannonball(id);
+            if (ball == null) {
+                // Gone from the list since, its body is back in the world
+                RigidBody body = world.findBody(id);
+                if (body == null) {
+                    buffer.position(buffer.position() + Cannonball.SNAPSHOT_SIZE);
+                    continue;
+                }
+                ball = new Cannonball(body);
+                if (ballListener != null) {
+                    ballListener.added(ball);
+                }
+            }
+            ball.readSnapshot(buffer, world);
+            restoredCannonballs.add(ball);
+        }
+        
+        for (int i = 0; i < cannonballs.size(); i++) {
+            Cannonball ball = cannonballs.get(i);
+            if (!restoredCannonballs.contains(ball)) {
+                ball.deactivate();
+                if (ballListener != null) {
+                    ballListener.removed(ball);
+                }
+            }
+        }
+        cannonballs.clear();
+        cannonballs.addAll(restoredCannonballs);
+        restoredCannonballs.clear();
+    }
+    
+    private Cannonball findCannonball(int bodyId) {
+        for (int i = 0; i < cannonballs.size(); i++) {
+            if (cannonballs.get(i).getPhysicsBody().getId() == bodyId) return cannonballs.get(i);
+        }
+        return null;
+    }
+    
+    /**
+     * Have fired cannonballs added to the game, and spent ones removed, as they come and go
+     */
+    public void setBallListener(BallListener ballListener) {
+        this.ballListener = ballListener;
+    }
+    
     /**
      * Get all active cannonballs
      */
@@ -101,8 +236,8 @@ public class Cannon implements LGNode {
      * Handle key presses for cannon control
      */
     @Override
-    public void keyPressed(KeyEvent e) {
-        switch (e.getKeyCode()) {
+    public void keyPressed(int keyCode) {
+        switch (keyCode) {
             case KeyEvent.VK_UP:
             case KeyEvent.VK_W:
                 aimUp();
@@ -119,10 +254,65 @@ public class Cannon implements LGNode {
     }
 
     /**
-     * Render the cannon and cannonballs
+     * Record the angle, keys can aim the cannon while it is being drawn
+     */
+    @Override
+    public void capture(RenderState state, int node) {
+        state.set(node, x, y, width, height, angle);
+    }
+    
+    /**
+     * Where the cannon is drawn: the base, and the barrel at any angle
+     */
+    @Override
+    public boolean getBounds(Rectangle bounds, RenderState state, int node) {
+        bounds.setBounds(x - 20, y - 30, width + 40, height + 60);
+        return true;
+    }
+    
+    /**
+     * The cannon only changes when it is aimed
+     */
+    @Override
+    public Layer getLayer(RenderState state, int node) {
+        return Layer.STATIC;
+    }
+    
+    /**
+     * The barrel changes when the cannon is aimed
+     */
+    @Override
+    public boolean needsRedraw(RenderState state, int node) {
+        return state.getAngle(node) != drawnAngle;
+    }
+    
+    /**
+     * Get the node showing the power and angle of the cannon, on top of everything else
+     */
+    public LGNode getHud() {
+        return hud;
+    }
+
+    /**
+     * Render the cannon at the angle it was captured with
+     */
+    @Override
+    public void render(Graphics2D g2d, RenderState state, int node) {
+        draw(g2d, state.getAngle(node));
+    }
+
+    /**
+     * Render the cannon
+     * Cannonballs are nodes of their own, so they are drawn where they are instead of with the cannon
      */
     @Override
     public void render(Graphics2D g2d) {
+        draw(g2d, angle);
+    }
+    
+    private void draw(Graphics2D g2d, double angle) {
+        drawnAngle = angle;
+        
         // Draw cannon base
         g2d.setColor(new Color(101, 67, 33)); // Brown
         g2d.fillRect(x, y, width, height);
@@ -140,15 +330,59 @@ public class Cannon implements LGNode {
         g2d.drawLine(x + width/2, y + height/2, 
                     (int)(x + width/2 + Math.cos(angle) * barrelLength), 
                     (int)(y + height/2 + Math.sin(angle) * barrelLength));
+    }
+    
+    /**
+     * The power and angle of the cannon, only drawn again when the cannon is aimed
+     */
+    private class Hud implements LGNode {
+        private double drawnAngle = Double.NaN; // Angle shown the last time the text was drawn
+        
+        /**
+         * The text stays next to the cannon, wherever the camera puts it on screen
+         */
+        @Override
+        public void capture(RenderState state, int node) {
+            int screenX = (int) Math.floor(state.toScreenX(x)), screenY = (int) Math.floor(state.toScreenY(y));
+            state.set(node, screenX - 22, screenY - 24, 100, 34, angle);
+        }
+        
+        @Override
+        public void render(Graphics2D g2d, RenderState state, int node) {
+            draw(g2d, (int) state.getX(node) + 22, (int) state.getY(node) + 24, state.getAngle(node));
+        }
+        
+        @Override
+        public void render(Graphics2D g2d) {
+            draw(g2d, x, y, angle);
+        }
+        
+        private void draw(Graphics2D g2d, int x, int y, double angle) {
+            drawnAngle = angle;
+            
+            // Draw power indicator
+            g2d.setColor(Color.RED);
+            g2d.drawString("Power: " + (int)power, x - 20, y - 10);
+            g2d.drawString("Angle: " + (int)(Math.toDegrees(angle)) + "°", x - 20, y + 5);
+        }
         
-        // Draw cannonballs
-        for (Cannonball ball : cannonballs) {
-            ball.render(g2d);
+        /**
+         * Room for both lines of text, whatever the numbers
+         */
+        @Override
+        public boolean getBounds(Rectangle bounds, RenderState state, int node) {
+            bounds.setBounds((int) state.getX(node), (int) state.getY(node), 100, 34);
+            return true;
         }
         
-        // Draw power indicator
-        g2d.setColor(Color.RED);
-        g2d.drawString("Power: " + (int)power, x - 20, y - 10);
-        g2d.drawString("Angle: " + (int)(Math.toDegrees(angle)) + "°", x - 20, y + 5);
+        @Override
+        public Layer getLayer(RenderState state, int node) {
+            return Layer.HUD;
+        }
+        
+        @Override
+        public boolean needsRedraw(RenderState state, int node) {
+            return state.getAngle(node) != drawnAngle;
+        }
     }
 }
@@ -1,39 +1,61 @@
 package game;
 
+import engine.DrawQueue;
 import engine.LGNode;
+import engine.LGUpdatable;
+import engine.RenderState;
+import engine.SpriteAtlas;
+import engine.Snapshottable;
+import physics.PhysicsWorld;
 import physics.RigidBody;
+import physics.ShapeType;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Transparency;
 import java.awt.geom.Ellipse2D;
+import java.nio.ByteBuffer;
 
 /**
  * A cannonball projectile
  */
-public class Cannonball implements LGNode {
+public class Cannonball implements LGNode, LGUpdatable, Snapshottable {
+    // Whether it is active, and the lifetime
+    static final int SNAPSHOT_SIZE = 1 + 4;
+    private static final String SPRITE = "Cannonball";
+    
     private final RigidBody physicsBody;
-    private final Ellipse2D.Double area;
-    private final Color color;
+    private Look look; // Made when first drawn
+    private double drawnX = Double.NaN, drawnY = Double.NaN; // Where it was last drawn
     private boolean active;
     private int lifetime; // Frames until removal
 
     public Cannonball(final int x, final int y, final double velocityX, final double velocityY) {
-        this.physicsBody = new RigidBody(x, y, 12, 12, 0.8); // Small, light projectile
-        this.area = new Ellipse2D.Double();
-        this.color = Color.DARK_GRAY;
-        this.active = true;
-        this.lifetime = 300; // 5 seconds at 60 FPS
+        this(new RigidBody(x, y, 12, 12, 0.8)); // Small, light projectile
         
         // Set physics properties
+        physicsBody.setShape(ShapeType.CIRCLE); // Collide as the ball we draw, not as its bounding box
         physicsBody.setRestitution(0.6); // Bouncy
         physicsBody.setFriction(0.3); // Low friction
+        physicsBody.setContinuous(true); // Fast and small, it would tunnel through blocks otherwise
         physicsBody.setVelocityX(velocityX);
         physicsBody.setVelocityY(velocityY);
     }
     
+    /**
+     * A cannonball around a body that already exists, like one brought back by a snapshot
+     */
+    Cannonball(RigidBody physicsBody) {
+        this.physicsBody = physicsBody;
+        this.active = true;
+        this.lifetime = 300; // 5 seconds at 60 FPS
+    }
+    
     /**
      * Get the physics body for external physics world management
      */
+    @Override
     public RigidBody getPhysicsBody() {
         return physicsBody;
     }
@@ -45,51 +67,155 @@ public class Cannonball implements LGNode {
         return active && lifetime > 0;
     }
     
+    /**
+     * Take the cannonball out of the game, it's no longer drawn or updated
+     */
+    void deactivate() {
+        active = false;
+    }
+    
+    @Override
+    public int getSnapshotSize() {
+        return SNAPSHOT_SIZE;
+    }
+    
+    @Override
+    public void writeSnapshot(ByteBuffer buffer) {
+        buffer.put(active ? (byte) 1 : 0);
+        buffer.putInt(lifetime);
+    }
+    
+    @Override
+    public void readSnapshot(ByteBuffer buffer, PhysicsWorld world) {
+        active = buffer.get() != 0;
+        lifetime = buffer.getInt();
+    }
+    
     /**
      * Update the cannonball (called each frame)
      */
+    @Override
     public void update() {
         if (!active) return;
         
+        // The walls of the world keep it in, however far it flies, until its time is up
         lifetime--;
         if (lifetime <= 0) {
             active = false;
         }
+    }
+    
+    /**
+     * Record where the cannonball is, or that it is gone, so it can be drawn while physics moves it on
+     */
+    @Override
+    public void capture(RenderState state, int node) {
+        if (active) {
+            state.setBody(node, physicsBody);
+        } else {
+            state.hide(node);
+        }
+    }
+
+    /**
+     * Moving by less than a pixel doesn't change the bounds, but it can change which pixels are drawn
+     */
+    @Override
+    public boolean needsRedraw(RenderState state, int node) {
+        return state.isVisible(node) && (state.getX(node) != drawnX || state.getY(node) != drawnY);
+    }
+
+    /**
+     * Where the cannonball is drawn, the outline takes one more pixel to the right and at the bottom
+     */
+    @Override
+    public boolean getBounds(Rectangle bounds, RenderState state, int node) {
+        if (!state.isVisible(node)) {
+            bounds.setBounds(0, 0, 0, 0);
+            return true;
+        }
         
-        // Remove if it goes too far off screen
-        if (physicsBody.getX() < -100 || physicsBody.getX() > 600 || 
-            physicsBody.getY() > 600) {
-            active = false;
+        bounds.setRect(state.getX(node), state.getY(node), state.getWidth(node) + 1, state.getHeight(node) + 1);
+        return true;
+    }
+
+    /**
+     * One copy out of the atlas, every cannonball looks the same
+     */
+    @Override
+    public void submit(DrawQueue queue, RenderState state, int node) {
+        if (!state.isVisible(node)) return;
+        
+        SpriteAtlas atlas = queue.getAtlas();
+        int sprite = atlas.find(SPRITE);
+        if (sprite < 0) {
+            int width = (int) Math.ceil(state.getWidth(node)), height = (int) Math.ceil(state.getHeight(node));
+            sprite = atlas.add(SPRITE, width + 1, height + 1, Transparency.TRANSLUCENT,
+                    g2d -> look().paint(g2d, 0, 0, width, height));
         }
+        
+        drawnX = state.getX(node);
+        drawnY = state.getY(node);
+        queue.drawSprite(state.getMaterial(node), sprite, drawnX, drawnY);
     }
-    
+
     /**
-     * Update the visual area based on physics body position
+     * Render the cannonball where it was captured
      */
-    private void updateArea() {
-        area.setFrame(physicsBody.getX(), physicsBody.getY(), 
-                     physicsBody.getWidth(), physicsBody.getHeight());
+    @Override
+    public void render(Graphics2D g2d, RenderState state, int node) {
+        if (!state.isVisible(node)) return;
+        
+        draw(g2d, state.getX(node), state.getY(node), state.getWidth(node), state.getHeight(node));
     }
 
     /**
-     * Render the cannonball
+     * Render the cannonball where its body is right now
      */
     @Override
     public void render(Graphics2D g2d) {
         if (!active) return;
         
-        updateArea();
-        
-        // Draw the cannonball
-        g2d.setColor(color);
-        g2d.fill(area);
-        
-        // Draw highlight
-        g2d.setColor(Color.LIGHT_GRAY);
-        g2d.fillOval((int)area.getX() + 2, (int)area.getY() + 2, 4, 4);
+        draw(g2d, physicsBody.getRenderX(), physicsBody.getRenderY(), 
+                physicsBody.getWidth(), physicsBody.getHeight());
+    }
+
+    private void draw(Graphics2D g2d, double x, double y, double width, double height) {
+        drawnX = x;
+        drawnY = y;
+        look().paint(g2d, x, y, width, height);
+    }
+    
+    private Look look() {
+        if (look == null) {
+            look = new Look();
+        }
+        return look;
+    }
+    
+    /**
+     * What a cannonball is drawn with, kept out of the cannonball so a game without a screen never loads AWT for it
+     */
+    private static final class Look {
+        private final Ellipse2D.Double area = new Ellipse2D.Double();
         
-        // Draw border
-        g2d.setColor(Color.BLACK);
-        g2d.draw(area);
+        /**
+         * Draw the cannonball with its top left corner at a point
+         */
+        void paint(Graphics2D g2d, double x, double y, double width, double height) {
+            area.setFrame(x, y, width, height);
+            
+            // Draw the cannonball
+            g2d.setColor(Color.DARK_GRAY);
+            g2d.fill(area);
+            
+            // Draw highlight
+            g2d.setColor(Color.LIGHT_GRAY);
+            g2d.fillOval((int)x + 2, (int)y + 2, 4, 4);
+            
+            // Draw border
+            g2d.setColor(Color.BLACK);
+            g2d.draw(area);
+        }
     }
 }
@@ -1,101 +1,148 @@
 package game;
 
+import physics.RigidBody;
+
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Builds castle structures with different types of blocks
+ * <p>
+ * Each structure is described once, as a layout that hands its blocks to a {@link BlockSink}. The layouts can be
+ * turned into drawable {@link BuildingBlock}s for the game, or into bare physics bodies for running without a screen.
  */
 public class CastleBuilder {
+    /**
+     * Receives the blocks of a layout one by one
+     */
+    public interface BlockSink {
+        /**
+         * @param blockType 0 = stone, 1 = wood, 2 = brick
+         */
+        void block(int x, int y, int width, int height, int blockType);
+    }
     
     /**
-     * Build a simple castle structure
+     * A structure that can be built at any spot on the ground, like {@link #layoutComplexCastle}
      */
+    public interface Layout {
+        void build(int startX, int groundY, BlockSink sink);
+    }
+    
     public static List<BuildingBlock> buildSimpleCastle(int startX, int groundY) {
+        return buildBlocks(CastleBuilder::layoutSimpleCastle, startX, groundY);
+    }
+    
+    public static List<BuildingBlock> buildComplexCastle(int startX, int groundY) {
+        return buildBlocks(CastleBuilder::layoutComplexCastle, startX, groundY);
+    }
+    
+    public static List<BuildingBlock> buildSimpleWall(int startX, int groundY) {
+        return buildBlocks(CastleBuilder::layoutSimpleWall, startX, groundY);
+    }
+    
+    /**
+     * Build a layout out of drawable blocks
+     */
+    public static List<BuildingBlock> buildBlocks(Layout layout, int startX, int groundY) {
         List<BuildingBlock> blocks = new ArrayList<>();
+        layout.build(startX, groundY, (x, y, width, height, blockType) ->
+                blocks.add(new BuildingBlock(x, y, width, height, blockType)));
+        return blocks;
+    }
+    
+    /**
+     * Build a layout out of physics bodies only, with the same properties the drawable blocks would have
+     * Nothing here touches AWT, so this works for simulations without a screen
+     */
+    public static List<RigidBody> buildBodies(Layout layout, int startX, int groundY) {
+        List<RigidBody> bodies = new ArrayList<>();
+        layout.build(startX, groundY, (x, y, width, height, blockType) ->
+                bodies.add(BlockMaterial.createBody(x, y, width, height, blockType)));
+        return bodies;
+    }
+    
+    /**
+     * Lay out a simple castle structure
+     */
+    public static void layoutSimpleCastle(int startX, int groundY, BlockSink sink) {
         int blockWidth = 30;
         int blockHeight = 20;
         
         // Ground level - stone foundation
         for (int i = 0; i < 8; i++) {
-            blocks.add(new BuildingBlock(startX + i * blockWidth, groundY - blockHeight, 
-                                      blockWidth, blockHeight, 0)); // Stone
+            sink.block(startX + i * blockWidth, groundY - blockHeight, 
+                    blockWidth, blockHeight, 0); // Stone
         }
         
         // Second level - mixed materials
         for (int i = 1; i < 7; i++) {
             int material = (i % 2 == 0) ? 2 : 1; // Alternating brick and wood
-            blocks.add(new BuildingBlock(startX + i * blockWidth, groundY - 2 * blockHeight, 
-                                      blockWidth, blockHeight, material));
+            sink.block(startX + i * blockWidth, groundY - 2 * blockHeight, 
+                    blockWidth, blockHeight, material);
         }
         
         // Third level - smaller
         for (int i = 2; i < 6; i++) {
-            blocks.add(new BuildingBlock(startX + i * blockWidth, groundY - 3 * blockHeight, 
-                                      blockWidth, blockHeight, 2)); // Brick
+            sink.block(startX + i * blockWidth, groundY - 3 * blockHeight, 
+                    blockWidth, blockHeight, 2); // Brick
         }
         
         // Tower on the right
-        blocks.add(new BuildingBlock(startX + 7 * blockWidth, groundY - 2 * blockHeight, 
-                                  blockWidth, blockHeight, 0)); // Stone
-        blocks.add(new BuildingBlock(startX + 7 * blockWidth, groundY - 3 * blockHeight, 
-                                  blockWidth, blockHeight, 0)); // Stone
-        blocks.add(new BuildingBlock(startX + 7 * blockWidth, groundY - 4 * blockHeight, 
-                                  blockWidth, blockHeight, 0)); // Stone
-        
-        return blocks;
+        sink.block(startX + 7 * blockWidth, groundY - 2 * blockHeight, 
+                blockWidth, blockHeight, 0); // Stone
+        sink.block(startX + 7 * blockWidth, groundY - 3 * blockHeight, 
+                blockWidth, blockHeight, 0); // Stone
+        sink.block(startX + 7 * blockWidth, groundY - 4 * blockHeight, 
+                blockWidth, blockHeight, 0); // Stone
     }
     
     /**
-     * Build a more complex castle with walls and towers
+     * Lay out a more complex castle with walls and towers
      */
-    public static List<BuildingBlock> buildComplexCastle(int startX, int groundY) {
-        List<BuildingBlock> blocks = new ArrayList<>();
+    public static void layoutComplexCastle(int startX, int groundY, BlockSink sink) {
         int blockWidth = 25;
         int blockHeight = 18;
         
         // Left wall
         for (int i = 0; i < 3; i++) {
-            blocks.add(new BuildingBlock(startX, groundY - (i + 1) * blockHeight, 
-                                      blockWidth, blockHeight, 0)); // Stone
+            sink.block(startX, groundY - (i + 1) * blockHeight, 
+                    blockWidth, blockHeight, 0); // Stone
         }
         
         // Right wall
         for (int i = 0; i < 3; i++) {
-            blocks.add(new BuildingBlock(startX + 8 * blockWidth, groundY - (i + 1) * blockHeight, 
-                                      blockWidth, blockHeight, 0)); // Stone
+            sink.block(startX + 8 * blockWidth, groundY - (i + 1) * blockHeight, 
+                    blockWidth, blockHeight, 0); // Stone
         }
         
         // Back wall
         for (int i = 1; i < 8; i++) {
-            blocks.add(new BuildingBlock(startX + i * blockWidth, groundY - 3 * blockHeight, 
-                                      blockWidth, blockHeight, 0)); // Stone
+            sink.block(startX + i * blockWidth, groundY - 3 * blockHeight, 
+                    blockWidth, blockHeight, 0); // Stone
         }
         
         // Front wall (lower)
         for (int i = 1; i < 8; i++) {
-            blocks.add(new BuildingBlock(startX + i * blockWidth, groundY - blockHeight, 
-                                      blockWidth, blockHeight, 1)); // Wood
+            sink.block(startX + i * blockWidth, groundY - blockHeight, 
+                    blockWidth, blockHeight, 1); // Wood
         }
         
         // Central tower
-        blocks.add(new BuildingBlock(startX + 3 * blockWidth, groundY - 4 * blockHeight, 
-                                  blockWidth, blockHeight, 2)); // Brick
-        blocks.add(new BuildingBlock(startX + 4 * blockWidth, groundY - 4 * blockHeight, 
-                                  blockWidth, blockHeight, 2)); // Brick
-        blocks.add(new BuildingBlock(startX + 3 * blockWidth, groundY - 5 * blockHeight, 
-                                  blockWidth, blockHeight, 2)); // Brick
-        blocks.add(new BuildingBlock(startX + 4 * blockWidth, groundY - 5 * blockHeight, 
-                                  blockWidth, blockHeight, 2)); // Brick
-        
-        return blocks;
+        sink.block(startX + 3 * blockWidth, groundY - 4 * blockHeight, 
+                blockWidth, blockHeight, 2); // Brick
+        sink.block(startX + 4 * blockWidth, groundY - 4 * blockHeight, 
+                blockWidth, blockHeight, 2); // Brick
+        sink.block(startX + 3 * blockWidth, groundY - 5 * blockHeight, 
+                blockWidth, blockHeight, 2); // Brick
+        sink.block(startX + 4 * blockWidth, groundY - 5 * blockHeight, 
+                blockWidth, blockHeight, 2); // Brick
     }
     
     /**
-     * Build a simple wall for target practice
+     * Lay out a simple wall for target practice
      */
-    public static List<BuildingBlock> buildSimpleWall(int startX, int groundY) {
-        List<BuildingBlock> blocks = new ArrayList<>();
+    public static void layoutSimpleWall(int startX, int groundY, BlockSink sink) {
         int blockWidth = 30;
         int blockHeight = 20;
         
@@ -103,12 +150,10 @@ public class CastleBuilder {
         for (int row = 0; row < 3; row++) {
             for (int col = 0; col < 3; col++) {
                 int material = (row + col) % 3; // Different materials
-                blocks.add(new BuildingBlock(startX + col * blockWidth, 
-                                          groundY - (row + 1) * blockHeight, 
-                                          blockWidth, blockHeight, material));
+                sink.block(startX + col * blockWidth, 
+                        groundY - (row + 1) * blockHeight, 
+                        blockWidth, blockHeight, material);
             }
         }
-        
-        return blocks;
     }
 }
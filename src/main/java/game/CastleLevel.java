@@ -0,0 +1,67 @@
+package game;
+
+import physics.BodyStore;
+import physics.LevelFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Lays out castles into a {@link LevelFile}, so a battlefield of any size loads in one go instead of block by block
+ * <p>
+ * Blocks get the properties {@link BlockMaterial} gives them in the game, and are kept as bare bodies until written,
+ * so nothing here touches AWT.
+ */
+public final class CastleLevel {
+    private final BodyStore store = new BodyStore(1024);
+    private final CastleBuilder.BlockSink sink = this::block;
+    private int right; // Right edge of the blocks so far
+
+    private void block(int x, int y, int width, int height, int blockType) {
+        BlockMaterial.apply(store.handle(store.add(x, y, width, height, 2.0)), blockType);
+        right = Math.max(right, x + width);
+    }
+
+    /**
+     * Add the blocks of a layout, awake like the ones the game builds
+     */
+    public void add(CastleBuilder.Layout layout, int startX, int groundY) {
+        layout.build(startX, groundY, sink);
+    }
+
+    /**
+     * Add the blocks of a layout asleep, so the structure stays as it is laid out until something hits it
+     * Big battlefields load with every structure at rest this way, nothing has to settle first.
+     */
+    public void addAsleep(CastleBuilder.Layout layout, int startX, int groundY) {
+        int first = store.getCount();
+        layout.build(startX, groundY, sink);
+        store.sleepTogether(first, store.getCount());
+    }
+
+    public int getBlockCount() {
+        return store.getCount();
+    }
+
+    /**
+     * @return Right edge of the rightmost block, in world units
+     */
+    public int getRight() {
+        return right;
+    }
+
+    public void write(Path file, double worldWidth, double worldHeight) throws IOException {
+        LevelFile.write(file, store, worldWidth, worldHeight);
+    }
+
+    /**
+     * Lay out a fortress of complex castles in a row, each asleep, with at least the given number of blocks
+     */
+    public static CastleLevel buildFortress(int blocks, int startX, int groundY) {
+        CastleLevel level = new CastleLevel();
+        for (int x = startX; level.getBlockCount() < blocks; x += 250) {
+            level.addAsleep(CastleBuilder::layoutComplexCastle, x, groundY);
+        }
+        return level;
+    }
+}
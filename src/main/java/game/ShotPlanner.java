@@ -0,0 +1,218 @@
+package game;
+
+import physics.BodyStore;
+import physics.PhysicsWorld;
+import physics.RigidBody;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tries out shots of a {@link Cannon} before firing, for a player run by the computer
+ * <p>
+ * Each candidate angle is fired into its own fork of the world, which is stepped a fixed number of steps and then
+ * scored against the world it was forked from, by default by the number of blocks the shot knocked out of place.
+ * Candidates are spread over a {@link ForkJoinPool}, one fork per candidate, and the world itself is never touched.
+ * <p>
+ * The cannonball is added once, to a fork of the world that every candidate forks again, so a candidate only copies
+ * the positions and velocities its steps write and shares everything else. While the castle is asleep the ball flies
+ * through a world where almost nothing moves. A longer timestep, fewer steps or fewer solver iterations make a shot
+ * cheaper still.
+ */
+public class ShotPlanner {
+    private final Cannon cannon;
+    private final ForkJoinPool pool;
+    private ShotScore score;
+    private double timestep;
+    private int steps;
+    private int solverIterations;
+
+    /**
+     * How good the outcome of a shot is
+     */
+    public interface ShotScore {
+        /**
+         * @param before The world the shot was fired into
+         * @param after A fork of it after the shot, the bodies of before are in the same slots of its store, and the
+         *              cannonball comes after them
+         * @return The score, higher is better
+         */
+        double score(PhysicsWorld before, PhysicsWorld after);
+    }
+
+    /**
+     * @param cannon Cannon the shots are fired from
+     * @param pool Pool the candidates are evaluated on
+     */
+    public ShotPlanner(Cannon cannon, ForkJoinPool pool) {
+        if (cannon == null || pool == null) {
+            throw new IllegalArgumentException("Need a cannon and a pool");
+        }
+        this.cannon = cannon;
+        this.pool = pool;
+        this.score = blocksDisplaced(5);
+        this.timestep = 1.0 / 60;
+        this.steps = 120; // 2 seconds, enough for a ball to reach the castle and the blocks to fall
+        this.solverIterations = 0;
+    }
+
+    /**
+     * Counts the blocks that moved further than a distance: bodies that can move and aren't projectiles
+     */
+    public static ShotScore blocksDisplaced(double distance) {
+        double distanceSquared = distance * distance;
+        return (before, after) -> {
+            BodyStore start = before.getBodyStore();
+            BodyStore end = after.getBodyStore();
+            int displaced = 0;
+            for (int i = 0; i < start.getCount(); i++) {
+                if (start.isStatic(i) || start.isContinuous(i)) continue;
+
+                double moveX = end.getX(i) - start.getX(i);
+                double moveY = end.getY(i) - start.getY(i);
+                if (moveX * moveX + moveY * moveY > distanceSquared) displaced++;
+            }
+            return displaced;
+        };
+    }
+
+    /**
+     * Score every candidate angle
+     * <p>
+     * Call between steps, from the thread stepping the world. The world must not change until this returns.
+     *
+     * @param world World the shots are fired into
+     * @param angles Candidate angles in radians, limited to the range of the cannon like {@link Cannon#setAngle}
+     * @return The score of each candidate, in the same order
+     */
+    public double[] evaluate(PhysicsWorld world, double[] angles) {
+        double[] scores = new double[angles.length];
+        if (angles.length > 0) {
+            // Adding a body copies the columns a fork shares, so that happens once here instead of for every candidate
+            PhysicsWorld base = world.fork();
+            base.addBody(cannon.createCannonball(cannon.getAngle()).getPhysicsBody());
+            pool.invoke(new EvaluateTask(world, base, angles, scores, 0, angles.length));
+        }
+        return scores;
+    }
+
+    /**
+     * Try angles spread evenly over the range of the cannon, and return the one with the best score
+     * Ties go to the lowest angle.
+     */
+    public double findBestAngle(PhysicsWorld world, int candidates) {
+        if (candidates < 1) {
+            throw new IllegalArgumentException("Need at least one candidate: " + candidates);
+        }
+        double minAngle = cannon.getMinAngle(), maxAngle = cannon.getMaxAngle();
+        double[] angles = new double[candidates];
+        for (int k = 0; k < candidates; k++) {
+            angles[k] = candidates == 1 ? (minAngle + maxAngle) / 2
+                    : minAngle + (maxAngle - minAngle) * k / (candidates - 1);
+        }
+
+        double[] scores = evaluate(world, angles);
+        int best = 0;
+        for (int k = 1; k < candidates; k++) {
+            if (scores[k] > scores[best]) best = k;
+        }
+        return angles[best];
+    }
+
+    /**
+     * Fire one shot into a fork of the world and score the outcome
+     *
+     * @param base Fork of the world with a cannonball added last, which is aimed for this shot
+     */
+    private double evaluate(PhysicsWorld world, PhysicsWorld base, double angle) {
+        PhysicsWorld fork = base.fork();
+        if (solverIterations > 0) {
+            fork.setSolverIterations(solverIterations);
+        }
+        angle = Math.max(cannon.getMinAngle(), Math.min(cannon.getMaxAngle(), angle));
+        RigidBody shot = cannon.createCannonball(angle).getPhysicsBody();
+        RigidBody ball = fork.getBodyStore().handle(fork.getBodyCount() - 1);
+        ball.setX(shot.getX());
+        ball.setY(shot.getY());
+        ball.setVelocityX(shot.getVelocityX());
+        ball.setVelocityY(shot.getVelocityY());
+        for (int step = 0; step < steps; step++) {
+            fork.update(timestep);
+        }
+        return score.score(world, fork);
+    }
+
+    public void setScore(ShotScore score) {
+        if (score == null) {
+            throw new IllegalArgumentException("Score can't be null");
+        }
+        this.score = score;
+    }
+
+    /**
+     * @param timestep Seconds per step of a fork, larger steps are cheaper but less like the real game
+     * @param steps How many steps each shot is followed for
+     */
+    public void setSimulation(double timestep, int steps) {
+        if (timestep <= 0 || steps < 1) {
+            throw new IllegalArgumentException("Need a positive step, and at least one: " + timestep + ", " + steps);
+        }
+        this.timestep = timestep;
+        this.steps = steps;
+    }
+
+    /**
+     * Solve the contacts of the forks with fewer iterations than the world does
+     * @param iterations 0 (the default) uses the iterations of the world
+     */
+    public void setSolverIterations(int iterations) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Iterations can't be negative: " + iterations);
+        }
+        this.solverIterations = iterations;
+    }
+
+    public double getTimestep() {
+        return timestep;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public int getSolverIterations() {
+        return solverIterations;
+    }
+
+    /**
+     * Evaluates a range of candidates, splitting it in halves down to single candidates so idle threads can steal them
+     */
+    private class EvaluateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PhysicsWorld world, base;
+        private final double[] angles;
+        private final double[] scores;
+        private final int from, to;
+
+        EvaluateTask(PhysicsWorld world, PhysicsWorld base, double[] angles, double[] scores, int from, int to) {
+            this.world = world;
+            this.base = base;
+            this.angles = angles;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                scores[from] = evaluate(world, base, angles[from]);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EvaluateTask(world, base, angles, scores, from, middle),
+                    new EvaluateTask(world, base, angles, scores, middle, to));
+        }
+    }
+}
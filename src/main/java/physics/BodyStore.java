@@ -0,0 +1,958 @@
+package physics;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Storage for the state of many rigid bodies, one primitive array per property
+ * <p>
+ * A body is just an index into the arrays. Walking one property for every body (all x positions, all velocities)
+ * reads memory front to back, which is what makes the per-step loops in {@link PhysicsWorld} cheap with lots of
+ * bodies. {@link RigidBody} objects are thin handles pointing at a slot in a store, they are only created when
+ * somebody asks for them.
+ * <p>
+ * Indices are dense: removing a body moves the last body into the freed slot, and its handle is updated to match.
+ * <p>
+ * Bodies that have stopped moving are put to sleep together with everything they rest on. A sleeping body is skipped
+ * by every pass of a step until something wakes it up.
+ * <p>
+ * The whole store can be written to a buffer and read back, column by column, to rewind the simulation. Bodies that
+ * have stopped moving can also be written out in a smaller form, taken out, and added back in bulk later, which is
+ * what keeps parts of a large world on disk.
+ * <p>
+ * A store can be forked cheaply. The columns every step writes (positions, velocities, sleep state) are copied, the
+ * columns that describe a body (ids, size, mass, material, shape, flags) are shared until one of the stores changes
+ * them. A setter on a handle copies the one column it writes, adding or removing a body copies all of them.
+ */
+public class BodyStore {
+    private static final ShapeType[] SHAPES = ShapeType.values();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+    // Bytes per body in a snapshot: the id, 17 doubles, 4 flags, the island and the material
+    private static final int SNAPSHOT_BYTES_PER_BODY = 4 + 17 * 8 + 4 + 4 + 4;
+    // Bytes per body in a chunk: the id, 8 doubles, the material, the island, the shape and the flags
+    private static final int CHUNK_BYTES_PER_BODY = 4 + 8 * 8 + 4 + 4 + 1 + 1;
+    private static final byte CHUNK_STATIC = 1, CHUNK_CONTINUOUS = 2, CHUNK_SLEEPING = 4;
+
+    int count;
+    int[] id; // Stays the same when a body moves to another slot or store, unlike its index
+    double[] x, y;
+    double[] previousX, previousY; // Position before the last step, for drawing between two steps
+    double[] velocityX, velocityY;
+    double[] accelerationX, accelerationY;
+    double[] width, height;
+    double[] mass;
+    double[] restitution;
+    double[] friction;
+    double[] angle, cos, sin;
+    byte[] shape;
+    int[] material; // What the body is made of, an id given by the game, physics doesn't look at it
+    boolean[] isStatic;
+    boolean[] continuous; // Swept against other bodies when moving fast, so it can't pass through them
+    boolean[] sleeping;
+    double[] sleepTime; // How long the body has been slow enough to sleep
+    int[] island; // Bodies that fell asleep together share an island, and wake up together
+    RigidBody[] handles;
+
+    // Columns describing the bodies, as bits of sharedColumns
+    static final int ID = 1, WIDTH = 1 << 1, HEIGHT = 1 << 2, MASS = 1 << 3, RESTITUTION = 1 << 4,
+            FRICTION = 1 << 5, ANGLE = 1 << 6, SHAPE = 1 << 7, MATERIAL = 1 << 8, STATIC = 1 << 9,
+            CONTINUOUS = 1 << 10;
+    private static final int BODY_COLUMNS = (1 << 11) - 1;
+
+    // Columns that may be shared with a fork, or the store it was forked from, and have to be copied before a write
+    private int sharedColumns;
+
+    // How far rendering is between the previous and the current step, from 0 to 1
+    double renderAlpha = 1;
+
+    // World stepping this store, null for the store of a body that isn't in one
+    PhysicsWorld world;
+
+    // Changes whenever the set of bodies that can't move (static or asleep) changes, or one of them is moved
+    int restingVersion;
+    private int nextIsland = 1;
+
+    // Used while reading a snapshot, to give every handle back its body
+    private IdIndex snapshotIndex;
+    private RigidBody[] snapshotHandles;
+
+    // Built when first needed, and again after bodies were added, removed or fell asleep
+    private IdIndex idIndex;
+    private boolean idIndexValid;
+    private IslandIndex islandIndex;
+    private boolean islandIndexValid;
+
+    public BodyStore(int capacity) {
+        capacity = Math.max(1, capacity);
+        id = new int[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        previousX = new double[capacity];
+        previousY = new double[capacity];
+        velocityX = new double[capacity];
+        velocityY = new double[capacity];
+        accelerationX = new double[capacity];
+        accelerationY = new double[capacity];
+        width = new double[capacity];
+        height = new double[capacity];
+        mass = new double[capacity];
+        restitution = new double[capacity];
+        friction = new double[capacity];
+        angle = new double[capacity];
+        cos = new double[capacity];
+        sin = new double[capacity];
+        shape = new byte[capacity];
+        material = new int[capacity];
+        isStatic = new boolean[capacity];
+        continuous = new boolean[capacity];
+        sleeping = new boolean[capacity];
+        sleepTime = new double[capacity];
+        island = new int[capacity];
+        handles = new RigidBody[capacity];
+    }
+
+    /**
+     * @return How many bodies are stored, valid indices are 0 to count - 1
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Add a body with default properties
+     *
+     * @return The index of the new body
+     */
+    public int add(double x, double y, double width, double height, double mass) {
+        ensureCapacity(count + 1);
+        ownBodyColumns();
+        int index = count++;
+        this.id[index] = NEXT_ID.getAndIncrement();
+        this.x[index] = x;
+        this.y[index] = y;
+        this.previousX[index] = x;
+        this.previousY[index] = y;
+        this.velocityX[index] = 0;
+        this.velocityY[index] = 0;
+        this.accelerationX[index] = 0;
+        this.accelerationY[index] = 0;
+        this.width[index] = width;
+        this.height[index] = height;
+        this.mass[index] = mass;
+        this.restitution[index] = 0.8; // Default bounciness
+        this.friction[index] = 0.1; // Default friction
+        this.angle[index] = 0;
+        this.cos[index] = 1;
+        this.sin[index] = 0;
+        this.shape[index] = (byte) ShapeType.AABB.ordinal();
+        this.material[index] = 0;
+        this.isStatic[index] = false;
+        this.continuous[index] = false;
+        this.sleeping[index] = false;
+        this.sleepTime[index] = 0;
+        this.island[index] = 0;
+        this.handles[index] = null;
+        bodiesChanged();
+        restingVersion++;
+        return index;
+    }
+
+    /**
+     * Copy every property of a body from another store into a new slot of this one
+     *
+     * @return The index of the copy
+     */
+    int copyFrom(BodyStore source, int sourceIndex) {
+        ensureCapacity(count + 1);
+        ownBodyColumns();
+        int index = count++;
+        id[index] = source.id[sourceIndex];
+        x[index] = source.x[sourceIndex];
+        y[index] = source.y[sourceIndex];
+        previousX[index] = source.previousX[sourceIndex];
+        previousY[index] = source.previousY[sourceIndex];
+        velocityX[index] = source.velocityX[sourceIndex];
+        velocityY[index] = source.velocityY[sourceIndex];
+        accelerationX[index] = source.accelerationX[sourceIndex];
+        accelerationY[index] = source.accelerationY[sourceIndex];
+        width[index] = source.width[sourceIndex];
+        height[index] = source.height[sourceIndex];
+        mass[index] = source.mass[sourceIndex];
+        restitution[index] = source.restitution[sourceIndex];
+        friction[index] = source.friction[sourceIndex];
+        angle[index] = source.angle[sourceIndex];
+        cos[index] = source.cos[sourceIndex];
+        sin[index] = source.sin[sourceIndex];
+        shape[index] = source.shape[sourceIndex];
+        material[index] = source.material[sourceIndex];
+        isStatic[index] = source.isStatic[sourceIndex];
+        continuous[index] = source.continuous[sourceIndex];
+        // Island ids only mean something inside one store, so the copy starts awake
+        sleeping[index] = false;
+        sleepTime[index] = 0;
+        island[index] = 0;
+        handles[index] = null;
+        bodiesChanged();
+        restingVersion++;
+        return index;
+    }
+
+    /**
+     * Remove a body by moving the last body into its slot
+     */
+    void remove(int index) {
+        int last = --count;
+        if (index != last) {
+            ownBodyColumns();
+            id[index] = id[last];
+            x[index] = x[last];
+            y[index] = y[last];
+            previousX[index] = previousX[last];
+            previousY[index] = previousY[last];
+            velocityX[index] = velocityX[last];
+            velocityY[index] = velocityY[last];
+            accelerationX[index] = accelerationX[last];
+            accelerationY[index] = accelerationY[last];
+            width[index] = width[last];
+            height[index] = height[last];
+            mass[index] = mass[last];
+            restitution[index] = restitution[last];
+            friction[index] = friction[last];
+            angle[index] = angle[last];
+            cos[index] = cos[last];
+            sin[index] = sin[last];
+            shape[index] = shape[last];
+            material[index] = material[last];
+            isStatic[index] = isStatic[last];
+            continuous[index] = continuous[last];
+            sleeping[index] = sleeping[last];
+            sleepTime[index] = sleepTime[last];
+            island[index] = island[last];
+            handles[index] = handles[last];
+            if (handles[index] != null) {
+                handles[index].index = index;
+            }
+        }
+        handles[last] = null;
+        bodiesChanged();
+        restingVersion++;
+    }
+
+    /**
+     * Remove every marked body in one pass, the others keep their order
+     * Handles of removed bodies are dropped, they can't be used anymore. Nothing is woken up.
+     *
+     * @param removed Marks by index, at least as long as the store has bodies
+     */
+    void removeAll(boolean[] removed) {
+        ownBodyColumns();
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (removed[i]) {
+                if (handles[i] != null) {
+                    handles[i].store = null;
+                    handles[i] = null;
+                }
+                continue;
+            }
+            if (kept != i) {
+                id[kept] = id[i];
+                x[kept] = x[i];
+                y[kept] = y[i];
+                previousX[kept] = previousX[i];
+                previousY[kept] = previousY[i];
+                velocityX[kept] = velocityX[i];
+                velocityY[kept] = velocityY[i];
+                accelerationX[kept] = accelerationX[i];
+                accelerationY[kept] = accelerationY[i];
+                width[kept] = width[i];
+                height[kept] = height[i];
+                mass[kept] = mass[i];
+                restitution[kept] = restitution[i];
+                friction[kept] = friction[i];
+                angle[kept] = angle[i];
+                cos[kept] = cos[i];
+                sin[kept] = sin[i];
+                shape[kept] = shape[i];
+                material[kept] = material[i];
+                isStatic[kept] = isStatic[i];
+                continuous[kept] = continuous[i];
+                sleeping[kept] = sleeping[i];
+                sleepTime[kept] = sleepTime[i];
+                island[kept] = island[i];
+                handles[kept] = handles[i];
+                if (handles[kept] != null) {
+                    handles[kept].index = kept;
+                }
+            }
+            kept++;
+        }
+        Arrays.fill(handles, kept, count, null);
+        count = kept;
+        bodiesChanged();
+        restingVersion++;
+    }
+
+    /**
+     * Get the handle for a body, creating it the first time it is asked for
+     */
+    public RigidBody handle(int index) {
+        RigidBody body = handles[index];
+        if (body == null) {
+            body = new RigidBody(this, index);
+            handles[index] = body;
+        }
+        return body;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity <= x.length) return;
+
+        capacity = Math.max(capacity, x.length * 2);
+        id = Arrays.copyOf(id, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        previousX = Arrays.copyOf(previousX, capacity);
+        previousY = Arrays.copyOf(previousY, capacity);
+        velocityX = Arrays.copyOf(velocityX, capacity);
+        velocityY = Arrays.copyOf(velocityY, capacity);
+        accelerationX = Arrays.copyOf(accelerationX, capacity);
+        accelerationY = Arrays.copyOf(accelerationY, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        restitution = Arrays.copyOf(restitution, capacity);
+        friction = Arrays.copyOf(friction, capacity);
+        angle = Arrays.copyOf(angle, capacity);
+        cos = Arrays.copyOf(cos, capacity);
+        sin = Arrays.copyOf(sin, capacity);
+        shape = Arrays.copyOf(shape, capacity);
+        material = Arrays.copyOf(material, capacity);
+        isStatic = Arrays.copyOf(isStatic, capacity);
+        continuous = Arrays.copyOf(continuous, capacity);
+        sleeping = Arrays.copyOf(sleeping, capacity);
+        sleepTime = Arrays.copyOf(sleepTime, capacity);
+        island = Arrays.copyOf(island, capacity);
+        handles = Arrays.copyOf(handles, capacity);
+        sharedColumns = 0;
+    }
+
+    /**
+     * Make a store with the same bodies in the same slots, which can be stepped without touching this one
+     * <p>
+     * The fork has no handles yet, and the two stores share the columns describing the bodies until either of them
+     * writes to one. Several forks can be made at the same time from different threads, as long as nothing changes
+     * this store meanwhile.
+     */
+    BodyStore fork() {
+        sharedColumns = BODY_COLUMNS;
+        return new BodyStore(this);
+    }
+
+    private BodyStore(BodyStore source) {
+        count = source.count;
+        id = source.id;
+        x = source.x.clone();
+        y = source.y.clone();
+        previousX = source.previousX.clone();
+        previousY = source.previousY.clone();
+        velocityX = source.velocityX.clone();
+        velocityY = source.velocityY.clone();
+        accelerationX = source.accelerationX.clone();
+        accelerationY = source.accelerationY.clone();
+        width = source.width;
+        height = source.height;
+        mass = source.mass;
+        restitution = source.restitution;
+        friction = source.friction;
+        angle = source.angle;
+        cos = source.cos;
+        sin = source.sin;
+        shape = source.shape;
+        material = source.material;
+        isStatic = source.isStatic;
+        continuous = source.continuous;
+        sleeping = source.sleeping.clone();
+        sleepTime = source.sleepTime.clone();
+        island = source.island.clone();
+        handles = new RigidBody[x.length];
+        renderAlpha = source.renderAlpha;
+        restingVersion = source.restingVersion;
+        nextIsland = source.nextIsland;
+        sharedColumns = BODY_COLUMNS;
+    }
+
+    /**
+     * Copy every column shared with a fork, or the store it was forked from, before writing whole bodies
+     */
+    void ownBodyColumns() {
+        ownColumns(BODY_COLUMNS);
+    }
+
+    /**
+     * Copy some of the columns describing the bodies if they are shared, before writing to them
+     *
+     * @param columns Bits like {@link #MASS}, {@link #ANGLE} stands for the angle with its cosine and sine
+     */
+    void ownColumns(int columns) {
+        int copy = sharedColumns & columns;
+        if (copy == 0) return;
+
+        if ((copy & ID) != 0) id = id.clone();
+        if ((copy & WIDTH) != 0) width = width.clone();
+        if ((copy & HEIGHT) != 0) height = height.clone();
+        if ((copy & MASS) != 0) mass = mass.clone();
+        if ((copy & RESTITUTION) != 0) restitution = restitution.clone();
+        if ((copy & FRICTION) != 0) friction = friction.clone();
+        if ((copy & ANGLE) != 0) {
+            angle = angle.clone();
+            cos = cos.clone();
+            sin = sin.clone();
+        }
+        if ((copy & SHAPE) != 0) shape = shape.clone();
+        if ((copy & MATERIAL) != 0) material = material.clone();
+        if ((copy & STATIC) != 0) isStatic = isStatic.clone();
+        if ((copy & CONTINUOUS) != 0) continuous = continuous.clone();
+        sharedColumns &= ~copy;
+    }
+
+    /**
+     * @return Bytes {@link #writeSnapshot} needs for the bodies stored right now
+     */
+    int getSnapshotSize() {
+        return 4 + count * SNAPSHOT_BYTES_PER_BODY;
+    }
+
+    /**
+     * Write the state of every body to a buffer, one column after the other
+     */
+    void writeSnapshot(ByteBuffer buffer) {
+        int n = count;
+        buffer.putInt(n);
+        for (int i = 0; i < n; i++) buffer.putInt(id[i]);
+        putColumn(buffer, x, n);
+        putColumn(buffer, y, n);
+        putColumn(buffer, previousX, n);
+        putColumn(buffer, previousY, n);
+        putColumn(buffer, velocityX, n);
+        putColumn(buffer, velocityY, n);
+        putColumn(buffer, accelerationX, n);
+        putColumn(buffer, accelerationY, n);
+        putColumn(buffer, width, n);
+        putColumn(buffer, height, n);
+        putColumn(buffer, mass, n);
+        putColumn(buffer, restitution, n);
+        putColumn(buffer, friction, n);
+        putColumn(buffer, angle, n);
+        putColumn(buffer, cos, n);
+        putColumn(buffer, sin, n);
+        putColumn(buffer, sleepTime, n);
+        for (int i = 0; i < n; i++) buffer.put(shape[i]);
+        for (int i = 0; i < n; i++) buffer.put(isStatic[i] ? (byte) 1 : 0);
+        for (int i = 0; i < n; i++) buffer.put(continuous[i] ? (byte) 1 : 0);
+        for (int i = 0; i < n; i++) buffer.put(sleeping[i] ? (byte) 1 : 0);
+        for (int i = 0; i < n; i++) buffer.putInt(island[i]);
+        for (int i = 0; i < n; i++) buffer.putInt(material[i]);
+    }
+
+    /**
+     * Replace every body with the state written by {@link #writeSnapshot}
+     * <p>
+     * Handles stay valid: a handle whose body is in the snapshot points at it again, wherever it ended up. A body
+     * added after the snapshot was taken isn't in it, so it leaves the store together with its handle, keeping its
+     * current state. A body removed after the snapshot was taken comes back, but with a new handle.
+     */
+    void readSnapshot(ByteBuffer buffer) {
+        ownBodyColumns();
+        int n = buffer.getInt();
+        int idStart = buffer.position();
+        // Usually the same bodies are still in the same slots, and every handle can stay where it is
+        if (n == count && sameIds(buffer, idStart, n)) {
+            buffer.position(idStart + n * 4);
+            readColumns(buffer, n);
+            islandIndexValid = false;
+            restingVersion++;
+            return;
+        }
+
+        ensureCapacity(n);
+        if (snapshotIndex == null) {
+            snapshotIndex = new IdIndex();
+        }
+        if (snapshotHandles == null || snapshotHandles.length < x.length) {
+            snapshotHandles = new RigidBody[x.length];
+        }
+
+        // Sort out the handles before their bodies are overwritten
+        snapshotIndex.clear(n);
+        for (int i = 0; i < n; i++) {
+            snapshotIndex.put(buffer.getInt(idStart + i * 4), i);
+        }
+        // Going backwards, so removing a body only ever moves one that was already looked at
+        for (int i = count - 1; i >= 0; i--) {
+            RigidBody handle = handles[i];
+            if (handle == null) continue;
+
+            int slot = snapshotIndex.get(id[i]);
+            if (slot < 0) {
+                handle.moveTo(new BodyStore(1));
+            } else {
+                snapshotHandles[slot] = handle;
+            }
+        }
+        int previousCount = count;
+
+        count = n;
+        for (int i = 0; i < n; i++) id[i] = buffer.getInt();
+        readColumns(buffer, n);
+
+        for (int i = 0; i < n; i++) {
+            RigidBody handle = snapshotHandles[i];
+            snapshotHandles[i] = null;
+            handles[i] = handle;
+            if (handle != null) {
+                handle.index = i;
+            }
+        }
+        if (previousCount > n) {
+            Arrays.fill(handles, n, previousCount, null);
+        }
+        // nextIsland stays as it is, it only has to be ahead of every island id in use, and it already is
+        bodiesChanged();
+        restingVersion++;
+    }
+
+    /**
+     * @return Bytes {@link #writeChunk} needs for a number of bodies
+     */
+    static int getChunkSize(int bodies) {
+        return 4 + bodies * CHUNK_BYTES_PER_BODY;
+    }
+
+    /**
+     * Write bodies that can't move (static or asleep) in a compact form, one column after the other
+     * Velocities and everything else that is always zero for them is left out.
+     *
+     * @param bodies Indices of the bodies to write
+     * @param n How many of them
+     */
+    void writeChunk(int[] bodies, int n, ByteBuffer buffer) {
+        buffer.putInt(n);
+        for (int k = 0; k < n; k++) buffer.putInt(id[bodies[k]]);
+        for (int k = 0; k < n; k++) buffer.putDouble(x[bodies[k]]);
+        for (int k = 0; k < n; k++) buffer.putDouble(y[bodies[k]]);
+        for (int k = 0; k < n; k++) buffer.putDouble(width[bodies[k]]);
+        for (int k = 0; k < n; k++) buffer.putDouble(height[bodies[k]]);
+        for (int k = 0; k < n; k++) buffer.putDouble(mass[bodies[k]]);
+        for (int k = 0; k < n; k++) buffer.putDouble(restitution[bodies[k]]);
+        for (int k = 0; k < n; k++) buffer.putDouble(friction[bodies[k]]);
+        for (int k = 0; k < n; k++) buffer.putDouble(angle[bodies[k]]);
+        for (int k = 0; k < n; k++) buffer.putInt(material[bodies[k]]);
+        for (int k = 0; k < n; k++) buffer.putInt(island[bodies[k]]);
+        for (int k = 0; k < n; k++) buffer.put(shape[bodies[k]]);
+        for (int k = 0; k < n; k++) {
+            int i = bodies[k];
+            buffer.put((byte) ((isStatic[i] ? CHUNK_STATIC : 0) | (continuous[i] ? CHUNK_CONTINUOUS : 0)
+                    | (sleeping[i] ? CHUNK_SLEEPING : 0)));
+        }
+    }
+
+    /**
+     * Add the bodies written by {@link #writeChunk} at the end of the store, without handles
+     * Bodies that fell asleep together are still asleep together, in islands of their own.
+     *
+     * @return Index of the first body added, the others follow it in the order they were written
+     */
+    int readChunk(ByteBuffer buffer) {
+        int n = buffer.getInt();
+        int first = count;
+        ensureCapacity(first + n);
+        ownBodyColumns();
+        int end = first + n;
+        for (int i = first; i < end; i++) id[i] = buffer.getInt();
+        for (int i = first; i < end; i++) x[i] = buffer.getDouble();
+        for (int i = first; i < end; i++) y[i] = buffer.getDouble();
+        for (int i = first; i < end; i++) width[i] = buffer.getDouble();
+        for (int i = first; i < end; i++) height[i] = buffer.getDouble();
+        for (int i = first; i < end; i++) mass[i] = buffer.getDouble();
+        for (int i = first; i < end; i++) restitution[i] = buffer.getDouble();
+        for (int i = first; i < end; i++) friction[i] = buffer.getDouble();
+        for (int i = first; i < end; i++) angle[i] = buffer.getDouble();
+        for (int i = first; i < end; i++) material[i] = buffer.getInt();
+        for (int i = first; i < end; i++) island[i] = buffer.getInt();
+        for (int i = first; i < end; i++) shape[i] = buffer.get();
+        int minIsland = Integer.MAX_VALUE, maxIsland = Integer.MIN_VALUE;
+        for (int i = first; i < end; i++) {
+            byte flags = buffer.get();
+            isStatic[i] = (flags & CHUNK_STATIC) != 0;
+            continuous[i] = (flags & CHUNK_CONTINUOUS) != 0;
+            sleeping[i] = (flags & CHUNK_SLEEPING) != 0;
+            if (sleeping[i]) {
+                minIsland = Math.min(minIsland, island[i]);
+                maxIsland = Math.max(maxIsland, island[i]);
+            }
+        }
+        // The written island ids may be in use here by now, move them past every id handed out so far
+        int islandShift = minIsland <= maxIsland ? nextIsland - minIsland : 0;
+        for (int i = first; i < end; i++) {
+            previousX[i] = x[i];
+            previousY[i] = y[i];
+            velocityX[i] = 0;
+            velocityY[i] = 0;
+            accelerationX[i] = 0;
+            accelerationY[i] = 0;
+            cos[i] = Math.cos(angle[i]);
+            sin[i] = Math.sin(angle[i]);
+            sleepTime[i] = 0;
+            island[i] = sleeping[i] ? island[i] + islandShift : 0;
+            handles[i] = null;
+        }
+        if (minIsland <= maxIsland) {
+            nextIsland = maxIsland + islandShift + 1;
+        }
+        count = end;
+        bodiesChanged();
+        restingVersion++;
+        return first;
+    }
+
+    /**
+     * Write the columns of every body the way a {@link LevelFile} keeps them, each as one block of memory
+     *
+     * @param buffer Little endian, with room for {@link LevelFile#columnBytes} of the count
+     */
+    void writeLevel(ByteBuffer buffer) {
+        int n = count;
+        putDoubles(buffer, x, 0, n);
+        putDoubles(buffer, y, 0, n);
+        putDoubles(buffer, width, 0, n);
+        putDoubles(buffer, height, 0, n);
+        putDoubles(buffer, mass, 0, n);
+        putDoubles(buffer, restitution, 0, n);
+        putDoubles(buffer, friction, 0, n);
+        putDoubles(buffer, angle, 0, n);
+        buffer.asIntBuffer().put(material, 0, n);
+        buffer.position(buffer.position() + n * 4);
+        // Islands are numbered from 1 in the file, in the order they first come up, whatever their ids are here
+        IdIndex islands = new IdIndex();
+        islands.clear(n);
+        int islandCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (!sleeping[i]) {
+                buffer.putInt(0);
+                continue;
+            }
+            int fileIsland = islands.get(island[i]);
+            if (fileIsland < 0) {
+                fileIsland = ++islandCount;
+                islands.put(island[i], fileIsland);
+            }
+            buffer.putInt(fileIsland);
+        }
+        buffer.put(shape, 0, n);
+        for (int i = 0; i < n; i++) {
+            buffer.put((byte) ((isStatic[i] ? LevelFile.STATIC : 0) | (continuous[i] ? LevelFile.CONTINUOUS : 0)));
+        }
+    }
+
+    /**
+     * Add bodies from the columns of a {@link LevelFile}, copying each column in one go
+     * The bodies get new ids and no handles. Bodies sharing an island start asleep together, in an island of their own.
+     *
+     * @param buffer Little endian, at the first column
+     * @return Index of the first body added, the others follow it in file order
+     */
+    int readLevel(ByteBuffer buffer, int n) {
+        int first = count;
+        int end = first + n;
+        ensureCapacity(end);
+        ownBodyColumns();
+        getDoubles(buffer, x, first, n);
+        getDoubles(buffer, y, first, n);
+        getDoubles(buffer, width, first, n);
+        getDoubles(buffer, height, first, n);
+        getDoubles(buffer, mass, first, n);
+        getDoubles(buffer, restitution, first, n);
+        getDoubles(buffer, friction, first, n);
+        getDoubles(buffer, angle, first, n);
+        buffer.asIntBuffer().get(material, first, n);
+        buffer.position(buffer.position() + n * 4);
+        buffer.asIntBuffer().get(island, first, n);
+        buffer.position(buffer.position() + n * 4);
+        buffer.get(shape, first, n);
+
+        System.arraycopy(x, first, previousX, first, n);
+        System.arraycopy(y, first, previousY, first, n);
+        Arrays.fill(velocityX, first, end, 0);
+        Arrays.fill(velocityY, first, end, 0);
+        Arrays.fill(accelerationX, first, end, 0);
+        Arrays.fill(accelerationY, first, end, 0);
+        Arrays.fill(sleepTime, first, end, 0);
+        Arrays.fill(handles, first, end, null);
+        int firstId = NEXT_ID.getAndAdd(n);
+        int maxIsland = 0;
+        for (int i = first; i < end; i++) {
+            id[i] = firstId + i - first;
+            byte flags = buffer.get();
+            isStatic[i] = (flags & LevelFile.STATIC) != 0;
+            continuous[i] = (flags & LevelFile.CONTINUOUS) != 0;
+            double a = angle[i];
+            cos[i] = a == 0 ? 1 : Math.cos(a);
+            sin[i] = a == 0 ? 0 : Math.sin(a);
+            // Islands in the file count from 1, move them past every island handed out here so far
+            int fileIsland = island[i];
+            sleeping[i] = fileIsland > 0;
+            island[i] = fileIsland > 0 ? fileIsland + nextIsland - 1 : 0;
+            maxIsland = Math.max(maxIsland, fileIsland);
+        }
+        nextIsland += maxIsland;
+        count = end;
+        bodiesChanged();
+        restingVersion++;
+        return first;
+    }
+
+    private static void putDoubles(ByteBuffer buffer, double[] column, int from, int n) {
+        buffer.asDoubleBuffer().put(column, from, n);
+        buffer.position(buffer.position() + n * 8);
+    }
+
+    private static void getDoubles(ByteBuffer buffer, double[] column, int from, int n) {
+        buffer.asDoubleBuffer().get(column, from, n);
+        buffer.position(buffer.position() + n * 8);
+    }
+
+    private boolean sameIds(ByteBuffer buffer, int idStart, int n) {
+        for (int i = 0; i < n; i++) {
+            if (buffer.getInt(idStart + i * 4) != id[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read every column after the ids
+     */
+    private void readColumns(ByteBuffer buffer, int n) {
+        getColumn(buffer, x, n);
+        getColumn(buffer, y, n);
+        getColumn(buffer, previousX, n);
+        getColumn(buffer, previousY, n);
+        getColumn(buffer, velocityX, n);
+        getColumn(buffer, velocityY, n);
+        getColumn(buffer, accelerationX, n);
+        getColumn(buffer, accelerationY, n);
+        getColumn(buffer, width, n);
+        getColumn(buffer, height, n);
+        getColumn(buffer, mass, n);
+        getColumn(buffer, restitution, n);
+        getColumn(buffer, friction, n);
+        getColumn(buffer, angle, n);
+        getColumn(buffer, cos, n);
+        getColumn(buffer, sin, n);
+        getColumn(buffer, sleepTime, n);
+        for (int i = 0; i < n; i++) shape[i] = buffer.get();
+        for (int i = 0; i < n; i++) isStatic[i] = buffer.get() != 0;
+        for (int i = 0; i < n; i++) continuous[i] = buffer.get() != 0;
+        for (int i = 0; i < n; i++) sleeping[i] = buffer.get() != 0;
+        for (int i = 0; i < n; i++) island[i] = buffer.getInt();
+        for (int i = 0; i < n; i++) material[i] = buffer.getInt();
+    }
+
+    private static void putColumn(ByteBuffer buffer, double[] column, int count) {
+        for (int i = 0; i < count; i++) buffer.putDouble(column[i]);
+    }
+
+    private static void getColumn(ByteBuffer buffer, double[] column, int count) {
+        for (int i = 0; i < count; i++) column[i] = buffer.getDouble();
+    }
+
+    /**
+     * @return The index of the body with the given id, or -1 if it isn't in this store
+     */
+    int indexOf(int bodyId) {
+        if (bodyId <= 0) return -1;
+        if (!idIndexValid) {
+            if (idIndex == null) {
+                idIndex = new IdIndex();
+            }
+            idIndex.clear(count);
+            for (int i = 0; i < count; i++) {
+                idIndex.put(id[i], i);
+            }
+            idIndexValid = true;
+        }
+        return idIndex.get(bodyId);
+    }
+
+    private void bodiesChanged() {
+        idIndexValid = false;
+        islandIndexValid = false;
+    }
+
+    /**
+     * Whether a body can't move this step, because it is static or asleep
+     */
+    public boolean isResting(int index) {
+        return isStatic[index] || sleeping[index];
+    }
+
+    /**
+     * Wake up a sleeping body and every body that fell asleep together with it
+     */
+    public void wake(int index) {
+        if (!sleeping[index]) return;
+
+        wakeIsland(getIslandIndex(), island[index]);
+    }
+
+    /**
+     * Put bodies to sleep as one island, like a structure that was built at rest
+     * They wake up together, as soon as something touches one of them.
+     *
+     * @param from Index of the first body
+     * @param to Index after the last body
+     */
+    public void sleepTogether(int from, int to) {
+        int sleepingIsland = newIsland();
+        for (int i = from; i < to; i++) {
+            sleep(i, sleepingIsland);
+            sleepTime[i] = 0;
+        }
+    }
+
+    /**
+     * Wake up every body in the given sleeping islands
+     */
+    void wakeIslands(int[] islands, int islandCount) {
+        if (islandCount == 0) return;
+
+        IslandIndex index = getIslandIndex();
+        for (int k = 0; k < islandCount; k++) {
+            wakeIsland(index, islands[k]);
+        }
+    }
+
+    private void wakeIsland(IslandIndex index, int sleepingIsland) {
+        int slot = index.find(sleepingIsland);
+        if (slot < 0) return;
+
+        for (int p = index.getFrom(slot); p < index.getTo(slot); p++) {
+            int i = index.getMember(p);
+            // The index still lists bodies that woke up since it was built
+            if (sleeping[i] && island[i] == sleepingIsland) {
+                wakeSingle(i);
+            }
+        }
+    }
+
+    private IslandIndex getIslandIndex() {
+        if (!islandIndexValid) {
+            if (islandIndex == null) {
+                islandIndex = new IslandIndex();
+            }
+            islandIndex.build(this);
+            islandIndexValid = true;
+        }
+        return islandIndex;
+    }
+
+    private void wakeSingle(int index) {
+        sleeping[index] = false;
+        sleepTime[index] = 0;
+        restingVersion++;
+    }
+
+    /**
+     * @return A new island id for a group of bodies falling asleep together
+     */
+    int newIsland() {
+        return nextIsland++;
+    }
+
+    /**
+     * Stop a body where it is, as part of the given island
+     */
+    void sleep(int index, int sleepingIsland) {
+        sleeping[index] = true;
+        island[index] = sleepingIsland;
+        velocityX[index] = 0;
+        velocityY[index] = 0;
+        accelerationX[index] = 0;
+        accelerationY[index] = 0;
+        islandIndexValid = false;
+        restingVersion++;
+    }
+
+    // Read access for code outside the physics package, like custom broadphases
+    public int getId(int index) { return id[index]; }
+    public double getX(int index) { return x[index]; }
+    public double getY(int index) { return y[index]; }
+    public double getWidth(int index) { return width[index]; }
+    public double getHeight(int index) { return height[index]; }
+    public double getVelocityX(int index) { return velocityX[index]; }
+    public double getVelocityY(int index) { return velocityY[index]; }
+    public double getMass(int index) { return mass[index]; }
+    public boolean isStatic(int index) { return isStatic[index]; }
+    public boolean isContinuous(int index) { return continuous[index]; }
+    public boolean isSleeping(int index) { return sleeping[index]; }
+    public ShapeType getShape(int index) { return SHAPES[shape[index]]; }
+    public int getMaterial(int index) { return material[index]; }
+
+    /**
+     * X position to draw a body at, between its previous and current position
+     */
+    public double getRenderX(int index) {
+        return previousX[index] + (x[index] - previousX[index]) * renderAlpha;
+    }
+
+    /**
+     * Y position to draw a body at, between its previous and current position
+     */
+    public double getRenderY(int index) {
+        return previousY[index] + (y[index] - previousY[index]) * renderAlpha;
+    }
+
+    /**
+     * Remember where every body is before a step moves them
+     */
+    void savePreviousPositions() {
+        System.arraycopy(x, 0, previousX, 0, count);
+        System.arraycopy(y, 0, previousY, 0, count);
+    }
+
+    public double getCenterX(int index) {
+        return x[index] + width[index] / 2;
+    }
+
+    public double getCenterY(int index) {
+        return y[index] + height[index] / 2;
+    }
+
+    /**
+     * Half the width of the axis aligned box around the shape
+     */
+    public double getExtentX(int index) {
+        if (shape[index] == ShapeType.ORIENTED_BOX.ordinal()) {
+            return (Math.abs(cos[index]) * width[index] + Math.abs(sin[index]) * height[index]) / 2;
+        }
+        return width[index] / 2;
+    }
+
+    /**
+     * Half the height of the axis aligned box around the shape
+     */
+    public double getExtentY(int index) {
+        if (shape[index] == ShapeType.ORIENTED_BOX.ordinal()) {
+            return (Math.abs(sin[index]) * width[index] + Math.abs(cos[index]) * height[index]) / 2;
+        }
+        return height[index] / 2;
+    }
+
+    /**
+     * Radius of a CIRCLE, the circle fits the shorter side of the body
+     */
+    public double getRadius(int index) {
+        return Math.min(width[index], height[index]) / 2;
+    }
+}
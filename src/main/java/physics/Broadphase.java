@@ -0,0 +1,66 @@
+package physics;
+
+/**
+ * The first stage of collision detection
+ * <p>
+ * A broadphase cheaply throws away pairs of bodies that cannot be touching, so the exact (and much more expensive)
+ * test only runs on pairs that are close to each other
+ */
+public interface Broadphase {
+    /**
+     * Find every pair of bodies whose bounding boxes overlap or touch
+     * Pairs where neither body can move (static or asleep) are never reported, they can't do anything to each other
+     *
+     * @param store All bodies in the world
+     * @param callback Receives each candidate pair exactly once, as indices into the store
+     */
+    void findPairs(BodyStore store, PairCallback callback);
+
+    /**
+     * Find every body whose bounding box overlaps or touches a box
+     * Must come after findPairs for the same store. Bodies that moved since then may be found where they were at that
+     * time, so callers that need exact positions have to check again.
+     * <p>
+     * The default tests every body, broadphases that keep the bodies sorted in some way should do better.
+     *
+     * @param callback Receives each body in the box exactly once, as an index into the store
+     */
+    default void query(BodyStore store, double minX, double minY, double maxX, double maxY, QueryCallback callback) {
+        for (int i = 0; i < store.count; i++) {
+            double extentX = store.getExtentX(i);
+            double extentY = store.getExtentY(i);
+            double centerX = store.getCenterX(i);
+            double centerY = store.getCenterY(i);
+            if (centerX + extentX >= minX && centerX - extentX <= maxX
+                    && centerY + extentY >= minY && centerY - extentY <= maxY) {
+                callback.onBody(i);
+            }
+        }
+    }
+
+    /**
+     * Get a broadphase for a fork of the world using this one, both worlds may then be stepped at the same time
+     * The default shares this broadphase, which is only right for broadphases that keep nothing between calls.
+     */
+    default Broadphase fork() {
+        return this;
+    }
+
+    /**
+     * Receives the candidate pairs found by a broadphase
+     */
+    interface PairCallback {
+        /**
+         * @param a Index of the first body, always lower than b
+         * @param b Index of the second body
+         */
+        void onPair(int a, int b);
+    }
+
+    /**
+     * Receives the bodies found by a query
+     */
+    interface QueryCallback {
+        void onBody(int body);
+    }
+}
@@ -0,0 +1,27 @@
+package physics;
+
+/**
+ * Tests every pair of bodies against each other
+ * <p>
+ * This is O(n²), but has no setup cost at all, so it is still the fastest choice for a handful of bodies
+ */
+public class BruteForceBroadphase implements Broadphase {
+    @Override
+    public void findPairs(BodyStore store, PairCallback callback) {
+        int count = store.count;
+        for (int a = 0; a < count; a++) {
+            for (int b = a + 1; b < count; b++) {
+                if (store.isResting(a) && store.isResting(b)) continue;
+
+                if (overlaps(store, a, b)) {
+                    callback.onPair(a, b);
+                }
+            }
+        }
+    }
+
+    private static boolean overlaps(BodyStore store, int a, int b) {
+        return Math.abs(store.getCenterX(b) - store.getCenterX(a)) <= store.getExtentX(a) + store.getExtentX(b)
+                && Math.abs(store.getCenterY(b) - store.getCenterY(a)) <= store.getExtentY(a) + store.getExtentY(b);
+    }
+}
@@ -0,0 +1,32 @@
+package physics;
+
+/**
+ * The result of a narrowphase test between two bodies
+ * <p>
+ * Instances are meant to be reused for every test, so checking a pair never creates garbage
+ */
+public class Contact {
+    double normalX, normalY;
+    double depth;
+
+    /**
+     * X component of the unit normal, pointing from the first body towards the second
+     */
+    public double getNormalX() { return normalX; }
+
+    /**
+     * Y component of the unit normal, pointing from the first body towards the second
+     */
+    public double getNormalY() { return normalY; }
+
+    /**
+     * How far the two bodies overlap along the normal
+     */
+    public double getDepth() { return depth; }
+
+    void set(double normalX, double normalY, double depth) {
+        this.normalX = normalX;
+        this.normalY = normalY;
+        this.depth = depth;
+    }
+}
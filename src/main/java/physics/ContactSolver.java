@@ -0,0 +1,413 @@
+package physics;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Sequential impulse solver for the contacts of a step
+ * <p>
+ * Every contact is solved several times in a row, each time correcting the velocities a little more, until the whole
+ * island agrees. The impulses found in one step are remembered per pair of bodies and applied again at the start of
+ * the next step (warm starting), so a stack that was at rest starts out at rest and needs very few iterations.
+ * <p>
+ * Bodies don't rotate, so a manifold is a single contact along the normal, with friction along the tangent.
+ * <p>
+ * The world boundaries take part in the iterations as well: a body resting on the ground can't be pushed into it by
+ * the bodies stacked on top, otherwise the weight of a stack would never reach the ground.
+ */
+class ContactSolver {
+    private static final ThreadLocal<Contact> SCRATCH_CONTACT = ThreadLocal.withInitial(Contact::new);
+
+    // Relative speeds below this don't bounce, otherwise resting contacts would never stop bouncing
+    private static final double RESTITUTION_THRESHOLD = 10; // Pixels per second
+    // Overlap that is left alone, so resting contacts stay touching from one step to the next
+    private static final double PENETRATION_SLOP = 0.5; // Pixels
+    // How much of the remaining overlap is removed each step
+    private static final double POSITION_CORRECTION = 0.6;
+    // Cached impulses are only reused when the normal hasn't turned much
+    private static final double WARM_START_NORMAL_DOT = 0.95;
+
+    private final Narrowphase narrowphase;
+    private int iterations = 8;
+    private double worldWidth, worldHeight;
+    private double speedGained; // How much faster forces made bodies this step
+
+    // Per contact, by position in the grouped order of the island solver
+    private boolean[] touching = new boolean[64];
+    private double[] normalX = new double[64], normalY = new double[64];
+    private double[] mass = new double[64]; // 1 / (inverse mass A + inverse mass B)
+    private double[] friction = new double[64];
+    private double[] bounce = new double[64]; // Target separating speed from restitution
+    private double[] normalImpulse = new double[64], tangentImpulse = new double[64];
+
+    // Per body, by index: velocity the world boundaries have taken away so far this step
+    private double[] boundaryX = new double[64], boundaryY = new double[64];
+
+    // Impulses of the last step, keyed by the ids of the two bodies
+    private ManifoldCache previous = new ManifoldCache();
+    private ManifoldCache current = new ManifoldCache();
+
+    ContactSolver(Narrowphase narrowphase) {
+        this.narrowphase = narrowphase;
+    }
+
+    void setWorldSize(double worldWidth, double worldHeight) {
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+    }
+
+    int getIterations() {
+        return iterations;
+    }
+
+    void setIterations(int iterations) {
+        this.iterations = Math.max(1, iterations);
+    }
+
+    /**
+     * Make room for the contacts of a step
+     *
+     * @param speedGained Speed the uniform forces added to every body this step
+     */
+    void begin(int contactCount, int bodyCount, double speedGained) {
+        this.speedGained = speedGained;
+        if (boundaryX.length < bodyCount) {
+            int capacity = Math.max(bodyCount, boundaryX.length * 2);
+            boundaryX = new double[capacity];
+            boundaryY = new double[capacity];
+        } else {
+            Arrays.fill(boundaryX, 0, bodyCount, 0);
+            Arrays.fill(boundaryY, 0, bodyCount, 0);
+        }
+
+        if (touching.length < contactCount) {
+            int capacity = Math.max(contactCount, touching.length * 2);
+            touching = new boolean[capacity];
+            normalX = new double[capacity];
+            normalY = new double[capacity];
+            mass = new double[capacity];
+            friction = new double[capacity];
+            bounce = new double[capacity];
+            normalImpulse = new double[capacity];
+            tangentImpulse = new double[capacity];
+        }
+    }
+
+    /**
+     * Solve the velocities of one island
+     * Only touches the bodies of the given contacts, so islands can be solved in parallel
+     */
+    void solveVelocities(BodyStore store, IslandSolver pairs, int start, int end) {
+        Contact contact = SCRATCH_CONTACT.get();
+        double[] velocityX = store.velocityX, velocityY = store.velocityY;
+
+        // Set up every contact and apply the impulses remembered from the last step
+        for (int i = start; i < end; i++) {
+            int a = pairs.bodyA(i), b = pairs.bodyB(i);
+            touching[i] = narrowphase.collide(store, a, b, contact);
+            if (!touching[i]) continue;
+
+            double inverseMassA = inverseMass(store, a), inverseMassB = inverseMass(store, b);
+            double nx = contact.normalX, ny = contact.normalY;
+            normalX[i] = nx;
+            normalY[i] = ny;
+            mass[i] = 1 / (inverseMassA + inverseMassB);
+            friction[i] = Math.sqrt(store.friction[a] * store.friction[b]);
+
+            normalImpulse[i] = 0;
+            tangentImpulse[i] = 0;
+            bounce[i] = 0;
+            int slot = previous.find(pairKey(store, a, b));
+            if (slot < 0) {
+                // Only a fresh impact bounces, a contact that was already touching last step is resting
+                double normalSpeed = (velocityX[b] - velocityX[a]) * nx + (velocityY[b] - velocityY[a]) * ny;
+                double restitution = Math.max(store.restitution[a], store.restitution[b]);
+                bounce[i] = normalSpeed < 0 ? bounce(normalSpeed, restitution, speedGained) : 0;
+            } else {
+                // The cache keeps the normal pointing from the lower id to the higher one
+                double sign = store.id[a] < store.id[b] ? 1 : -1;
+                double dot = (previous.normalX[slot] * nx + previous.normalY[slot] * ny) * sign;
+                if (dot > WARM_START_NORMAL_DOT) {
+                    normalImpulse[i] = previous.normalImpulse[slot];
+                    tangentImpulse[i] = previous.tangentImpulse[slot];
+                    applyImpulse(store, a, b, inverseMassA, inverseMassB,
+                            nx * normalImpulse[i] - ny * tangentImpulse[i],
+                            ny * normalImpulse[i] + nx * tangentImpulse[i]);
+                    // The ground takes whatever the remembered impulse pushed into it
+                    constrainToWorld(store, a);
+                    constrainToWorld(store, b);
+                }
+            }
+        }
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            for (int i = start; i < end; i++) {
+                if (!touching[i]) continue;
+
+                int a = pairs.bodyA(i), b = pairs.bodyB(i);
+                double inverseMassA = inverseMass(store, a), inverseMassB = inverseMass(store, b);
+                double nx = normalX[i], ny = normalY[i];
+
+                // Normal: push apart until the bodies stop approaching (or bounce off), never pull together
+                double relativeX = velocityX[b] - velocityX[a];
+                double relativeY = velocityY[b] - velocityY[a];
+                double normalSpeed = relativeX * nx + relativeY * ny;
+                double impulse = mass[i] * (bounce[i] - normalSpeed);
+                double accumulated = Math.max(normalImpulse[i] + impulse, 0);
+                impulse = accumulated - normalImpulse[i];
+                normalImpulse[i] = accumulated;
+                applyImpulse(store, a, b, inverseMassA, inverseMassB, nx * impulse, ny * impulse);
+
+                // Friction: stop sliding, up to what the normal impulse allows
+                relativeX = velocityX[b] - velocityX[a];
+                relativeY = velocityY[b] - velocityY[a];
+                double tangentSpeed = -relativeX * ny + relativeY * nx;
+                double maxFriction = friction[i] * normalImpulse[i];
+                double frictionImpulse = -mass[i] * tangentSpeed;
+                accumulated = Math.max(-maxFriction, Math.min(maxFriction, tangentImpulse[i] + frictionImpulse));
+                frictionImpulse = accumulated - tangentImpulse[i];
+                tangentImpulse[i] = accumulated;
+                applyImpulse(store, a, b, inverseMassA, inverseMassB, -ny * frictionImpulse, nx * frictionImpulse);
+
+                constrainToWorld(store, a);
+                constrainToWorld(store, b);
+            }
+        }
+    }
+
+    /**
+     * Stop a body that touches a world boundary from moving any further into it
+     * <p>
+     * Like a contact, a boundary remembers how much it has pushed this step, so it can give some of it back when the
+     * bodies above pull the body away again, but never pulls the body into itself.
+     */
+    private void constrainToWorld(BodyStore store, int body) {
+        if (store.isStatic[body]) return;
+
+        double centerX = store.getCenterX(body), centerY = store.getCenterY(body);
+        double extentX = store.getExtentX(body), extentY = store.getExtentY(body);
+        if (centerY + extentY >= worldHeight - PENETRATION_SLOP) {
+            double pushed = Math.max(boundaryY[body] + store.velocityY[body], 0);
+            store.velocityY[body] -= pushed - boundaryY[body];
+            boundaryY[body] = pushed;
+        } else if (centerY - extentY <= PENETRATION_SLOP) {
+            double pushed = Math.min(boundaryY[body] + store.velocityY[body], 0);
+            store.velocityY[body] -= pushed - boundaryY[body];
+            boundaryY[body] = pushed;
+        }
+        if (centerX - extentX <= PENETRATION_SLOP) {
+            double pushed = Math.min(boundaryX[body] + store.velocityX[body], 0);
+            store.velocityX[body] -= pushed - boundaryX[body];
+            boundaryX[body] = pushed;
+        } else if (centerX + extentX >= worldWidth - PENETRATION_SLOP) {
+            double pushed = Math.max(boundaryX[body] + store.velocityX[body], 0);
+            store.velocityX[body] -= pushed - boundaryX[body];
+            boundaryX[body] = pushed;
+        }
+    }
+
+    /**
+     * Push apart bodies that still overlap after moving
+     * Only touches the bodies of the given contacts, so islands can be corrected in parallel
+     */
+    void correctPositions(BodyStore store, IslandSolver pairs, int start, int end) {
+        Contact contact = SCRATCH_CONTACT.get();
+        for (int i = start; i < end; i++) {
+            int a = pairs.bodyA(i), b = pairs.bodyB(i);
+            if (!narrowphase.collide(store, a, b, contact)) continue;
+
+            double correction = Math.max(contact.depth - PENETRATION_SLOP, 0) * POSITION_CORRECTION;
+            if (correction == 0) continue;
+
+            double inverseMassA = inverseMass(store, a), inverseMassB = inverseMass(store, b);
+            double push = correction / (inverseMassA + inverseMassB);
+            store.x[a] -= contact.normalX * push * inverseMassA;
+            store.y[a] -= contact.normalY * push * inverseMassA;
+            store.x[b] += contact.normalX * push * inverseMassB;
+            store.y[b] += contact.normalY * push * inverseMassB;
+        }
+    }
+
+    /**
+     * Remember the impulses of this step for warm starting the next one
+     * Runs on one thread, after every island is solved
+     */
+    void end(BodyStore store, IslandSolver pairs, int contactCount) {
+        ManifoldCache swap = previous;
+        previous = current;
+        current = swap;
+        current.clear();
+
+        // The new cache goes into previous, it's what the next step reads from
+        for (int i = 0; i < contactCount; i++) {
+            if (!touching[i]) continue;
+
+            int a = pairs.bodyA(i), b = pairs.bodyB(i);
+            double sign = store.id[a] < store.id[b] ? 1 : -1;
+            previous.put(pairKey(store, a, b), normalX[i] * sign, normalY[i] * sign,
+                    normalImpulse[i], tangentImpulse[i]);
+        }
+    }
+
+    /**
+     * @return Bytes {@link #writeSnapshot} needs for the impulses remembered from the last step
+     */
+    int getSnapshotSize() {
+        return 4 + previous.size * (8 + 4 * 8);
+    }
+
+    /**
+     * Write the impulses remembered from the last step, so a restored world warm starts exactly like the original
+     */
+    void writeSnapshot(ByteBuffer buffer) {
+        buffer.putInt(previous.size);
+        for (int k = 0; k < previous.size; k++) {
+            int slot = previous.usedSlots[k];
+            buffer.putLong(previous.keys[slot]);
+            buffer.putDouble(previous.normalX[slot]);
+            buffer.putDouble(previous.normalY[slot]);
+            buffer.putDouble(previous.normalImpulse[slot]);
+            buffer.putDouble(previous.tangentImpulse[slot]);
+        }
+    }
+
+    /**
+     * Replace the remembered impulses with those written by {@link #writeSnapshot}
+     */
+    void readSnapshot(ByteBuffer buffer) {
+        previous.clear();
+        int size = buffer.getInt();
+        for (int k = 0; k < size; k++) {
+            long key = buffer.getLong();
+            double normalX = buffer.getDouble();
+            double normalY = buffer.getDouble();
+            double normalImpulse = buffer.getDouble();
+            double tangentImpulse = buffer.getDouble();
+            previous.put(key, normalX, normalY, normalImpulse, tangentImpulse);
+        }
+    }
+
+    /**
+     * Take over the settings and the impulses remembered by another solver, so a forked world warm starts like the
+     * world it was forked from
+     */
+    void copyFrom(ContactSolver other) {
+        iterations = other.iterations;
+        previous.clear();
+        ManifoldCache source = other.previous;
+        for (int k = 0; k < source.size; k++) {
+            int slot = source.usedSlots[k];
+            previous.put(source.keys[slot], source.normalX[slot], source.normalY[slot],
+                    source.normalImpulse[slot], source.tangentImpulse[slot]);
+        }
+    }
+
+    /**
+     * Velocity after hitting something, slow hits don't bounce
+     * <p>
+     * Speed gained during the step of the impact doesn't count: forces are applied before contacts are solved, so
+     * otherwise every bounce would come back a little faster than it went, and a body resting under gravity would
+     * hop forever.
+     *
+     * @param velocity Velocity towards the other body or boundary
+     * @param speedGained Speed forces added this step
+     */
+    static double bounce(double velocity, double restitution, double speedGained) {
+        double speed = Math.abs(velocity) - speedGained;
+        return speed > RESTITUTION_THRESHOLD ? -Math.signum(velocity) * speed * restitution : 0;
+    }
+
+    private static void applyImpulse(BodyStore store, int a, int b, double inverseMassA, double inverseMassB,
+                                     double impulseX, double impulseY) {
+        store.velocityX[a] -= impulseX * inverseMassA;
+        store.velocityY[a] -= impulseY * inverseMassA;
+        store.velocityX[b] += impulseX * inverseMassB;
+        store.velocityY[b] += impulseY * inverseMassB;
+    }
+
+    private static double inverseMass(BodyStore store, int body) {
+        return store.isStatic[body] ? 0 : 1 / store.mass[body];
+    }
+
+    private static long pairKey(BodyStore store, int a, int b) {
+        int idA = store.id[a], idB = store.id[b];
+        return idA < idB ? ((long) idA << 32) | idB : ((long) idB << 32) | idA;
+    }
+
+    /**
+     * Open addressing map from a pair of body ids to the impulses of their contact
+     */
+    private static class ManifoldCache {
+        long[] keys = new long[128];
+        boolean[] used = new boolean[128];
+        double[] normalX = new double[128], normalY = new double[128];
+        double[] normalImpulse = new double[128], tangentImpulse = new double[128];
+        int[] usedSlots = new int[128];
+        int size;
+
+        void clear() {
+            for (int k = 0; k < size; k++) {
+                used[usedSlots[k]] = false;
+            }
+            size = 0;
+        }
+
+        /**
+         * @return The slot holding the key, or -1
+         */
+        int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) return slot;
+            }
+            return -1;
+        }
+
+        void put(long key, double normalX, double normalY, double normalImpulse, double tangentImpulse) {
+            // Keep the table at most half full so probe chains stay short
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (!used[slot]) {
+                used[slot] = true;
+                keys[slot] = key;
+                usedSlots[size++] = slot;
+            }
+            this.normalX[slot] = normalX;
+            this.normalY[slot] = normalY;
+            this.normalImpulse[slot] = normalImpulse;
+            this.tangentImpulse[slot] = tangentImpulse;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            double[] oldNormalX = normalX, oldNormalY = normalY;
+            double[] oldNormalImpulse = normalImpulse, oldTangentImpulse = tangentImpulse;
+            int[] oldUsed = usedSlots;
+            int oldSize = size;
+
+            int capacity = keys.length * 2;
+            keys = new long[capacity];
+            used = new boolean[capacity];
+            normalX = new double[capacity];
+            normalY = new double[capacity];
+            normalImpulse = new double[capacity];
+            tangentImpulse = new double[capacity];
+            usedSlots = Arrays.copyOf(usedSlots, capacity);
+            size = 0;
+            for (int k = 0; k < oldSize; k++) {
+                int slot = oldUsed[k];
+                put(oldKeys[slot], oldNormalX[slot], oldNormalY[slot], oldNormalImpulse[slot], oldTangentImpulse[slot]);
+            }
+        }
+
+        private static int hash(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+        }
+    }
+}
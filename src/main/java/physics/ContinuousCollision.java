@@ -0,0 +1,157 @@
+package physics;
+
+/**
+ * Stops fast bodies from passing through other bodies within a single step
+ * <p>
+ * A body marked as continuous that moves more than half its own size in a step is swept from where it started to
+ * where it ended up, as a moving box, against the boxes of the bodies near its path. If it would have hit one of them
+ * on the way, it is moved back to the moment of impact and bounces off, and the contact solver takes it from there on
+ * the next step. Every other body keeps the plain single step, so only fast movers pay for the extra work.
+ * <p>
+ * Runs after the positions have been integrated, on the thread calling update. There are only ever a few fast
+ * bodies, so this is cheap next to the rest of a step.
+ */
+class ContinuousCollision {
+    private final Broadphase.QueryCallback candidateHandler = this::sweepAgainst;
+
+    // The body being swept, and the earliest hit found for it so far
+    private BodyStore store;
+    private int body;
+    private double moveX, moveY; // Movement over the whole step
+    private double hitTime;
+    private int hitBody;
+    private double hitNormalX, hitNormalY;
+
+    /**
+     * Sweep every fast continuous body of a store
+     *
+     * @param broadphase Broadphase that found the pairs of this step, it's asked for the bodies near each path
+     */
+    void run(BodyStore store, Broadphase broadphase) {
+        this.store = store;
+        boolean[] continuous = store.continuous;
+
+        for (int i = 0; i < store.count; i++) {
+            if (!continuous[i] || store.isResting(i)) continue;
+
+            // Slower than this, the body can't skip past anything it isn't already touching
+            double moveX = store.x[i] - store.previousX[i];
+            double moveY = store.y[i] - store.previousY[i];
+            double threshold = Math.min(store.width[i], store.height[i]) / 2;
+            if (moveX * moveX + moveY * moveY <= threshold * threshold) continue;
+
+            sweep(i, moveX, moveY, broadphase);
+        }
+        this.store = null;
+    }
+
+    private void sweep(int body, double moveX, double moveY, Broadphase broadphase) {
+        this.body = body;
+        this.moveX = moveX;
+        this.moveY = moveY;
+        hitTime = Double.MAX_VALUE;
+        hitBody = -1;
+
+        // Everything near the path, from the box where the body started to the box where it ended up
+        double extentX = store.getExtentX(body), extentY = store.getExtentY(body);
+        double startX = store.previousX[body] + store.width[body] / 2;
+        double startY = store.previousY[body] + store.height[body] / 2;
+        broadphase.query(store,
+                Math.min(startX, startX + moveX) - extentX, Math.min(startY, startY + moveY) - extentY,
+                Math.max(startX, startX + moveX) + extentX, Math.max(startY, startY + moveY) + extentY,
+                candidateHandler);
+        if (hitBody < 0) return;
+
+        // Back to where it was when it hit
+        store.x[body] = store.previousX[body] + moveX * hitTime;
+        store.y[body] = store.previousY[body] + moveY * hitTime;
+
+        int other = hitBody;
+        if (store.sleeping[other]) {
+            store.wake(other);
+        }
+        respond(body, other, hitNormalX, hitNormalY);
+    }
+
+    /**
+     * Swept box test of the current body against one candidate, both moving in a straight line over the step
+     */
+    private void sweepAgainst(int other) {
+        if (other == body) return;
+
+        // Work with the other body at rest, and this one moving by the difference
+        double relativeX = moveX - (store.x[other] - store.previousX[other]);
+        double relativeY = moveY - (store.y[other] - store.previousY[other]);
+
+        double extentX = store.getExtentX(body), extentY = store.getExtentY(body);
+        double otherExtentX = store.getExtentX(other), otherExtentY = store.getExtentY(other);
+        // Start boxes, grown by the other's size so the moving body shrinks to a point
+        double startX = store.previousX[body] + store.width[body] / 2;
+        double startY = store.previousY[body] + store.height[body] / 2;
+        double minX = store.previousX[other] + store.width[other] / 2 - otherExtentX - extentX;
+        double maxX = store.previousX[other] + store.width[other] / 2 + otherExtentX + extentX;
+        double minY = store.previousY[other] + store.height[other] / 2 - otherExtentY - extentY;
+        double maxY = store.previousY[other] + store.height[other] / 2 + otherExtentY + extentY;
+
+        // Bodies that already touched at the start are the contact solver's business
+        if (startX > minX && startX < maxX && startY > minY && startY < maxY) return;
+
+        double entryX, exitX, entryY, exitY;
+        if (relativeX == 0) {
+            if (startX <= minX || startX >= maxX) return;
+            entryX = Double.NEGATIVE_INFINITY;
+            exitX = Double.POSITIVE_INFINITY;
+        } else if (relativeX > 0) {
+            entryX = (minX - startX) / relativeX;
+            exitX = (maxX - startX) / relativeX;
+        } else {
+            entryX = (maxX - startX) / relativeX;
+            exitX = (minX - startX) / relativeX;
+        }
+        if (relativeY == 0) {
+            if (startY <= minY || startY >= maxY) return;
+            entryY = Double.NEGATIVE_INFINITY;
+            exitY = Double.POSITIVE_INFINITY;
+        } else if (relativeY > 0) {
+            entryY = (minY - startY) / relativeY;
+            exitY = (maxY - startY) / relativeY;
+        } else {
+            entryY = (maxY - startY) / relativeY;
+            exitY = (minY - startY) / relativeY;
+        }
+
+        double entry = Math.max(entryX, entryY);
+        double exit = Math.min(exitX, exitY);
+        if (entry > exit || entry < 0 || entry > 1 || entry >= hitTime) return;
+
+        hitTime = entry;
+        hitBody = other;
+        // The axis entered last is the face that was hit, the normal points from the body to the other
+        if (entryX > entryY) {
+            hitNormalX = relativeX > 0 ? 1 : -1;
+            hitNormalY = 0;
+        } else {
+            hitNormalX = 0;
+            hitNormalY = relativeY > 0 ? 1 : -1;
+        }
+    }
+
+    /**
+     * Bounce the two bodies off each other along the normal of the hit
+     */
+    private void respond(int a, int b, double normalX, double normalY) {
+        double inverseMassA = store.isStatic[a] ? 0 : 1 / store.mass[a];
+        double inverseMassB = store.isStatic[b] ? 0 : 1 / store.mass[b];
+        double normalSpeed = (store.velocityX[b] - store.velocityX[a]) * normalX
+                + (store.velocityY[b] - store.velocityY[a]) * normalY;
+        if (normalSpeed >= 0) return;
+
+        double restitution = Math.max(store.restitution[a], store.restitution[b]);
+        double bounce = ContactSolver.bounce(normalSpeed, restitution, 0);
+        double impulse = (bounce - normalSpeed) / (inverseMassA + inverseMassB);
+        store.velocityX[a] -= normalX * impulse * inverseMassA;
+        store.velocityY[a] -= normalY * impulse * inverseMassA;
+        store.velocityX[b] += normalX * impulse * inverseMassB;
+        store.velocityY[b] += normalY * impulse * inverseMassB;
+    }
+}
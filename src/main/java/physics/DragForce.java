@@ -0,0 +1,34 @@
+package physics;
+
+/**
+ * Drag force - applies resistance proportional to velocity
+ */
+class DragForce extends Force {
+    private double dragCoefficient;
+
+    public DragForce(double magnitude, double dragCoefficient) {
+        super(magnitude);
+        this.dragCoefficient = dragCoefficient;
+    }
+
+    @Override
+    public void apply(BodyStore store, int from, int to) {
+        if (!active) return;
+
+        double[] velocityX = store.velocityX, velocityY = store.velocityY;
+        double[] accelerationX = store.accelerationX, accelerationY = store.accelerationY;
+        double[] mass = store.mass;
+        boolean[] isStatic = store.isStatic;
+        for (int i = from; i < to; i++) {
+            if (isStatic[i]) continue;
+
+            double speed = Math.sqrt(velocityX[i] * velocityX[i] + velocityY[i] * velocityY[i]);
+            if (speed == 0) continue;
+
+            // Magnitude is coefficient * speed², pointing against the velocity
+            double scale = dragCoefficient * speed / mass[i];
+            accelerationX[i] -= velocityX[i] * scale;
+            accelerationY[i] -= velocityY[i] * scale;
+        }
+    }
+}
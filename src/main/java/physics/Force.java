@@ -1,131 +1,60 @@
 package physics;
-
 /**
  * Represents a force that can be applied to rigid bodies
+ * <p>
+ * Forces don't return anything, they add their acceleration straight into the bodies they act on, a whole range of
+ * bodies at a time
  */
 public abstract class Force {
     protected double magnitude;
     protected boolean active;
-    
+
     public Force(double magnitude) {
         this.magnitude = magnitude;
         this.active = true;
     }
-    
+
     public double getMagnitude() { return magnitude; }
     public void setMagnitude(double magnitude) { this.magnitude = magnitude; }
     public boolean isActive() { return active; }
     public void setActive(boolean active) { this.active = active; }
-    
+
     /**
-     * Calculate the force components for a given rigid body
-     * @param body The rigid body to calculate force for
-     * @return Array with [forceX, forceY]
+     * Add the acceleration caused by this force to a range of bodies
+     * Static bodies must be skipped, and an inactive force must not touch anything
+     * @param store Store holding the bodies
+     * @param from First body to apply the force to
+     * @param to One past the last body to apply the force to
      */
-    public abstract double[] calculate(RigidBody body);
-}
+    public abstract void apply(BodyStore store, int from, int to);
 
-/**
- * Gravity force - applies constant downward force
- */
-class GravityForce extends Force {
-    private double gravityX, gravityY;
-    
-    public GravityForce(double magnitude) {
-        super(magnitude);
-        this.gravityX = 0;
-        this.gravityY = magnitude;
-    }
-    
-    public GravityForce(double gravityX, double gravityY) {
-        super(Math.sqrt(gravityX * gravityX + gravityY * gravityY));
-        this.gravityX = gravityX;
-        this.gravityY = gravityY;
-    }
-    
-    @Override
-    public double[] calculate(RigidBody body) {
-        if (!active || body.isStatic()) {
-            return new double[]{0, 0};
-        }
-        return new double[]{gravityX * body.getMass(), gravityY * body.getMass()};
-    }
-    
     /**
-     * Update gravity values
+     * Add the acceleration caused by this force to a single body
      */
-    public void setGravity(double gravityX, double gravityY) {
-        this.gravityX = gravityX;
-        this.gravityY = gravityY;
-        this.magnitude = Math.sqrt(gravityX * gravityX + gravityY * gravityY);
+    public void apply(RigidBody body) {
+        apply(body.store, body.index, body.index + 1);
     }
-}
 
-/**
- * Drag force - applies resistance proportional to velocity
- */
-class DragForce extends Force {
-    private double dragCoefficient;
-    
-    public DragForce(double magnitude, double dragCoefficient) {
-        super(magnitude);
-        this.dragCoefficient = dragCoefficient;
-    }
-    
-    @Override
-    public double[] calculate(RigidBody body) {
-        if (!active || body.isStatic()) {
-            return new double[]{0, 0};
-        }
-        
-        double velocityX = body.getVelocityX();
-        double velocityY = body.getVelocityY();
-        double speed = Math.sqrt(velocityX * velocityX + velocityY * velocityY);
-        
-        if (speed == 0) {
-            return new double[]{0, 0};
-        }
-        
-        double dragMagnitude = dragCoefficient * speed * speed;
-        double dragX = -(velocityX / speed) * dragMagnitude;
-        double dragY = -(velocityY / speed) * dragMagnitude;
-        
-        return new double[]{dragX, dragY};
+    /**
+     * A uniform force accelerates every body by the same amount, whatever its mass, position or velocity
+     * The world doesn't call apply for those, it adds their acceleration once while integrating
+     * @return Whether the force is fully described by getAccelerationX and getAccelerationY
+     */
+    public boolean isUniform() {
+        return false;
     }
-}
 
-/**
- * Spring force - applies force towards a target position
- */
-class SpringForce extends Force {
-    private double targetX, targetY;
-    private double springConstant;
-    private double damping;
-    
-    public SpringForce(double magnitude, double targetX, double targetY, double springConstant, double damping) {
-        super(magnitude);
-        this.targetX = targetX;
-        this.targetY = targetY;
-        this.springConstant = springConstant;
-        this.damping = damping;
+    /**
+     * X acceleration of a uniform force
+     */
+    public double getAccelerationX() {
+        return 0;
     }
-    
-    @Override
-    public double[] calculate(RigidBody body) {
-        if (!active || body.isStatic()) {
-            return new double[]{0, 0};
-        }
-        
-        double displacementX = targetX - body.getCenterX();
-        double displacementY = targetY - body.getCenterY();
-        
-        double springForceX = displacementX * springConstant;
-        double springForceY = displacementY * springConstant;
-        
-        // Add damping
-        double dampingForceX = -body.getVelocityX() * damping;
-        double dampingForceY = -body.getVelocityY() * damping;
-        
-        return new double[]{springForceX + dampingForceX, springForceY + dampingForceY};
+
+    /**
+     * Y acceleration of a uniform force
+     */
+    public double getAccelerationY() {
+        return 0;
     }
 }
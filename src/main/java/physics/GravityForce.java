@@ -0,0 +1,58 @@
+package physics;
+
+/**
+ * Gravity force - applies constant downward force
+ */
+class GravityForce extends Force {
+    private double gravityX, gravityY;
+
+    public GravityForce(double magnitude) {
+        super(magnitude);
+        this.gravityX = 0;
+        this.gravityY = magnitude;
+    }
+
+    public GravityForce(double gravityX, double gravityY) {
+        super(Math.sqrt(gravityX * gravityX + gravityY * gravityY));
+        this.gravityX = gravityX;
+        this.gravityY = gravityY;
+    }
+
+    @Override
+    public void apply(BodyStore store, int from, int to) {
+        if (!active) return;
+
+        // Gravity pulls with a force proportional to mass, so the acceleration is the same for every body
+        double[] accelerationX = store.accelerationX, accelerationY = store.accelerationY;
+        boolean[] isStatic = store.isStatic;
+        for (int i = from; i < to; i++) {
+            if (isStatic[i]) continue;
+            accelerationX[i] += gravityX;
+            accelerationY[i] += gravityY;
+        }
+    }
+
+    @Override
+    public boolean isUniform() {
+        return true;
+    }
+
+    @Override
+    public double getAccelerationX() {
+        return gravityX;
+    }
+
+    @Override
+    public double getAccelerationY() {
+        return gravityY;
+    }
+
+    /**
+     * Update gravity values
+     */
+    public void setGravity(double gravityX, double gravityY) {
+        this.gravityX = gravityX;
+        this.gravityY = gravityY;
+        this.magnitude = Math.sqrt(gravityX * gravityX + gravityY * gravityY);
+    }
+}
@@ -0,0 +1,51 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * Map from body id to store index, kept between uses so it stops allocating once it has grown to fit
+ * <p>
+ * Ids start at 1, so 0 marks an empty slot.
+ */
+class IdIndex {
+    private int[] ids = new int[128];
+    private int[] indices = new int[128];
+
+    /**
+     * Empty the map, and make room for the given number of bodies
+     */
+    void clear(int count) {
+        // Keep the table at most half full so probe chains stay short
+        if (count * 2 > ids.length) {
+            int capacity = Integer.highestOneBit(count * 2 - 1) << 1;
+            ids = new int[capacity];
+            indices = new int[capacity];
+        } else {
+            Arrays.fill(ids, 0);
+        }
+    }
+
+    void put(int id, int index) {
+        int slot = findSlot(id);
+        ids[slot] = id;
+        indices[slot] = index;
+    }
+
+    /**
+     * @return The index stored for the id, or -1
+     */
+    int get(int id) {
+        int slot = findSlot(id);
+        return ids[slot] == id ? indices[slot] : -1;
+    }
+
+    private int findSlot(int id) {
+        int mask = ids.length - 1;
+        int hash = id * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (ids[slot] != 0 && ids[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
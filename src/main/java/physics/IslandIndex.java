@@ -0,0 +1,80 @@
+package physics;
+
+/**
+ * Map from sleeping island id to the store indices of the bodies in it, so waking an island only visits its bodies
+ * <p>
+ * Built from the store in two passes, counting and then placing, and kept between uses so it stops allocating once
+ * it has grown to fit. Bodies that woke up since are still listed, so callers check that a body is still asleep in
+ * the island before waking it.
+ */
+class IslandIndex {
+    private final IdIndex slots = new IdIndex(); // Island id to island slot
+    private int[] start = new int[64]; // Per island slot, where its bodies start in members, one more at the end
+    private int[] next = new int[64]; // Per island slot, where the next body goes while building
+    private int[] members = new int[64];
+
+    /**
+     * Index every sleeping body of a store by its island
+     */
+    void build(BodyStore store) {
+        int count = store.count;
+        boolean[] sleeping = store.sleeping;
+        int[] island = store.island;
+        slots.clear(count);
+        if (start.length < count + 1) {
+            start = new int[Math.max(count + 1, start.length * 2)];
+            next = new int[start.length];
+            members = new int[start.length];
+        }
+
+        int islandCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (!sleeping[i] || island[i] <= 0) continue;
+
+            int slot = slots.get(island[i]);
+            if (slot < 0) {
+                slot = islandCount++;
+                slots.put(island[i], slot);
+                next[slot] = 0;
+            }
+            next[slot]++;
+        }
+        int offset = 0;
+        for (int slot = 0; slot < islandCount; slot++) {
+            start[slot] = offset;
+            offset += next[slot];
+        }
+        start[islandCount] = offset;
+        System.arraycopy(start, 0, next, 0, islandCount);
+        for (int i = 0; i < count; i++) {
+            if (sleeping[i] && island[i] > 0) {
+                members[next[slots.get(island[i])]++] = i;
+            }
+        }
+    }
+
+    /**
+     * @return The slot of an island, for {@link #getFrom} and {@link #getTo}, or -1 if no body was asleep in it
+     */
+    int find(int island) {
+        return island > 0 ? slots.get(island) : -1;
+    }
+
+    /**
+     * @return Position in {@link #getMember} of the first body of the island in a slot
+     */
+    int getFrom(int slot) {
+        return start[slot];
+    }
+
+    /**
+     * @return Position in {@link #getMember} after the last body of the island in a slot
+     */
+    int getTo(int slot) {
+        return start[slot + 1];
+    }
+
+    int getMember(int position) {
+        return members[position];
+    }
+}
@@ -0,0 +1,132 @@
+package physics;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Collects the touching pairs of a step and hands them out island by island
+ * <p>
+ * Two islands never share a body that can move, so they can be solved on different threads without any locking, and
+ * the result doesn't depend on how many threads there are. Inside an island the pairs are handled one after the
+ * other, in an order that only depends on the pairs themselves when the world is deterministic.
+ */
+class IslandSolver {
+    /**
+     * Works on the pairs of a run of islands, must only write to the bodies of those pairs
+     */
+    interface IslandAction {
+        /**
+         * @param start First pair, in grouped order
+         * @param end One past the last pair
+         */
+        void run(int start, int end);
+    }
+
+    // Touching pairs, packed as (a << 32) | b
+    private long[] pairs = new long[64];
+    private int pairCount;
+
+    // Pairs sorted by island, packed as (island root << 32) | pair index
+    private long[] grouped = new long[64];
+    // Where each island starts in grouped, with one extra entry marking the end of the last island
+    private int[] islandStart = new int[64];
+    private int islandCount;
+
+    private IslandAction action;
+    private final RangeTask.Action runIslands = this::runIslands;
+
+    void clear() {
+        pairCount = 0;
+        islandCount = 0;
+    }
+
+    void add(int a, int b) {
+        if (pairCount == pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairCount * 2);
+        }
+        pairs[pairCount++] = ((long) a << 32) | b;
+    }
+
+    int getPairCount() {
+        return pairCount;
+    }
+
+    int getIslandCount() {
+        return islandCount;
+    }
+
+    /**
+     * First body of a pair, by its position in grouped order
+     */
+    int bodyA(int pair) {
+        return (int) (pairs[(int) grouped[pair]] >>> 32);
+    }
+
+    /**
+     * Second body of a pair, by its position in grouped order
+     */
+    int bodyB(int pair) {
+        return (int) pairs[(int) grouped[pair]];
+    }
+
+    /**
+     * Sort the collected pairs by island
+     *
+     * @param islands Islands built from the collected pairs
+     * @param store Store holding the bodies
+     * @param deterministic Put the pairs in a canonical order first, so the result doesn't depend on the order the
+     *                      broadphase found them in
+     */
+    void group(Islands islands, BodyStore store, boolean deterministic) {
+        if (deterministic) {
+            Arrays.sort(pairs, 0, pairCount);
+        }
+
+        // Group the pairs by island, keeping their order inside each island
+        if (grouped.length < pairs.length) {
+            grouped = new long[pairs.length];
+        }
+        for (int i = 0; i < pairCount; i++) {
+            int a = (int) (pairs[i] >>> 32);
+            int b = (int) pairs[i];
+            // Static bodies are in no island, so look at the other one
+            int root = islands.find(store.isStatic[a] ? b : a);
+            grouped[i] = ((long) root << 32) | i;
+        }
+        Arrays.sort(grouped, 0, pairCount);
+
+        islandCount = 0;
+        long previousRoot = -1;
+        for (int i = 0; i < pairCount; i++) {
+            long root = grouped[i] >>> 32;
+            if (root != previousRoot) {
+                if (islandCount + 1 >= islandStart.length) {
+                    islandStart = Arrays.copyOf(islandStart, islandStart.length * 2);
+                }
+                islandStart[islandCount++] = i;
+                previousRoot = root;
+            }
+        }
+        islandStart[islandCount] = pairCount;
+    }
+
+    /**
+     * Run an action on every island
+     *
+     * @param pool Pool to run islands on, or null to run them on the calling thread
+     */
+    void forEachIsland(ForkJoinPool pool, IslandAction action) {
+        if (islandCount == 0) return;
+
+        this.action = action;
+        int chunkSize = pool == null ? islandCount : Math.max(1, islandCount / (pool.getParallelism() * 4));
+        RangeTask.run(pool, runIslands, 0, islandCount, chunkSize);
+        this.action = null;
+    }
+
+    private void runIslands(int from, int to) {
+        for (int island = from; island < to; island++) {
+            action.run(islandStart[island], islandStart[island + 1]);
+        }
+    }
+}
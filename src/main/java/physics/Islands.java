@@ -0,0 +1,51 @@
+package physics;
+
+/**
+ * Groups bodies that touch each other, directly or through other bodies, into islands
+ * <p>
+ * This is a union-find over store indices. It is rebuilt every step from the contacts found in that step. Static
+ * bodies never join an island, otherwise everything standing on the same static floor would end up in one island.
+ */
+class Islands {
+    private int[] parent = new int[64];
+
+    /**
+     * Start over with every body in an island of its own
+     */
+    void reset(int count) {
+        if (parent.length < count) {
+            parent = new int[Math.max(count, parent.length * 2)];
+        }
+        for (int i = 0; i < count; i++) {
+            parent[i] = i;
+        }
+    }
+
+    /**
+     * @return The body representing the island the given body is in
+     */
+    int find(int body) {
+        while (parent[body] != body) {
+            // Path halving keeps the trees flat
+            parent[body] = parent[parent[body]];
+            body = parent[body];
+        }
+        return body;
+    }
+
+    /**
+     * Merge the islands of two touching bodies
+     */
+    void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) return;
+
+        // The lower index becomes the root, so the result doesn't depend on the order of the contacts
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else {
+            parent[rootA] = rootB;
+        }
+    }
+}
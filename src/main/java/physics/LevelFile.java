@@ -0,0 +1,138 @@
+package physics;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A level saved as the columns of its bodies, loaded by copying each column into a {@link PhysicsWorld} as a whole
+ * <p>
+ * The file starts with a header: a magic number, the version, the number of bodies and the size of the world. Then
+ * comes one column after the other, each holding one property of every body: x, y, width, height, mass, restitution,
+ * friction and angle as doubles, the material and the island as ints, the shape and the flags as bytes. Bodies that
+ * share an island start asleep together, island 0 starts awake. Everything is little endian, the order of the
+ * machines this runs on, and the double columns start 8 byte aligned, so loading a column is one copy out of the
+ * mapped file, without looking at the bodies one by one.
+ * <p>
+ * Opening a level maps the file, reads the header and checks the shapes, so the world can be sized before the bodies
+ * are added.
+ */
+public final class LevelFile {
+    static final int MAGIC = 0x4C474C56; // "LGLV"
+    static final int VERSION = 1;
+    static final byte STATIC = 1, CONTINUOUS = 2;
+    // Magic, version, body count and a spare int, then the world width and height
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8 + 8;
+    // Bytes per body: 8 doubles, the material, the island, the shape and the flags
+    private static final int BYTES_PER_BODY = 8 * 8 + 4 + 4 + 1 + 1;
+
+    private final MappedByteBuffer level;
+    private final int bodyCount;
+    private final double worldWidth, worldHeight;
+
+    private LevelFile(MappedByteBuffer level, int bodyCount, double worldWidth, double worldHeight) {
+        this.level = level;
+        this.bodyCount = bodyCount;
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+    }
+
+    /**
+     * Map a level file, read its header and check that every shape is known
+     */
+    public static LevelFile open(Path file) throws IOException {
+        MappedByteBuffer level;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Level file too large to map: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            level = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        level.order(ByteOrder.LITTLE_ENDIAN);
+        if (level.remaining() < HEADER_BYTES || level.getInt() != MAGIC) {
+            throw new IOException("Not a level file: " + file);
+        }
+        int version = level.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported level file version " + version + ": " + file);
+        }
+        int bodyCount = level.getInt();
+        level.getInt();
+        double worldWidth = level.getDouble();
+        double worldHeight = level.getDouble();
+        if (bodyCount < 0 || level.capacity() != getFileSize(bodyCount)) {
+            throw new IOException("Level file doesn't hold " + bodyCount + " bodies: " + file);
+        }
+        // Shapes index ShapeType, a broken file or one from a newer version would only fail once stepped
+        int shapes = HEADER_BYTES + bodyCount * (8 * 8 + 4 + 4);
+        int shapeCount = ShapeType.values().length;
+        for (int i = shapes; i < shapes + bodyCount; i++) {
+            if ((level.get(i) & 0xFF) >= shapeCount) {
+                throw new IOException("Unknown shape " + (level.get(i) & 0xFF) + " in level file: " + file);
+            }
+        }
+        return new LevelFile(level, bodyCount, worldWidth, worldHeight);
+    }
+
+    /**
+     * Write every body of a store to a level file, replacing it if it exists
+     * Bodies that are asleep stay asleep together in the level, everything else about how they move is left out.
+     */
+    public static void write(Path file, BodyStore store, double worldWidth, double worldHeight) throws IOException {
+        long size = getFileSize(store.count);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many bodies for one level file: " + store.count);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer level = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            level.order(ByteOrder.LITTLE_ENDIAN);
+            level.putInt(MAGIC);
+            level.putInt(VERSION);
+            level.putInt(store.count);
+            level.putInt(0);
+            level.putDouble(worldWidth);
+            level.putDouble(worldHeight);
+            store.writeLevel(level);
+            level.force();
+        }
+    }
+
+    /**
+     * Add every body of the level to a world, after the bodies it already has
+     * The bodies get no handles, {@link BodyStore#handle} makes them when they are needed.
+     *
+     * @return Index of the first body added, the others follow it in the order of the file
+     */
+    public int addTo(PhysicsWorld world) {
+        return world.getBodyStore().readLevel(level.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+                .position(HEADER_BYTES), bodyCount);
+    }
+
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    public double getWorldWidth() {
+        return worldWidth;
+    }
+
+    public double getWorldHeight() {
+        return worldHeight;
+    }
+
+    /**
+     * @return Bytes the columns of some bodies take up in a level file
+     */
+    static long columnBytes(int bodies) {
+        return (long) bodies * BYTES_PER_BODY;
+    }
+
+    private static long getFileSize(int bodies) {
+        return HEADER_BYTES + columnBytes(bodies);
+    }
+}
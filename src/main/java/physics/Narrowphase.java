@@ -0,0 +1,205 @@
+package physics;
+
+/**
+ * The exact collision test that runs on the pairs found by the broadphase
+ * <p>
+ * Tests are looked up in a table indexed by the shape of both bodies. Every test only reads the primitive arrays of a
+ * {@link BodyStore} and writes its result into a reused {@link Contact}, so no objects are created while testing pairs.
+ */
+public class Narrowphase {
+    private static final byte ORIENTED = (byte) ShapeType.ORIENTED_BOX.ordinal();
+
+    /**
+     * A collision test for one combination of shapes
+     */
+    public interface ContactTest {
+        /**
+         * @param storeA Store holding the first body
+         * @param a The first body, its shape is the first shape the test was registered for
+         * @param storeB Store holding the second body, the same as storeA for bodies in one world
+         * @param b The second body
+         * @param contact Receives the normal (from A towards B) and the depth when the bodies touch
+         * @return Whether the bodies overlap or touch
+         */
+        boolean test(BodyStore storeA, int a, BodyStore storeB, int b, Contact contact);
+    }
+
+    private final ContactTest[][] tests;
+
+    public Narrowphase() {
+        int shapeCount = ShapeType.values().length;
+        this.tests = new ContactTest[shapeCount][shapeCount];
+
+        register(ShapeType.AABB, ShapeType.AABB, Narrowphase::aabbAabb);
+        register(ShapeType.CIRCLE, ShapeType.CIRCLE, Narrowphase::circleCircle);
+        register(ShapeType.AABB, ShapeType.CIRCLE, Narrowphase::boxCircle);
+        register(ShapeType.ORIENTED_BOX, ShapeType.CIRCLE, Narrowphase::boxCircle);
+        register(ShapeType.ORIENTED_BOX, ShapeType.ORIENTED_BOX, Narrowphase::boxBox);
+        register(ShapeType.ORIENTED_BOX, ShapeType.AABB, Narrowphase::boxBox);
+    }
+
+    /**
+     * Set the test used for a combination of shapes
+     * The mirrored combination is filled in as well, with the normal flipped
+     */
+    public void register(ShapeType shapeA, ShapeType shapeB, ContactTest test) {
+        tests[shapeA.ordinal()][shapeB.ordinal()] = test;
+        if (shapeA != shapeB) {
+            tests[shapeB.ordinal()][shapeA.ordinal()] = (storeA, a, storeB, b, contact) -> {
+                if (!test.test(storeB, b, storeA, a, contact)) return false;
+                contact.normalX = -contact.normalX;
+                contact.normalY = -contact.normalY;
+                return true;
+            };
+        }
+    }
+
+    /**
+     * Test two bodies against each other
+     *
+     * @param contact Receives the normal (from A towards B) and the depth when the bodies touch
+     * @return Whether the bodies overlap or touch
+     */
+    public boolean collide(BodyStore store, int a, int b, Contact contact) {
+        return collide(store, a, store, b, contact);
+    }
+
+    /**
+     * Test two bodies that may live in different stores against each other
+     */
+    public boolean collide(BodyStore storeA, int a, BodyStore storeB, int b, Contact contact) {
+        ContactTest test = tests[storeA.shape[a]][storeB.shape[b]];
+        if (test == null) {
+            throw new IllegalStateException("No contact test for " + storeA.getShape(a) + " and " + storeB.getShape(b));
+        }
+        return test.test(storeA, a, storeB, b, contact);
+    }
+
+    /**
+     * Two axis aligned boxes, separated along the axis with the least overlap
+     */
+    static boolean aabbAabb(BodyStore storeA, int a, BodyStore storeB, int b, Contact contact) {
+        double dx = storeB.getCenterX(b) - storeA.getCenterX(a);
+        double overlapX = (storeA.width[a] + storeB.width[b]) * 0.5 - Math.abs(dx);
+        if (overlapX < 0) return false;
+
+        double dy = storeB.getCenterY(b) - storeA.getCenterY(a);
+        double overlapY = (storeA.height[a] + storeB.height[b]) * 0.5 - Math.abs(dy);
+        if (overlapY < 0) return false;
+
+        if (overlapX < overlapY) {
+            contact.set(dx < 0 ? -1 : 1, 0, overlapX);
+        } else {
+            contact.set(0, dy < 0 ? -1 : 1, overlapY);
+        }
+        return true;
+    }
+
+    static boolean circleCircle(BodyStore storeA, int a, BodyStore storeB, int b, Contact contact) {
+        double dx = storeB.getCenterX(b) - storeA.getCenterX(a);
+        double dy = storeB.getCenterY(b) - storeA.getCenterY(a);
+        double radius = storeA.getRadius(a) + storeB.getRadius(b);
+        double distanceSquared = dx * dx + dy * dy;
+        if (distanceSquared > radius * radius) return false;
+
+        double distance = Math.sqrt(distanceSquared);
+        if (distance == 0) {
+            // Same center, any direction works
+            contact.set(0, 1, radius);
+        } else {
+            contact.set(dx / distance, dy / distance, radius - distance);
+        }
+        return true;
+    }
+
+    /**
+     * A box (axis aligned or oriented) against a circle
+     * The circle center is moved into the box's local frame, where the box is axis aligned
+     */
+    static boolean boxCircle(BodyStore boxStore, int box, BodyStore circleStore, int circle, Contact contact) {
+        double cos = boxStore.shape[box] == ORIENTED ? boxStore.cos[box] : 1;
+        double sin = boxStore.shape[box] == ORIENTED ? boxStore.sin[box] : 0;
+        double halfWidth = boxStore.width[box] * 0.5;
+        double halfHeight = boxStore.height[box] * 0.5;
+        double radius = circleStore.getRadius(circle);
+
+        double dx = circleStore.getCenterX(circle) - boxStore.getCenterX(box);
+        double dy = circleStore.getCenterY(circle) - boxStore.getCenterY(box);
+        double localX = dx * cos + dy * sin;
+        double localY = -dx * sin + dy * cos;
+
+        double normalX, normalY, depth;
+        if (Math.abs(localX) <= halfWidth && Math.abs(localY) <= halfHeight) {
+            // Circle center is inside the box, push out through the closest side
+            double insideX = halfWidth - Math.abs(localX);
+            double insideY = halfHeight - Math.abs(localY);
+            if (insideX < insideY) {
+                normalX = localX < 0 ? -1 : 1;
+                normalY = 0;
+                depth = insideX + radius;
+            } else {
+                normalX = 0;
+                normalY = localY < 0 ? -1 : 1;
+                depth = insideY + radius;
+            }
+        } else {
+            double offsetX = localX - Math.max(-halfWidth, Math.min(halfWidth, localX));
+            double offsetY = localY - Math.max(-halfHeight, Math.min(halfHeight, localY));
+            double distanceSquared = offsetX * offsetX + offsetY * offsetY;
+            if (distanceSquared > radius * radius) return false;
+
+            double distance = Math.sqrt(distanceSquared);
+            normalX = offsetX / distance;
+            normalY = offsetY / distance;
+            depth = radius - distance;
+        }
+
+        // Back to world space
+        contact.set(normalX * cos - normalY * sin, normalX * sin + normalY * cos, depth);
+        return true;
+    }
+
+    /**
+     * Two boxes, either of them may be oriented
+     * Separating axis test on the two edge directions of each box
+     */
+    static boolean boxBox(BodyStore storeA, int a, BodyStore storeB, int b, Contact contact) {
+        double cosA = storeA.shape[a] == ORIENTED ? storeA.cos[a] : 1;
+        double sinA = storeA.shape[a] == ORIENTED ? storeA.sin[a] : 0;
+        double cosB = storeB.shape[b] == ORIENTED ? storeB.cos[b] : 1;
+        double sinB = storeB.shape[b] == ORIENTED ? storeB.sin[b] : 0;
+        double halfWidthA = storeA.width[a] * 0.5, halfHeightA = storeA.height[a] * 0.5;
+        double halfWidthB = storeB.width[b] * 0.5, halfHeightB = storeB.height[b] * 0.5;
+        double dx = storeB.getCenterX(b) - storeA.getCenterX(a);
+        double dy = storeB.getCenterY(b) - storeA.getCenterY(a);
+
+        double bestDepth = Double.MAX_VALUE;
+        double bestX = 0, bestY = 0;
+        for (int i = 0; i < 4; i++) {
+            double axisX, axisY;
+            switch (i) {
+                case 0: axisX = cosA; axisY = sinA; break;
+                case 1: axisX = -sinA; axisY = cosA; break;
+                case 2: axisX = cosB; axisY = sinB; break;
+                default: axisX = -sinB; axisY = cosB;
+            }
+
+            double radiusA = halfWidthA * Math.abs(cosA * axisX + sinA * axisY)
+                    + halfHeightA * Math.abs(-sinA * axisX + cosA * axisY);
+            double radiusB = halfWidthB * Math.abs(cosB * axisX + sinB * axisY)
+                    + halfHeightB * Math.abs(-sinB * axisX + cosB * axisY);
+            double distance = dx * axisX + dy * axisY;
+            double depth = radiusA + radiusB - Math.abs(distance);
+            if (depth < 0) return false;
+
+            if (depth < bestDepth) {
+                bestDepth = depth;
+                bestX = distance < 0 ? -axisX : axisX;
+                bestY = distance < 0 ? -axisY : axisY;
+            }
+        }
+
+        contact.set(bestX, bestY, bestDepth);
+        return true;
+    }
+}
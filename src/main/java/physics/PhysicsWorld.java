@@ -1,40 +1,289 @@
 package physics;
 
+import profiling.FrameProfiler;
+import profiling.Phase;
+
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Manages the physics simulation world
+ * <p>
+ * Body state is kept in a {@link BodyStore}, so every pass of a step is a plain loop over primitive arrays
  */
 public class PhysicsWorld {
-    private List<RigidBody> bodies;
+    private final BodyStore store;
     private List<Force> forces;
+    private Broadphase broadphase;
+    private final Broadphase.PairCallback collisionHandler;
+    private final Narrowphase narrowphase;
+    private final Contact contact;
     private double gravity;
     private double worldWidth, worldHeight;
     
+    // Sleeping
+    private final Islands islands;
+    private boolean sleepingEnabled;
+    private double sleepVelocity;
+    private double timeToSleep;
+    private double[] islandSleepTime;
+    private int[] islandIds;
+    private int[] islandsToWake;
+    private int islandsToWakeCount;
+    private final Broadphase.QueryCallback wakeTouching;
+    private static final double WAKE_MARGIN = 1; // Pixels, so bodies resting right against a body count as touching
+    
+    // Parallel stepping
+    private static final int BODY_CHUNK_SIZE = 4096;
+    private final IslandSolver islandSolver;
+    private final ContactSolver contactSolver;
+    private final ContinuousCollision continuousCollision;
+    private final IslandSolver.IslandAction solveVelocities;
+    private final IslandSolver.IslandAction correctPositions;
+    private final RangeTask.Action forceRange;
+    private final RangeTask.Action positionRange;
+    private final RangeTask.Action boundaryRange;
+    private ForkJoinPool pool;
+    private boolean deterministic;
+    
+    // Instrumentation, off unless somebody turns the profiler on
+    private FrameProfiler profiler;
+    private int pairsTested;
+    private int indexedCount; // Bodies the broadphase has seen since anything was removed, they can be queried
+    // Slots that another body was moved into by removeBody since the last step, the broadphase has the old one there
+    private final int[] relocated = new int[16];
+    private int relocatedCount;
+    private final Broadphase.QueryCallback queryIndexed;
+    private Broadphase.QueryCallback queryTarget;
+    private int queryLimit;
+    private boolean[] removedColumn = new boolean[64];
+    private double stepDeltaTime, stepUniformX, stepUniformY;
+    
+    // Coarse stepping of bodies out of view
+    private double viewMinX, viewMinY, viewMaxX, viewMaxY;
+    private int offscreenStepDivisor;
+    private long stepCount;
+    private double[] stepScale; // Per body, how many steps' worth of time it moves by this step
+    private double[] stepScaleColumn;
+    
     public PhysicsWorld(double worldWidth, double worldHeight) {
-        this.bodies = new ArrayList<>();
-        this.forces = new ArrayList<>();
-        this.worldWidth = worldWidth;
-        this.worldHeight = worldHeight;
+        this(new BodyStore(64), new SpatialHashBroadphase(64), new Narrowphase(), new ArrayList<>(), worldWidth,
+                worldHeight);
         this.gravity = 9.8; // Default gravity
+        this.sleepingEnabled = true;
+        this.sleepVelocity = 2.0; // Pixels per second
+        this.timeToSleep = 0.5; // Seconds
         
         // Add default gravity force
         addForce(new GravityForce(gravity));
     }
     
+    /**
+     * Fork of another world, sharing its narrowphase and forces
+     */
+    private PhysicsWorld(PhysicsWorld source) {
+        this(source.store.fork(), source.broadphase.fork(), source.narrowphase, new ArrayList<>(source.forces),
+                source.worldWidth, source.worldHeight);
+        contactSolver.copyFrom(source.contactSolver);
+        this.gravity = source.gravity;
+        this.sleepingEnabled = source.sleepingEnabled;
+        this.sleepVelocity = source.sleepVelocity;
+        this.timeToSleep = source.timeToSleep;
+        this.deterministic = source.deterministic;
+        this.viewMinX = source.viewMinX;
+        this.viewMinY = source.viewMinY;
+        this.viewMaxX = source.viewMaxX;
+        this.viewMaxY = source.viewMaxY;
+        this.offscreenStepDivisor = source.offscreenStepDivisor;
+        this.stepCount = source.stepCount;
+        
+        // Gravity is the one force the world changes itself, so the fork gets its own
+        for (int f = 0; f < forces.size(); f++) {
+            Force force = forces.get(f);
+            if (force instanceof GravityForce) {
+                GravityForce copy = new GravityForce(force.getAccelerationX(), force.getAccelerationY());
+                copy.setActive(force.isActive());
+                forces.set(f, copy);
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Wire up the solvers and passes around a store, the part a new world and a fork have in common
+     */
+    private PhysicsWorld(BodyStore store, Broadphase broadphase, Narrowphase narrowphase, List<Force> forces,
+                         double worldWidth, double worldHeight) {
+        this.store = store;
+        store.world = this;
+        this.forces = forces;
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        this.broadphase = broadphase;
+        this.narrowphase = narrowphase;
+        this.contact = new Contact();
+        this.islandSolver = new IslandSolver();
+        this.queryIndexed = body -> {
+            if (body < queryLimit && !isRelocated(body)) queryTarget.onBody(body);
+        };
+        this.wakeTouching = body -> {
+            if (store.sleeping[body]) wakeLater(store.island[body]);
+        };
+        this.collisionHandler = (a, b) -> {
+            pairsTested++;
+            if (narrowphase.collide(store, a, b, contact)) {
+                trackContact(a, b);
+                islandSolver.add(a, b);
+            }
+        };
+        this.contactSolver = new ContactSolver(narrowphase);
+        contactSolver.setWorldSize(worldWidth, worldHeight);
+        this.continuousCollision = new ContinuousCollision();
+        this.profiler = new FrameProfiler();
+        this.solveVelocities = (start, end) -> contactSolver.solveVelocities(store, islandSolver, start, end);
+        this.correctPositions = (start, end) -> contactSolver.correctPositions(store, islandSolver, start, end);
+        this.forceRange = this::applyForces;
+        this.positionRange = this::integratePositions;
+        this.boundaryRange = this::handleWorldBoundaries;
+        this.islands = new Islands();
+        this.islandSleepTime = new double[64];
+        this.islandIds = new int[64];
+        this.islandsToWake = new int[16];
+        this.viewMaxX = worldWidth;
+        this.viewMaxY = worldHeight;
+        this.offscreenStepDivisor = 1;
+        this.stepScaleColumn = new double[64];
+    }
+    
+    /**
+     * Make a copy of this world that can be stepped and changed without affecting this one
+     * <p>
+     * Bodies keep their ids and their indices in the store, but the fork has its own handles, {@link #findBody} finds
+     * them. It starts with the same settings, a broadphase from {@link Broadphase#fork}, the same narrowphase and the
+     * same forces other than gravity, and no executor: forks are meant to be stepped side by side, one per thread.
+     * Custom forces are shared, so they must not keep state of their own between steps.
+     * <p>
+     * Forking is safe from several threads at once, as long as this world isn't stepped or changed until every fork
+     * has been made.
+     */
+    public PhysicsWorld fork() {
+        return new PhysicsWorld(this);
+    }
+    
     /**
      * Add a rigid body to the physics world
      */
     public void addBody(RigidBody body) {
-        bodies.add(body);
+        if (body.store == store) return; // Already in this world
+        body.moveTo(store);
     }
     
     /**
      * Remove a rigid body from the physics world
+     * The body keeps its state and can be added again later
      */
     public void removeBody(RigidBody body) {
-        bodies.remove(body);
+        if (body.store != store) return;
+        int index = body.index;
+        // Whatever was resting on it has to notice it's gone
+        wakeAround(index);
+        body.moveTo(new BodyStore(1));
+        // The last body took its slot, the broadphase has it wrong until the next step. The last slot is free, and a
+        // body added there later mustn't be found where the broadphase last saw the body that left it.
+        indexedCount = Math.min(indexedCount, store.count);
+        for (int k = 0; k < relocatedCount; k++) {
+            if (relocated[k] == store.count) relocated[k] = relocated[--relocatedCount];
+        }
+        if (index < indexedCount && !isRelocated(index)) {
+            if (relocatedCount == relocated.length) {
+                indexedCount = 0;
+                relocatedCount = 0;
+            } else {
+                relocated[relocatedCount++] = index;
+            }
+        }
+    }
+    
+    private boolean isRelocated(int index) {
+        for (int k = 0; k < relocatedCount; k++) {
+            if (relocated[k] == index) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Wake a body, and every sleeping body touching it, before it is moved by hand or taken out
+     * Static bodies are in no island, so what rests on them is found through the broadphase, where it was on the last
+     * step.
+     */
+    void wakeAround(int index) {
+        store.wake(index);
+        double extentX = store.getExtentX(index) + WAKE_MARGIN;
+        double extentY = store.getExtentY(index) + WAKE_MARGIN;
+        double centerX = store.getCenterX(index);
+        double centerY = store.getCenterY(index);
+        islandsToWakeCount = 0;
+        queryBodies(centerX - extentX, centerY - extentY, centerX + extentX, centerY + extentY, wakeTouching);
+        store.wakeIslands(islandsToWake, islandsToWakeCount);
+        islandsToWakeCount = 0;
+    }
+    
+    /**
+     * Take many bodies out of the world in one pass over it
+     * Unlike {@link #removeBody}, nothing is woken up, and the bodies aren't kept anywhere: their handles can't be used
+     * anymore. Write them out with {@link #writeChunk} first to add them back later.
+     *
+     * @param bodies Indices of the bodies to remove, as found by {@link #indexOf} or {@link #queryBodies}
+     * @param count How many of them
+     */
+    public void removeBodies(int[] bodies, int count) {
+        if (removedColumn.length < store.count) {
+            removedColumn = new boolean[Math.max(store.count, removedColumn.length * 2)];
+        }
+        int previousCount = store.count;
+        for (int k = 0; k < count; k++) {
+            removedColumn[bodies[k]] = true;
+        }
+        store.removeAll(removedColumn);
+        Arrays.fill(removedColumn, 0, previousCount, false);
+        indexedCount = 0;
+        relocatedCount = 0;
+    }
+    
+    /**
+     * @return Bytes {@link #writeChunk} needs for a number of bodies
+     */
+    public static int getChunkSize(int bodies) {
+        return BodyStore.getChunkSize(bodies);
+    }
+    
+    /**
+     * Write bodies that can't move (static or asleep) to a buffer, in a compact form, one property after the other
+     *
+     * @param bodies Indices of the bodies to write
+     * @param count How many of them
+     */
+    public void writeChunk(int[] bodies, int count, ByteBuffer buffer) {
+        for (int k = 0; k < count; k++) {
+            if (!store.isResting(bodies[k])) {
+                throw new IllegalArgumentException("Body " + store.id[bodies[k]] + " is moving, only resting "
+                        + "bodies can be written to a chunk");
+            }
+        }
+        store.writeChunk(bodies, count, buffer);
+    }
+    
+    /**
+     * Add the bodies written by {@link #writeChunk} back, with the same ids, where they were written
+     * Bodies that were asleep are still asleep, and wake up together with the bodies they fell asleep with.
+     *
+     * @return Index of the first added body, the others follow it: {@link BodyStore#handle} gives their handles
+     */
+    public int readChunk(ByteBuffer buffer) {
+        return store.readChunk(buffer);
     }
     
     /**
@@ -56,170 +305,424 @@ public class PhysicsWorld {
      * @param deltaTime Time step for integration
      */
     public void update(double deltaTime) {
-        // Apply forces to all bodies
-        for (RigidBody body : bodies) {
-            if (body.isStatic()) continue;
-            
-            // Apply all forces
-            for (Force force : forces) {
-                double[] forceComponents = force.calculate(body);
-                body.applyForce(forceComponents[0], forceComponents[1]);
+        long phaseStart = profiler.begin();
+        store.savePreviousPositions();
+        islands.reset(store.count);
+        
+        // Uniform fields like gravity are summed once here and added while integrating,
+        // every other force writes into the bodies' accelerations directly
+        double uniformX = 0, uniformY = 0;
+        for (int f = 0; f < forces.size(); f++) {
+            Force force = forces.get(f);
+            if (force.isActive() && force.isUniform()) {
+                uniformX += force.getAccelerationX();
+                uniformY += force.getAccelerationY();
             }
         }
+        stepDeltaTime = deltaTime;
+        stepUniformX = uniformX;
+        stepUniformY = uniformY;
+        stepScale = offscreenStepDivisor > 1 ? scheduleOffscreenBodies() : null;
+        stepCount++;
         
-        // Integrate motion for all bodies
-        for (RigidBody body : bodies) {
-            body.integrate(deltaTime);
-        }
+        // Apply forces to the velocities of all bodies
+        RangeTask.run(pool, forceRange, 0, store.count, BODY_CHUNK_SIZE);
+        phaseStart = profiler.lap(Phase.FORCES, phaseStart);
         
-        // Handle collisions
+        // Find contacts and fix up the velocities so touching bodies don't move into each other
         handleCollisions();
+        phaseStart = profiler.lap(Phase.COLLISIONS, phaseStart);
+        
+        // Move every body with its corrected velocity, then push apart what still overlaps
+        RangeTask.run(pool, positionRange, 0, store.count, BODY_CHUNK_SIZE);
+        // Fast bodies that went through something on the way are moved back to where they hit it
+        continuousCollision.run(store, broadphase);
+        islandSolver.forEachIsland(pool, correctPositions);
+        phaseStart = profiler.lap(Phase.INTEGRATION, phaseStart);
         
         // Handle world boundaries
-        handleWorldBoundaries();
+        RangeTask.run(pool, boundaryRange, 0, store.count, BODY_CHUNK_SIZE);
+        phaseStart = profiler.lap(Phase.BOUNDARIES, phaseStart);
+        
+        // Put islands that have settled to sleep
+        if (sleepingEnabled) {
+            updateSleeping(deltaTime);
+        }
+        profiler.lap(Phase.SLEEPING, phaseStart);
+        profiler.countStep(store.count, pairsTested, islandSolver.getPairCount());
+    }
+    
+    private void applyForces(int from, int to) {
+        for (int f = 0; f < forces.size(); f++) {
+            Force force = forces.get(f);
+            if (force.isActive() && !force.isUniform()) {
+                force.apply(store, from, to);
+            }
+        }
+        integrateVelocities(store, from, to, stepDeltaTime, stepUniformX, stepUniformY, stepScale);
+    }
+    
+    private void integratePositions(int from, int to) {
+        integratePositions(store, from, to, stepDeltaTime, stepScale);
     }
     
     /**
-     * Handle collisions between all bodies
+     * Decide which bodies out of view move this step
+     *
+     * @return How many steps' worth of time each body moves by: 1 in view, the divisor or 0 out of view
      */
-    private void handleCollisions() {
-        for (int i = 0; i < bodies.size(); i++) {
-            for (int j = i + 1; j < bodies.size(); j++) {
-                RigidBody bodyA = bodies.get(i);
-                RigidBody bodyB = bodies.get(j);
-                
-                if (bodyA.collidesWith(bodyB)) {
-                    resolveCollision(bodyA, bodyB);
-                }
+    private double[] scheduleOffscreenBodies() {
+        int count = store.count;
+        if (stepScaleColumn.length < count) {
+            stepScaleColumn = new double[Math.max(count, stepScaleColumn.length * 2)];
+        }
+        double[] scale = stepScaleColumn;
+        int divisor = offscreenStepDivisor;
+        
+        for (int i = 0; i < count; i++) {
+            double extentX = store.getExtentX(i);
+            double extentY = store.getExtentY(i);
+            double centerX = store.getCenterX(i);
+            double centerY = store.getCenterY(i);
+            boolean visible = centerX + extentX >= viewMinX && centerX - extentX <= viewMaxX
+                    && centerY + extentY >= viewMinY && centerY - extentY <= viewMaxY;
+            if (visible) {
+                scale[i] = 1;
+            } else {
+                scale[i] = (stepCount + store.id[i]) % divisor == 0 ? divisor : 0;
+            }
+        }
+        return scale;
+    }
+    
+    /**
+     * Update position based on velocity and acceleration for a range of bodies
+     * @param from First body to integrate
+     * @param to One past the last body to integrate
+     * @param deltaTime Time step for integration
+     * @param uniformX X acceleration added to every body on top of its own
+     * @param uniformY Y acceleration added to every body on top of its own
+     */
+    static void integrate(BodyStore store, int from, int to, double deltaTime, double uniformX, double uniformY) {
+        integrateVelocities(store, from, to, deltaTime, uniformX, uniformY, null);
+        integratePositions(store, from, to, deltaTime, null);
+    }
+    
+    /**
+     * Update velocity based on acceleration, and reset the acceleration for the next step
+     * @param stepScale How many steps' worth of time each body moves by, or null for one step each
+     */
+    static void integrateVelocities(BodyStore store, int from, int to, double deltaTime,
+                                    double uniformX, double uniformY, double[] stepScale) {
+        double[] velocityX = store.velocityX, velocityY = store.velocityY;
+        double[] accelerationX = store.accelerationX, accelerationY = store.accelerationY;
+        boolean[] isStatic = store.isStatic;
+        boolean[] sleeping = store.sleeping;
+        
+        for (int i = from; i < to; i++) {
+            if (isStatic[i]) continue;
+            if (!sleeping[i]) {
+                double bodyDeltaTime = stepScale == null ? deltaTime : deltaTime * stepScale[i];
+                velocityX[i] += (accelerationX[i] + uniformX) * bodyDeltaTime;
+                velocityY[i] += (accelerationY[i] + uniformY) * bodyDeltaTime;
             }
+            // Forces may have written into a sleeping body too, they don't carry over
+            accelerationX[i] = 0;
+            accelerationY[i] = 0;
+        }
+    }
+    
+    /**
+     * Update position based on velocity
+     * @param stepScale How many steps' worth of time each body moves by, or null for one step each
+     */
+    static void integratePositions(BodyStore store, int from, int to, double deltaTime, double[] stepScale) {
+        double[] x = store.x, y = store.y;
+        double[] velocityX = store.velocityX, velocityY = store.velocityY;
+        boolean[] isStatic = store.isStatic;
+        boolean[] sleeping = store.sleeping;
+        
+        for (int i = from; i < to; i++) {
+            if (isStatic[i] || sleeping[i]) continue;
+            
+            double bodyDeltaTime = stepScale == null ? deltaTime : deltaTime * stepScale[i];
+            x[i] += velocityX[i] * bodyDeltaTime;
+            y[i] += velocityY[i] * bodyDeltaTime;
+        }
+    }
+    
+    /**
+     * Speed every body gained from the uniform forces this step
+     */
+    private double stepSpeedGained() {
+        return Math.sqrt(stepUniformX * stepUniformX + stepUniformY * stepUniformY) * stepDeltaTime;
+    }
+    
+    /**
+     * Handle collisions between bodies
+     * The broadphase only hands us pairs that are close enough to be touching
+     */
+    private void handleCollisions() {
+        islandsToWakeCount = 0;
+        pairsTested = 0;
+        islandSolver.clear();
+        broadphase.findPairs(store, collisionHandler);
+        indexedCount = store.count;
+        relocatedCount = 0;
+        // Sleeping bodies that got hit wake up, together with the rest of their islands
+        store.wakeIslands(islandsToWake, islandsToWakeCount);
+        
+        islandSolver.group(islands, store, deterministic);
+        contactSolver.begin(islandSolver.getPairCount(), store.count, stepSpeedGained());
+        islandSolver.forEachIsland(pool, solveVelocities);
+        contactSolver.end(store, islandSolver, islandSolver.getPairCount());
+    }
+    
+    /**
+     * Remember who touches whom, for building islands and waking sleeping bodies that got hit
+     */
+    private void trackContact(int a, int b) {
+        if (store.sleeping[a]) wakeLater(store.island[a]);
+        if (store.sleeping[b]) wakeLater(store.island[b]);
+        
+        if (!store.isStatic[a] && !store.isStatic[b]) {
+            islands.union(a, b);
+        }
+    }
+    
+    private void wakeLater(int island) {
+        for (int k = 0; k < islandsToWakeCount; k++) {
+            if (islandsToWake[k] == island) return;
         }
+        if (islandsToWakeCount == islandsToWake.length) {
+            islandsToWake = Arrays.copyOf(islandsToWake, islandsToWakeCount * 2);
+        }
+        islandsToWake[islandsToWakeCount++] = island;
     }
     
     /**
-     * Resolve collision between two bodies
+     * Count how long every awake body has been slow, and put an island to sleep once all of its bodies have been slow
+     * for long enough
      */
-    private void resolveCollision(RigidBody bodyA, RigidBody bodyB) {
-        // Simple collision response - separate bodies
-        double overlapX = 0, overlapY = 0;
+    private void updateSleeping(double deltaTime) {
+        int count = store.count;
+        if (islandSleepTime.length < count) {
+            islandSleepTime = new double[Math.max(count, islandSleepTime.length * 2)];
+            islandIds = new int[islandSleepTime.length];
+        }
+        double[] velocityX = store.velocityX, velocityY = store.velocityY, sleepTime = store.sleepTime;
+        double sleepVelocitySquared = sleepVelocity * sleepVelocity;
         
-        // Calculate overlap
-        double leftA = bodyA.getX();
-        double rightA = bodyA.getX() + bodyA.getWidth();
-        double topA = bodyA.getY();
-        double bottomA = bodyA.getY() + bodyA.getHeight();
+        for (int i = 0; i < count; i++) {
+            islandSleepTime[i] = Double.MAX_VALUE;
+            islandIds[i] = 0;
+        }
         
-        double leftB = bodyB.getX();
-        double rightB = bodyB.getX() + bodyB.getWidth();
-        double topB = bodyB.getY();
-        double bottomB = bodyB.getY() + bodyB.getHeight();
+        // The island can sleep as soon as its most restless body can
+        for (int i = 0; i < count; i++) {
+            if (store.isResting(i)) continue;
+            
+            double speedSquared = velocityX[i] * velocityX[i] + velocityY[i] * velocityY[i];
+            sleepTime[i] = speedSquared < sleepVelocitySquared ? sleepTime[i] + deltaTime : 0;
+            
+            int root = islands.find(i);
+            islandSleepTime[root] = Math.min(islandSleepTime[root], sleepTime[i]);
+        }
         
-        if (rightA > leftB && leftA < rightB && bottomA > topB && topA < bottomB) {
-            double overlapLeft = rightA - leftB;
-            double overlapRight = rightB - leftA;
-            double overlapTop = bottomA - topB;
-            double overlapBottom = bottomB - topA;
+        for (int i = 0; i < count; i++) {
+            if (store.isResting(i)) continue;
             
-            if (overlapLeft < overlapRight && overlapLeft < overlapTop && overlapLeft < overlapBottom) {
-                overlapX = -overlapLeft;
-            } else if (overlapRight < overlapTop && overlapRight < overlapBottom) {
-                overlapX = overlapRight;
-            } else if (overlapTop < overlapBottom) {
-                overlapY = -overlapTop;
-            } else {
-                overlapY = overlapBottom;
-            }
-        }
-        
-        // Separate bodies
-        if (!bodyA.isStatic() && !bodyB.isStatic()) {
-            bodyA.setX(bodyA.getX() + overlapX * 0.5);
-            bodyA.setY(bodyA.getY() + overlapY * 0.5);
-            bodyB.setX(bodyB.getX() - overlapX * 0.5);
-            bodyB.setY(bodyB.getY() - overlapY * 0.5);
-        } else if (!bodyA.isStatic()) {
-            bodyA.setX(bodyA.getX() + overlapX);
-            bodyA.setY(bodyA.getY() + overlapY);
-        } else if (!bodyB.isStatic()) {
-            bodyB.setX(bodyB.getX() - overlapX);
-            bodyB.setY(bodyB.getY() - overlapY);
-        }
-        
-        // Apply collision response (bounce)
-        if (Math.abs(overlapX) > Math.abs(overlapY)) {
-            // Horizontal collision
-            if (!bodyA.isStatic() && !bodyB.isStatic()) {
-                double totalMass = bodyA.getMass() + bodyB.getMass();
-                double newVelA = (bodyA.getVelocityX() * (bodyA.getMass() - bodyB.getMass()) + 
-                                2 * bodyB.getMass() * bodyB.getVelocityX()) / totalMass;
-                double newVelB = (bodyB.getVelocityX() * (bodyB.getMass() - bodyA.getMass()) + 
-                                2 * bodyA.getMass() * bodyA.getVelocityX()) / totalMass;
-                
-                bodyA.setVelocityX(newVelA * bodyA.getRestitution());
-                bodyB.setVelocityX(newVelB * bodyB.getRestitution());
-            } else if (!bodyA.isStatic()) {
-                bodyA.setVelocityX(-bodyA.getVelocityX() * bodyA.getRestitution());
-            } else if (!bodyB.isStatic()) {
-                bodyB.setVelocityX(-bodyB.getVelocityX() * bodyB.getRestitution());
-            }
-        } else {
-            // Vertical collision
-            if (!bodyA.isStatic() && !bodyB.isStatic()) {
-                double totalMass = bodyA.getMass() + bodyB.getMass();
-                double newVelA = (bodyA.getVelocityY() * (bodyA.getMass() - bodyB.getMass()) + 
-                                2 * bodyB.getMass() * bodyB.getVelocityY()) / totalMass;
-                double newVelB = (bodyB.getVelocityY() * (bodyB.getMass() - bodyA.getMass()) + 
-                                2 * bodyA.getMass() * bodyA.getVelocityY()) / totalMass;
-                
-                bodyA.setVelocityY(newVelA * bodyA.getRestitution());
-                bodyB.setVelocityY(newVelB * bodyB.getRestitution());
-            } else if (!bodyA.isStatic()) {
-                bodyA.setVelocityY(-bodyA.getVelocityY() * bodyA.getRestitution());
-            } else if (!bodyB.isStatic()) {
-                bodyB.setVelocityY(-bodyB.getVelocityY() * bodyB.getRestitution());
+            int root = islands.find(i);
+            if (islandSleepTime[root] < timeToSleep) continue;
+            
+            if (islandIds[root] == 0) {
+                islandIds[root] = store.newIsland();
             }
+            store.sleep(i, islandIds[root]);
         }
     }
     
     /**
      * Handle world boundaries (ground, walls)
      */
-    private void handleWorldBoundaries() {
-        for (RigidBody body : bodies) {
-            if (body.isStatic()) continue;
+    private void handleWorldBoundaries(int from, int to) {
+        double[] x = store.x, y = store.y;
+        double[] velocityX = store.velocityX, velocityY = store.velocityY;
+        double[] restitution = store.restitution, friction = store.friction;
+        double speedGained = stepSpeedGained();
+        
+        for (int i = from; i < to; i++) {
+            if (store.isResting(i)) continue;
+            
+            // Boundaries are checked against the box around the shape, which is the body itself for AABB
+            double extentX = store.getExtentX(i);
+            double extentY = store.getExtentY(i);
+            double centerX = store.getCenterX(i);
+            double centerY = store.getCenterY(i);
             
             // Ground collision
-            if (body.getY() + body.getHeight() > worldHeight) {
-                body.setY(worldHeight - body.getHeight());
-                body.setVelocityY(-body.getVelocityY() * body.getRestitution());
+            double bottom = centerY + extentY;
+            if (bottom > worldHeight) {
+                y[i] -= bottom - worldHeight;
+                velocityY[i] = ContactSolver.bounce(velocityY[i], restitution[i], speedGained);
                 // Apply friction
-                body.setVelocityX(body.getVelocityX() * (1 - body.getFriction()));
+                velocityX[i] *= 1 - friction[i];
             }
             
             // Ceiling collision
-            if (body.getY() < 0) {
-                body.setY(0);
-                body.setVelocityY(-body.getVelocityY() * body.getRestitution());
+            double top = centerY - extentY;
+            if (top < 0) {
+                y[i] -= top;
+                velocityY[i] = ContactSolver.bounce(velocityY[i], restitution[i], speedGained);
             }
             
             // Left wall collision
-            if (body.getX() < 0) {
-                body.setX(0);
-                body.setVelocityX(-body.getVelocityX() * body.getRestitution());
+            double left = centerX - extentX;
+            if (left < 0) {
+                x[i] -= left;
+                velocityX[i] = ContactSolver.bounce(velocityX[i], restitution[i], speedGained);
             }
             
             // Right wall collision
-            if (body.getX() + body.getWidth() > worldWidth) {
-                body.setX(worldWidth - body.getWidth());
-                body.setVelocityX(-body.getVelocityX() * body.getRestitution());
+            double right = centerX + extentX;
+            if (right > worldWidth) {
+                x[i] -= right - worldWidth;
+                velocityX[i] = ContactSolver.bounce(velocityX[i], restitution[i], speedGained);
             }
         }
     }
     
+    /**
+     * @return Bytes {@link #writeSnapshot} needs for the world as it is right now
+     */
+    public int getSnapshotSize() {
+        return 8 + store.getSnapshotSize() + contactSolver.getSnapshotSize();
+    }
+    
+    /**
+     * Write the state of every body, and what the contact solver remembers from the last step, to a buffer
+     * Forces, settings and the broadphase aren't part of it. Stepping the world after reading it back gives exactly the
+     * steps it gave from here, as long as the same things are done to it.
+     * @param buffer Buffer with at least {@link #getSnapshotSize} bytes left
+     */
+    public void writeSnapshot(ByteBuffer buffer) {
+        buffer.putLong(stepCount);
+        store.writeSnapshot(buffer);
+        contactSolver.writeSnapshot(buffer);
+    }
+    
+    /**
+     * Put the world back in the state written by {@link #writeSnapshot}
+     * <p>
+     * Handles of bodies in the snapshot point at them again. Bodies added since the snapshot leave the world, bodies
+     * removed since come back with new handles, which {@link #findBody} can find by id.
+     */
+    public void readSnapshot(ByteBuffer buffer) {
+        stepCount = buffer.getLong();
+        store.readSnapshot(buffer);
+        indexedCount = 0;
+        relocatedCount = 0;
+        contactSolver.readSnapshot(buffer);
+    }
+    
+    /**
+     * Hash of where every body is and how fast it moves, to tell whether two runs are still doing the same thing
+     * Ids are left out, they depend on how many bodies the process created before
+     */
+    public long computeHash() {
+        long hash = 0xCBF29CE484222325L;
+        hash = (hash ^ store.count) * 0x100000001B3L;
+        for (int i = 0; i < store.count; i++) {
+            hash = (hash ^ Double.doubleToLongBits(store.x[i])) * 0x100000001B3L;
+            hash = (hash ^ Double.doubleToLongBits(store.y[i])) * 0x100000001B3L;
+            hash = (hash ^ Double.doubleToLongBits(store.velocityX[i])) * 0x100000001B3L;
+            hash = (hash ^ Double.doubleToLongBits(store.velocityY[i])) * 0x100000001B3L;
+        }
+        return hash;
+    }
+    
+    /**
+     * Find a body in this world by its id
+     * @return The body, or null if there is no body with that id in this world
+     */
+    public RigidBody findBody(int id) {
+        int index = store.indexOf(id);
+        return index < 0 ? null : store.handle(index);
+    }
+    
+    /**
+     * Find every body whose bounding box overlaps or touches a box, using the broadphase
+     * Bodies are found where they were on the last step, so callers that need exact positions have to check again.
+     * Bodies added since, and bodies {@link #removeBody} moved to another slot, are tested one by one, and so is every
+     * body after {@link #removeBodies} until the next step.
+     *
+     * @param callback Receives each body in the box exactly once, as an index into the store
+     */
+    public void queryBodies(double minX, double minY, double maxX, double maxY, Broadphase.QueryCallback callback) {
+        int indexed = Math.min(indexedCount, store.count);
+        if (indexed > 0 && indexed == store.count && relocatedCount == 0) {
+            broadphase.query(store, minX, minY, maxX, maxY, callback);
+        } else if (indexed > 0) {
+            // The broadphase doesn't know the bodies in relocated slots and past the indexed ones, they are tested here
+            Broadphase.QueryCallback outerTarget = queryTarget;
+            int outerLimit = queryLimit;
+            queryTarget = callback;
+            queryLimit = indexed;
+            broadphase.query(store, minX, minY, maxX, maxY, queryIndexed);
+            queryTarget = outerTarget;
+            queryLimit = outerLimit;
+            for (int k = 0; k < relocatedCount; k++) {
+                queryOne(relocated[k], minX, minY, maxX, maxY, callback);
+            }
+        }
+        for (int i = indexed; i < store.count; i++) {
+            queryOne(i, minX, minY, maxX, maxY, callback);
+        }
+    }
+    
+    private void queryOne(int i, double minX, double minY, double maxX, double maxY,
+                          Broadphase.QueryCallback callback) {
+        double extentX = store.getExtentX(i);
+        double extentY = store.getExtentY(i);
+        double centerX = store.getCenterX(i);
+        double centerY = store.getCenterY(i);
+        if (centerX + extentX >= minX && centerX - extentX <= maxX
+                && centerY + extentY >= minY && centerY - extentY <= maxY) {
+            callback.onBody(i);
+        }
+    }
+    
+    /**
+     * @return Where a body is in the store of this world, as found by {@link #queryBodies}, or -1 if it isn't in
+     *         this world
+     */
+    public int indexOf(RigidBody body) {
+        return body != null && body.store == store ? body.index : -1;
+    }
+    
     /**
      * Get all bodies in the world
      */
     public List<RigidBody> getBodies() {
-        return new ArrayList<>(bodies);
+        List<RigidBody> bodies = new ArrayList<>(store.count);
+        for (int i = 0; i < store.count; i++) {
+            bodies.add(store.handle(i));
+        }
+        return bodies;
+    }
+    
+    /**
+     * Get the store holding the state of every body in this world
+     */
+    public BodyStore getBodyStore() {
+        return store;
+    }
+    
+    /**
+     * Get the number of bodies in the world without building a list
+     */
+    public int getBodyCount() {
+        return store.count;
     }
     
     /**
@@ -236,6 +739,196 @@ public class PhysicsWorld {
         }
     }
     
+    /**
+     * Replace the broadphase used to find collision candidates
+     * The default is a spatial hash with 64 pixel cells
+     */
+    public void setBroadphase(Broadphase broadphase) {
+        if (broadphase == null) {
+            throw new IllegalArgumentException("Broadphase must not be null");
+        }
+        this.broadphase = broadphase;
+        this.indexedCount = 0;
+        this.relocatedCount = 0;
+    }
+    
+    public Broadphase getBroadphase() {
+        return broadphase;
+    }
+    
+    /**
+     * Get the narrowphase, new shape combinations can be registered on it
+     */
+    public Narrowphase getNarrowphase() {
+        return narrowphase;
+    }
+    
+    /**
+     * Set where rendering is between the previous step and the current one
+     * Bodies report their render position as previous + (current - previous) * alpha
+     * @param alpha 0 draws the previous step, 1 (the default) draws the current one
+     */
+    public void setInterpolationAlpha(double alpha) {
+        store.renderAlpha = Math.max(0, Math.min(1, alpha));
+    }
+    
+    public double getInterpolationAlpha() {
+        return store.renderAlpha;
+    }
+    
+    /**
+     * Set how many times per step the contact solver goes over every contact
+     * More iterations make tall stacks stiffer, fewer make steps cheaper
+     */
+    public void setSolverIterations(int iterations) {
+        contactSolver.setIterations(iterations);
+    }
+    
+    public int getSolverIterations() {
+        return contactSolver.getIterations();
+    }
+    
+    /**
+     * Set the part of the world that is on screen, bodies outside it can be stepped more coarsely
+     * The default is the whole world
+     */
+    public void setViewBounds(double x, double y, double width, double height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("View size can't be negative: " + width + " x " + height);
+        }
+        this.viewMinX = x;
+        this.viewMinY = y;
+        this.viewMaxX = x + width;
+        this.viewMaxY = y + height;
+    }
+    
+    /**
+     * Step bodies outside the view only once every few steps, by that many steps at a time
+     * Which step a body moves on depends on its id, so the bodies out of view don't all move on the same step.
+     * @param divisor 1 (the default) steps every body every step
+     */
+    public void setOffscreenStepDivisor(int divisor) {
+        if (divisor < 1) {
+            throw new IllegalArgumentException("Off-screen step divisor must be at least 1: " + divisor);
+        }
+        this.offscreenStepDivisor = divisor;
+    }
+    
+    public int getOffscreenStepDivisor() {
+        return offscreenStepDivisor;
+    }
+    
+    /**
+     * Time the steps of this world with another profiler, for example one shared with the code drawing the frames
+     */
+    public void setProfiler(FrameProfiler profiler) {
+        if (profiler == null) {
+            throw new IllegalArgumentException("Profiler can't be null");
+        }
+        this.profiler = profiler;
+    }
+    
+    /**
+     * Get the profiler timing the steps of this world, it is off until turned on
+     */
+    public FrameProfiler getProfiler() {
+        return profiler;
+    }
+    
+    /**
+     * Run steps on a pool of threads
+     * Per-body passes run over chunks of bodies and independent islands are solved side by side. Islands never share a
+     * moving body, so the thread count never changes the result.
+     * @param pool The pool to use, or null to run everything on the thread calling update
+     */
+    public void setExecutor(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
+    public ForkJoinPool getExecutor() {
+        return pool;
+    }
+    
+    /**
+     * In deterministic mode the contacts of each island are solved in an order that only depends on the bodies
+     * involved, not on the order the broadphase found them in. Two worlds in the same state then produce bit-identical
+     * steps, whatever their history and thread count, which is what replays and tests need.
+     */
+    public void setDeterministic(boolean deterministic) {
+        this.deterministic = deterministic;
+    }
+    
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+    
+    /**
+     * Get the number of touching pairs found in the last step
+     */
+    public int getContactCount() {
+        return islandSolver.getPairCount();
+    }
+    
+    /**
+     * Get the number of pairs the broadphase handed to the narrowphase in the last step
+     */
+    public int getPairCount() {
+        return pairsTested;
+    }
+    
+    /**
+     * Get the number of islands of touching bodies solved in the last step
+     */
+    public int getIslandCount() {
+        return islandSolver.getIslandCount();
+    }
+    
+    /**
+     * Turn sleeping on or off, turning it off wakes every body up
+     * Bodies that stay slow for a while fall asleep together with everything they touch, and are skipped by every
+     * pass of a step until something wakes them up.
+     */
+    public void setSleepingEnabled(boolean sleepingEnabled) {
+        this.sleepingEnabled = sleepingEnabled;
+        if (!sleepingEnabled) {
+            for (int i = 0; i < store.count; i++) {
+                store.wake(i);
+            }
+        }
+    }
+    
+    public boolean isSleepingEnabled() {
+        return sleepingEnabled;
+    }
+    
+    /**
+     * @param sleepVelocity Bodies slower than this (in pixels per second) count as resting
+     * @param timeToSleep How long (in seconds) a whole island has to be resting before it falls asleep
+     */
+    public void setSleepThresholds(double sleepVelocity, double timeToSleep) {
+        this.sleepVelocity = sleepVelocity;
+        this.timeToSleep = timeToSleep;
+    }
+    
+    public double getSleepVelocity() {
+        return sleepVelocity;
+    }
+    
+    public double getTimeToSleep() {
+        return timeToSleep;
+    }
+    
+    /**
+     * Get the number of bodies that are currently asleep
+     */
+    public int getSleepingBodyCount() {
+        int sleepingCount = 0;
+        for (int i = 0; i < store.count; i++) {
+            if (store.sleeping[i]) sleepingCount++;
+        }
+        return sleepingCount;
+    }
+    
     /**
      * Get gravity strength
      */
@@ -0,0 +1,50 @@
+package physics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs an action over a range of indices, split into chunks that a {@link ForkJoinPool} works on in parallel
+ */
+class RangeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Work on a part of the range, called once for every chunk
+     */
+    interface Action {
+        void run(int from, int to);
+    }
+
+    private final Action action;
+    private final int from, to;
+    private final int chunkSize;
+
+    private RangeTask(Action action, int from, int to, int chunkSize) {
+        this.action = action;
+        this.from = from;
+        this.to = to;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Run the action over [from, to), in parallel on the pool, or right here when there is no pool or too little work
+     */
+    static void run(ForkJoinPool pool, Action action, int from, int to, int chunkSize) {
+        if (pool == null || to - from <= chunkSize) {
+            if (from < to) action.run(from, to);
+            return;
+        }
+        pool.invoke(new RangeTask(action, from, to, chunkSize));
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= chunkSize) {
+            action.run(from, to);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new RangeTask(action, from, middle, chunkSize), new RangeTask(action, middle, to, chunkSize));
+    }
+}
@@ -4,126 +4,253 @@ import java.awt.geom.Rectangle2D;
 
 /**
  * Represents a physics object with mass, velocity, and position
+ * <p>
+ * The state itself lives in a {@link BodyStore}, this is only a handle to one slot in it. A body that hasn't been added
+ * to a world yet has a small store of its own, adding it to a world moves the state into the world's store.
  */
 public class RigidBody {
-    private double mass;
-    private double x, y;
-    private double velocityX, velocityY;
-    private double accelerationX, accelerationY;
-    private double width, height;
-    private boolean isStatic;
-    private double restitution; // Bounciness factor (0 = no bounce, 1 = perfect bounce)
-    private double friction; // Friction coefficient (0 = no friction, 1 = maximum friction)
-    
+    // Used by collidesWith, which has no contact of its own to fill in
+    private static final Narrowphase NARROWPHASE = new Narrowphase();
+    private static final ThreadLocal<Contact> SCRATCH_CONTACT = ThreadLocal.withInitial(Contact::new);
+
+    BodyStore store;
+    int index;
+
     public RigidBody(double x, double y, double width, double height, double mass) {
-        this.x = x;
-        this.y = y;
-        this.width = width;
-        this.height = height;
-        this.mass = mass;
-        this.velocityX = 0;
-        this.velocityY = 0;
-        this.accelerationX = 0;
-        this.accelerationY = 0;
-        this.isStatic = false;
-        this.restitution = 0.8; // Default bounciness
-        this.friction = 0.1; // Default friction
+        this.store = new BodyStore(1);
+        this.index = store.add(x, y, width, height, mass);
+        store.handles[index] = this;
     }
-    
+
+    /**
+     * Handle for a body that already exists in a store
+     */
+    RigidBody(BodyStore store, int index) {
+        this.store = store;
+        this.index = index;
+    }
+
     // Getters and setters
-    public double getX() { return x; }
-    public double getY() { return y; }
-    public double getWidth() { return width; }
-    public double getHeight() { return height; }
-    public double getMass() { return mass; }
-    public double getVelocityX() { return velocityX; }
-    public double getVelocityY() { return velocityY; }
-    public double getAccelerationX() { return accelerationX; }
-    public double getAccelerationY() { return accelerationY; }
-    public boolean isStatic() { return isStatic; }
-    public double getRestitution() { return restitution; }
-    public double getFriction() { return friction; }
+    public int getId() { return store.id[index]; }
+    public double getX() { return store.x[index]; }
+    public double getY() { return store.y[index]; }
+    public double getWidth() { return store.width[index]; }
+    public double getHeight() { return store.height[index]; }
+    public double getMass() { return store.mass[index]; }
+    public double getVelocityX() { return store.velocityX[index]; }
+    public double getVelocityY() { return store.velocityY[index]; }
+    public double getAccelerationX() { return store.accelerationX[index]; }
+    public double getAccelerationY() { return store.accelerationY[index]; }
+    public boolean isStatic() { return store.isStatic[index]; }
+    public double getRestitution() { return store.restitution[index]; }
+    public double getFriction() { return store.friction[index]; }
+    public ShapeType getShape() { return store.getShape(index); }
+    public int getMaterial() { return store.material[index]; }
+    public double getAngle() { return store.angle[index]; }
+
+    public boolean isSleeping() { return store.sleeping[index]; }
+    public boolean isContinuous() { return store.continuous[index]; }
     
-    public void setX(double x) { this.x = x; }
-    public void setY(double y) { this.y = y; }
-    public void setMass(double mass) { this.mass = mass; }
-    public void setVelocityX(double velocityX) { this.velocityX = velocityX; }
-    public void setVelocityY(double velocityY) { this.velocityY = velocityY; }
-    public void setAccelerationX(double accelerationX) { this.accelerationX = accelerationX; }
-    public void setAccelerationY(double accelerationY) { this.accelerationY = accelerationY; }
-    public void setStatic(boolean isStatic) { this.isStatic = isStatic; }
-    public void setRestitution(double restitution) { this.restitution = Math.max(0, Math.min(1, restitution)); }
-    public void setFriction(double friction) { this.friction = Math.max(0, Math.min(1, friction)); }
+    // Setting the position is a teleport, there is nothing to draw in between
+    public void setX(double x) {
+        wakeAround();
+        store.x[index] = x;
+        store.previousX[index] = x;
+        movedResting();
+    }
+    public void setY(double y) {
+        wakeAround();
+        store.y[index] = y;
+        store.previousY[index] = y;
+        movedResting();
+    }
+    public void setMass(double mass) { store.ownColumns(BodyStore.MASS); store.mass[index] = mass; }
+    public void setVelocityX(double velocityX) { wake(); store.velocityX[index] = velocityX; }
+    public void setVelocityY(double velocityY) { wake(); store.velocityY[index] = velocityY; }
+    public void setAccelerationX(double accelerationX) { wake(); store.accelerationX[index] = accelerationX; }
+    public void setAccelerationY(double accelerationY) { wake(); store.accelerationY[index] = accelerationY; }
+    public void setStatic(boolean isStatic) {
+        wake();
+        store.ownColumns(BodyStore.STATIC);
+        store.isStatic[index] = isStatic;
+        store.restingVersion++;
+    }
+    public void setRestitution(double restitution) {
+        store.ownColumns(BodyStore.RESTITUTION);
+        store.restitution[index] = Math.max(0, Math.min(1, restitution));
+    }
+    public void setFriction(double friction) {
+        store.ownColumns(BodyStore.FRICTION);
+        store.friction[index] = Math.max(0, Math.min(1, friction));
+    }
+    public void setShape(ShapeType shape) {
+        wakeAround();
+        store.ownColumns(BodyStore.SHAPE);
+        store.shape[index] = (byte) shape.ordinal();
+        store.restingVersion++;
+    }
+    
+    /**
+     * What the body is made of, for drawing it: physics doesn't look at it, the game decides what the ids mean
+     */
+    public void setMaterial(int material) { store.ownColumns(BodyStore.MATERIAL); store.material[index] = material; }
     
+    /**
+     * Sweep this body against the others when it moves fast, instead of only testing where it ends up
+     * Meant for small, fast bodies like projectiles, which would otherwise pass right through thin bodies in one step
+     */
+    public void setContinuous(boolean continuous) {
+        store.ownColumns(BodyStore.CONTINUOUS);
+        store.continuous[index] = continuous;
+    }
+
+    /**
+     * Wake this body up if it is asleep, together with every body that fell asleep with it
+     */
+    public void wake() {
+        store.wake(index);
+    }
+
+    // Moving a body by hand wakes it, and whatever was resting on it or against it
+    private void wakeAround() {
+        if (store.world != null) {
+            store.world.wakeAround(index);
+        } else {
+            store.wake(index);
+        }
+    }
+
+    // The broadphase keeps bodies that can't move where they were, until it is told one of them moved
+    private void movedResting() {
+        if (store.isResting(index)) store.restingVersion++;
+    }
+
+    /**
+     * Set the orientation of an ORIENTED_BOX
+     * @param angle Rotation around the center in radians
+     */
+    public void setAngle(double angle) {
+        wakeAround();
+        store.restingVersion++;
+        store.ownColumns(BodyStore.ANGLE);
+        store.angle[index] = angle;
+        store.cos[index] = Math.cos(angle);
+        store.sin[index] = Math.sin(angle);
+    }
+
+    /**
+     * Radius of a CIRCLE, the circle fits the shorter side of the body
+     */
+    public double getRadius() {
+        return store.getRadius(index);
+    }
+
+    /**
+     * Half the width of the axis aligned box around the shape
+     */
+    public double getExtentX() {
+        return store.getExtentX(index);
+    }
+
+    /**
+     * Half the height of the axis aligned box around the shape
+     */
+    public double getExtentY() {
+        return store.getExtentY(index);
+    }
+
     /**
      * Apply a force to this rigid body
      * @param forceX Force in X direction
      * @param forceY Force in Y direction
      */
     public void applyForce(double forceX, double forceY) {
-        if (isStatic) return;
-        
-        accelerationX += forceX / mass;
-        accelerationY += forceY / mass;
+        if (isStatic()) return;
+        wake();
+
+        store.accelerationX[index] += forceX / store.mass[index];
+        store.accelerationY[index] += forceY / store.mass[index];
     }
-    
+
     /**
      * Apply an impulse (instantaneous change in velocity)
      * @param impulseX Impulse in X direction
      * @param impulseY Impulse in Y direction
      */
     public void applyImpulse(double impulseX, double impulseY) {
-        if (isStatic) return;
-        
-        velocityX += impulseX / mass;
-        velocityY += impulseY / mass;
+        if (isStatic()) return;
+        wake();
+
+        store.velocityX[index] += impulseX / store.mass[index];
+        store.velocityY[index] += impulseY / store.mass[index];
     }
-    
+
     /**
      * Update position based on velocity and acceleration
+     * Bodies inside a world are integrated by the world in one pass, this is for bodies on their own
      * @param deltaTime Time step for integration
      */
     public void integrate(double deltaTime) {
-        if (isStatic) return;
-        
-        // Update velocity based on acceleration
-        velocityX += accelerationX * deltaTime;
-        velocityY += accelerationY * deltaTime;
-        
-        // Update position based on velocity
-        x += velocityX * deltaTime;
-        y += velocityY * deltaTime;
-        
-        // Reset acceleration for next frame
-        accelerationX = 0;
-        accelerationY = 0;
+        PhysicsWorld.integrate(store, index, index + 1, deltaTime, 0, 0);
     }
-    
+
     /**
-     * Get the bounding rectangle for collision detection
+     * Get the axis aligned bounding rectangle of the shape
+     * Declared as the exact class it returns, so the class loader has no reason to load the AWT geometry classes until
+     * this is actually called, which keeps AWT out of headless runs
      */
-    public Rectangle2D getBounds() {
-        return new Rectangle2D.Double(x, y, width, height);
+    public Rectangle2D.Double getBounds() {
+        double extentX = getExtentX();
+        double extentY = getExtentY();
+        return new Rectangle2D.Double(getCenterX() - extentX, getCenterY() - extentY, extentX * 2, extentY * 2);
     }
-    
+
     /**
-     * Check if this body collides with another body
+     * Check if the shape of this body overlaps the shape of another body
      */
     public boolean collidesWith(RigidBody other) {
-        return getBounds().intersects(other.getBounds());
+        return NARROWPHASE.collide(store, index, other.store, other.index, SCRATCH_CONTACT.get());
+    }
+
+    /**
+     * X position to draw at, between the previous and the current step when the world is interpolating
+     */
+    public double getRenderX() {
+        return store.getRenderX(index);
+    }
+    
+    /**
+     * Y position to draw at, between the previous and the current step when the world is interpolating
+     */
+    public double getRenderY() {
+        return store.getRenderY(index);
     }
     
     /**
      * Get the center X position
      */
     public double getCenterX() {
-        return x + width / 2;
+        return store.getCenterX(index);
     }
-    
+
     /**
      * Get the center Y position
      */
     public double getCenterY() {
-        return y + height / 2;
+        return store.getCenterY(index);
+    }
+
+    /**
+     * Move the state of this body into another store
+     */
+    void moveTo(BodyStore target) {
+        BodyStore source = store;
+        int sourceIndex = index;
+        index = target.copyFrom(source, sourceIndex);
+        store = target;
+        target.handles[index] = this;
+        // Make sure the old store doesn't touch this handle when it moves its last body around
+        source.handles[sourceIndex] = null;
+        source.remove(sourceIndex);
     }
 }
@@ -0,0 +1,21 @@
+package physics;
+
+/**
+ * The collision shape of a rigid body
+ * <p>
+ * Every shape lives inside the body's x, y, width and height rectangle, centered on the body's center
+ */
+public enum ShapeType {
+    /**
+     * Axis aligned box filling the whole rectangle
+     */
+    AABB,
+    /**
+     * Circle with a diameter of the shorter side of the rectangle
+     */
+    CIRCLE,
+    /**
+     * The rectangle rotated around its center by the body's angle
+     */
+    ORIENTED_BOX
+}
@@ -0,0 +1,286 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * A broadphase that drops every body into a uniform grid of square cells
+ * <p>
+ * Only bodies sharing a cell are tested against each other, so the cost grows with the number of bodies that are
+ * actually close together instead of the square of the body count. The grid is unbounded: cells are stored in a hash
+ * table keyed by their coordinates, so bodies can be anywhere in the world.
+ * <p>
+ * Bodies that can't move (static or asleep) go into a separate grid that is only rebuilt when the set of resting
+ * bodies changes. Each step only the moving bodies are inserted, and tested against each other and against the
+ * resting grid, so a settled scene costs next to nothing.
+ * <p>
+ * All storage is kept between steps, so once the arrays have grown to fit the scene no garbage is created per step.
+ */
+public class SpatialHashBroadphase implements Broadphase {
+    private static final int EMPTY = -1;
+
+    private final double cellSize;
+    private final Grid movingGrid = new Grid();
+    private final Grid restingGrid = new Grid();
+    private BodyStore restingStore;
+    private int restingVersion;
+
+    // Bounding boxes of the bodies, indexed like the store
+    // Boxes of resting bodies are kept as long as the resting grid is valid
+    private double[] minX = new double[64], minY = new double[64];
+    private double[] maxX = new double[64], maxY = new double[64];
+
+    /**
+     * @param cellSize Side length of a grid cell, ideally a bit larger than a typical body
+     */
+    public SpatialHashBroadphase(double cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * A fresh broadphase with the same cells, the grids are rebuilt on the first step of the fork
+     */
+    @Override
+    public Broadphase fork() {
+        return new SpatialHashBroadphase(cellSize);
+    }
+
+    @Override
+    public void findPairs(BodyStore store, PairCallback callback) {
+        int count = store.count;
+        ensureBodyCapacity(count);
+
+        if (store != restingStore || store.restingVersion != restingVersion) {
+            rebuildRestingGrid(store);
+        }
+
+        // Insert every moving body into each cell its bounding box touches
+        movingGrid.clear();
+        for (int i = 0; i < count; i++) {
+            if (store.isResting(i)) continue;
+
+            updateBounds(store, i);
+            int cellMinX = cell(minX[i]), cellMaxX = cell(maxX[i]);
+            int cellMinY = cell(minY[i]), cellMaxY = cell(maxY[i]);
+            for (int cx = cellMinX; cx <= cellMaxX; cx++) {
+                for (int cy = cellMinY; cy <= cellMaxY; cy++) {
+                    movingGrid.insert(cx, cy, i);
+                }
+            }
+        }
+
+        // Test the moving bodies inside each occupied cell against each other,
+        // and against the resting bodies in the same cell
+        for (int u = 0; u < movingGrid.usedCount; u++) {
+            int slot = movingGrid.usedSlots[u];
+            long key = movingGrid.cellKeys[slot];
+            int cx = (int) (key >> 32);
+            int cy = (int) key;
+            int restingHead = restingGrid.head(key);
+
+            for (int e1 = movingGrid.cellHeads[slot]; e1 != EMPTY; e1 = movingGrid.entryNext[e1]) {
+                int a = movingGrid.entryBody[e1];
+                for (int e2 = movingGrid.entryNext[e1]; e2 != EMPTY; e2 = movingGrid.entryNext[e2]) {
+                    report(a, movingGrid.entryBody[e2], cx, cy, callback);
+                }
+                for (int e2 = restingHead; e2 != EMPTY; e2 = restingGrid.entryNext[e2]) {
+                    report(a, restingGrid.entryBody[e2], cx, cy, callback);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void query(BodyStore store, double queryMinX, double queryMinY, double queryMaxX, double queryMaxY,
+                      QueryCallback callback) {
+        if (store != restingStore) {
+            throw new IllegalStateException("findPairs has to run on this store before it can be queried");
+        }
+
+        int cellMinX = cell(queryMinX), cellMaxX = cell(queryMaxX);
+        int cellMinY = cell(queryMinY), cellMaxY = cell(queryMaxY);
+        for (int cx = cellMinX; cx <= cellMaxX; cx++) {
+            for (int cy = cellMinY; cy <= cellMaxY; cy++) {
+                long key = Grid.key(cx, cy);
+                queryCell(movingGrid.head(key), movingGrid, cx, cy, queryMinX, queryMinY, queryMaxX, queryMaxY,
+                        store.count, callback);
+                queryCell(restingGrid.head(key), restingGrid, cx, cy, queryMinX, queryMinY, queryMaxX, queryMaxY,
+                        store.count, callback);
+            }
+        }
+    }
+
+    private void queryCell(int head, Grid grid, int cx, int cy, double queryMinX, double queryMinY,
+                           double queryMaxX, double queryMaxY, int count, QueryCallback callback) {
+        for (int e = head; e != EMPTY; e = grid.entryNext[e]) {
+            int body = grid.entryBody[e];
+            // Bodies removed since the grid was built
+            if (body >= count) continue;
+            if (maxX[body] < queryMinX || minX[body] > queryMaxX || maxY[body] < queryMinY || minY[body] > queryMaxY) {
+                continue;
+            }
+            // Same trick as for pairs: only the cell holding the top-left corner of the overlap reports the body
+            if (cell(Math.max(minX[body], queryMinX)) != cx || cell(Math.max(minY[body], queryMinY)) != cy) continue;
+
+            callback.onBody(body);
+        }
+    }
+
+    private void report(int a, int b, int cx, int cy, PairCallback callback) {
+        if (!overlaps(a, b)) return;
+
+        // Two bodies can share several cells. Only the cell holding the top-left corner of their
+        // overlap reports the pair, so each pair comes out exactly once.
+        if (cell(Math.max(minX[a], minX[b])) != cx || cell(Math.max(minY[a], minY[b])) != cy) return;
+
+        if (a < b) {
+            callback.onPair(a, b);
+        } else {
+            callback.onPair(b, a);
+        }
+    }
+
+    private void rebuildRestingGrid(BodyStore store) {
+        restingGrid.clear();
+        for (int i = 0; i < store.count; i++) {
+            if (!store.isResting(i)) continue;
+
+            updateBounds(store, i);
+            int cellMinX = cell(minX[i]), cellMaxX = cell(maxX[i]);
+            int cellMinY = cell(minY[i]), cellMaxY = cell(maxY[i]);
+            for (int cx = cellMinX; cx <= cellMaxX; cx++) {
+                for (int cy = cellMinY; cy <= cellMaxY; cy++) {
+                    restingGrid.insert(cx, cy, i);
+                }
+            }
+        }
+        restingStore = store;
+        restingVersion = store.restingVersion;
+    }
+
+    private void updateBounds(BodyStore store, int i) {
+        double extentX = store.getExtentX(i);
+        double extentY = store.getExtentY(i);
+        minX[i] = store.getCenterX(i) - extentX;
+        minY[i] = store.getCenterY(i) - extentY;
+        maxX[i] = store.getCenterX(i) + extentX;
+        maxY[i] = store.getCenterY(i) + extentY;
+    }
+
+    private boolean overlaps(int a, int b) {
+        return maxX[a] >= minX[b] && minX[a] <= maxX[b] && maxY[a] >= minY[b] && minY[a] <= maxY[b];
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private void ensureBodyCapacity(int count) {
+        if (count <= minX.length) return;
+
+        int capacity = Math.max(count, minX.length * 2);
+        minX = Arrays.copyOf(minX, capacity);
+        minY = Arrays.copyOf(minY, capacity);
+        maxX = Arrays.copyOf(maxX, capacity);
+        maxY = Arrays.copyOf(maxY, capacity);
+    }
+
+    /**
+     * One grid: a hash table from cell coordinates to a linked list of the bodies in that cell
+     */
+    private static class Grid {
+        // One entry per (body, cell) pair, chained into a linked list per cell
+        int[] entryBody = new int[64];
+        int[] entryNext = new int[64];
+        int entryCount;
+
+        // Open addressing table from cell coordinates to the first entry of that cell
+        long[] cellKeys = new long[128];
+        int[] cellHeads = new int[128];
+        int[] usedSlots = new int[128];
+        int usedCount;
+
+        Grid() {
+            Arrays.fill(cellHeads, EMPTY);
+        }
+
+        void clear() {
+            for (int u = 0; u < usedCount; u++) {
+                cellHeads[usedSlots[u]] = EMPTY;
+            }
+            usedCount = 0;
+            entryCount = 0;
+        }
+
+        /**
+         * @return The first entry in a cell, or EMPTY
+         */
+        int head(long key) {
+            if (usedCount == 0) return EMPTY;
+            return cellHeads[findSlot(key)];
+        }
+
+        static long key(int cx, int cy) {
+            return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+        }
+
+        void insert(int cx, int cy, int body) {
+            if (entryCount == entryBody.length) {
+                entryBody = Arrays.copyOf(entryBody, entryCount * 2);
+                entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+            }
+            // Keep the table at most half full so probe chains stay short
+            if (usedCount * 2 >= cellKeys.length) {
+                growTable();
+            }
+
+            long key = key(cx, cy);
+            int slot = findSlot(key);
+            if (cellHeads[slot] == EMPTY) {
+                cellKeys[slot] = key;
+                usedSlots[usedCount++] = slot;
+            }
+
+            entryBody[entryCount] = body;
+            entryNext[entryCount] = cellHeads[slot];
+            cellHeads[slot] = entryCount;
+            entryCount++;
+        }
+
+        private int findSlot(long key) {
+            int mask = cellKeys.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while (cellHeads[slot] != EMPTY && cellKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void growTable() {
+            long[] oldKeys = cellKeys;
+            int[] oldHeads = cellHeads;
+            int[] oldUsed = usedSlots;
+            int oldUsedCount = usedCount;
+
+            cellKeys = new long[oldKeys.length * 2];
+            cellHeads = new int[oldKeys.length * 2];
+            usedSlots = new int[oldKeys.length * 2];
+            Arrays.fill(cellHeads, EMPTY);
+            usedCount = 0;
+
+            for (int u = 0; u < oldUsedCount; u++) {
+                int oldSlot = oldUsed[u];
+                int slot = findSlot(oldKeys[oldSlot]);
+                cellKeys[slot] = oldKeys[oldSlot];
+                cellHeads[slot] = oldHeads[oldSlot];
+                usedSlots[usedCount++] = slot;
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package physics;
+
+/**
+ * Spring force - applies force towards a target position
+ */
+class SpringForce extends Force {
+    private double targetX, targetY;
+    private double springConstant;
+    private double damping;
+
+    public SpringForce(double magnitude, double targetX, double targetY, double springConstant, double damping) {
+        super(magnitude);
+        this.targetX = targetX;
+        this.targetY = targetY;
+        this.springConstant = springConstant;
+        this.damping = damping;
+    }
+
+    @Override
+    public void apply(BodyStore store, int from, int to) {
+        if (!active) return;
+
+        double[] velocityX = store.velocityX, velocityY = store.velocityY;
+        double[] accelerationX = store.accelerationX, accelerationY = store.accelerationY;
+        double[] mass = store.mass;
+        boolean[] isStatic = store.isStatic;
+        for (int i = from; i < to; i++) {
+            if (isStatic[i]) continue;
+
+            double displacementX = targetX - store.getCenterX(i);
+            double displacementY = targetY - store.getCenterY(i);
+
+            // Spring pull plus damping
+            double forceX = displacementX * springConstant - velocityX[i] * damping;
+            double forceY = displacementY * springConstant - velocityY[i] * damping;
+
+            accelerationX[i] += forceX / mass[i];
+            accelerationY[i] += forceY / mass[i];
+        }
+    }
+}
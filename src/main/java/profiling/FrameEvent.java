@@ -0,0 +1,35 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for a whole frame, with how much work it had
+ */
+@Name("lgengine.Frame")
+@Label("Engine Frame")
+@Description("Total time of a frame and what it had to deal with")
+@Category("LGEngine")
+@StackTrace(false)
+class FrameEvent extends Event {
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+
+    @Label("Steps")
+    int steps;
+
+    @Label("Bodies")
+    int bodies;
+
+    @Label("Pairs Tested")
+    int pairs;
+
+    @Label("Contacts")
+    int contacts;
+}
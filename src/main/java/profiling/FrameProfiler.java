@@ -0,0 +1,243 @@
+package profiling;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the phases of every frame, and counts how much work each frame had
+ * <p>
+ * Phases are timed with {@link System#nanoTime}, added up over the frame (a frame can run several physics steps),
+ * and handed to a rolling histogram per phase when the frame ends. Each finished frame is also sent to the flight
+ * recorder as events, and the histograms and counters can be read over JMX.
+ * <p>
+ * Off by default. While off, {@link #begin} and {@link #lap} only read one boolean and the clock is never read, so
+ * leaving the calls in the hot paths costs nothing measurable. Timing calls must all come from one thread at a time,
+ * the one running the frame; the results can be read from any thread.
+ */
+public class FrameProfiler implements FrameProfilerMBean {
+    private static final Phase[] PHASES = Phase.values();
+    private static final int WINDOW = 600; // 10 seconds at 60 frames per second
+
+    private volatile boolean enabled;
+
+    // The frame being timed
+    private final long[] frameTimes = new long[PHASES.length];
+    private int frameSteps;
+    private int frameBodies, framePairs, frameContacts;
+
+    // Finished frames
+    private final RollingHistogram[] histograms = new RollingHistogram[PHASES.length];
+    private final RollingHistogram frameHistogram = new RollingHistogram(WINDOW);
+    private volatile long frameCount;
+    private volatile int lastBodies, lastPairs, lastContacts;
+
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+
+    public FrameProfiler() {
+        for (int i = 0; i < PHASES.length; i++) {
+            histograms[i] = new RollingHistogram(WINDOW);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn timing on or off, turning it on starts a fresh frame
+     */
+    @Override
+    public void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) {
+            clearFrame();
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * Start timing a phase
+     *
+     * @return The time to hand to {@link #lap}, 0 while disabled
+     */
+    public long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Finish timing a phase, and start timing the next one right away
+     *
+     * @param phase The phase that just finished
+     * @param start What begin or the last lap returned
+     * @return The start of the next phase
+     */
+    public long lap(Phase phase, long start) {
+        if (!enabled) return 0;
+
+        long now = System.nanoTime();
+        // Turned on halfway through a phase, there is no start to measure from
+        if (start != 0) {
+            frameTimes[phase.ordinal()] += now - start;
+        }
+        return now;
+    }
+
+    /**
+     * Count the work of one physics step
+     *
+     * @param bodies Bodies in the world
+     * @param pairs Pairs the broadphase handed to the narrowphase
+     * @param contacts Pairs that turned out to be touching
+     */
+    public void countStep(int bodies, int pairs, int contacts) {
+        if (!enabled) return;
+
+        frameSteps++;
+        frameBodies = bodies;
+        framePairs += pairs;
+        frameContacts += contacts;
+    }
+
+    /**
+     * Close the current frame: record it in the histograms, send it to the flight recorder, and start a new one
+     */
+    public void endFrame() {
+        if (!enabled) return;
+
+        long total = 0;
+        for (int i = 0; i < PHASES.length; i++) {
+            histograms[i].record(frameTimes[i]);
+            total += frameTimes[i];
+        }
+        frameHistogram.record(total);
+        lastBodies = frameBodies;
+        lastPairs = framePairs;
+        lastContacts = frameContacts;
+        frameCount++;
+
+        // Creating an event that no recording listens to is optimized away
+        FrameEvent frameEvent = new FrameEvent();
+        if (frameEvent.isEnabled()) {
+            frameEvent.time = total;
+            frameEvent.steps = frameSteps;
+            frameEvent.bodies = frameBodies;
+            frameEvent.pairs = framePairs;
+            frameEvent.contacts = frameContacts;
+            frameEvent.commit();
+
+            for (int i = 0; i < PHASES.length; i++) {
+                PhaseEvent phaseEvent = new PhaseEvent();
+                phaseEvent.phase = PHASES[i].getLabel();
+                phaseEvent.time = frameTimes[i];
+                phaseEvent.commit();
+            }
+        }
+        clearFrame();
+    }
+
+    private void clearFrame() {
+        for (int i = 0; i < PHASES.length; i++) {
+            frameTimes[i] = 0;
+        }
+        frameSteps = 0;
+        frameBodies = 0;
+        framePairs = 0;
+        frameContacts = 0;
+    }
+
+    /**
+     * Histogram of the time per frame spent in a phase, in nanoseconds
+     */
+    public RollingHistogram getHistogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    /**
+     * Histogram of the time of whole frames, in nanoseconds
+     */
+    public RollingHistogram getFrameHistogram() {
+        return frameHistogram;
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public int getBodyCount() {
+        return lastBodies;
+    }
+
+    @Override
+    public int getPairCount() {
+        return lastPairs;
+    }
+
+    @Override
+    public int getContactCount() {
+        return lastContacts;
+    }
+
+    @Override
+    public double getMeanFrameMicros() {
+        return frameHistogram.getMean() / 1000;
+    }
+
+    @Override
+    public double getP99FrameMicros() {
+        return frameHistogram.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        for (RollingHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        frameHistogram.reset();
+        frameCount = 0;
+    }
+
+    /**
+     * Make this profiler readable over JMX, as one bean for the whole frame and one per phase:
+     * {@code lgengine:type=FrameProfiler,name=<name>} and {@code lgengine:type=Phase,profiler=<name>,name=<phase>}
+     *
+     * @param name Tells profilers of different engines in one process apart
+     */
+    public synchronized void registerMBeans(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName frameName = new ObjectName("lgengine:type=FrameProfiler,name=" + ObjectName.quote(name));
+            server.registerMBean(this, frameName);
+            registeredNames.add(frameName);
+            for (Phase phase : PHASES) {
+                ObjectName phaseName = new ObjectName("lgengine:type=Phase,profiler=" + ObjectName.quote(name)
+                        + ",name=" + phase.getLabel());
+                server.registerMBean(new PhaseStats(getHistogram(phase)), phaseName);
+                registeredNames.add(phaseName);
+            }
+        } catch (JMException e) {
+            unregisterMBeans();
+            throw new IllegalStateException("Could not register profiler " + name, e);
+        }
+    }
+
+    /**
+     * Take the beans added by registerMBeans out of JMX again
+     */
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName registeredName : registeredNames) {
+            try {
+                server.unregisterMBean(registeredName);
+            } catch (JMException e) {
+                // Already gone, which is what we wanted
+            }
+        }
+        registeredNames.clear();
+    }
+}
@@ -0,0 +1,39 @@
+package profiling;
+
+/**
+ * What {@link FrameProfiler} shows over JMX
+ */
+public interface FrameProfilerMBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return Frames recorded since the last reset
+     */
+    long getFrameCount();
+
+    /**
+     * @return Bodies in the world at the end of the last frame
+     */
+    int getBodyCount();
+
+    /**
+     * @return Pairs tested by the narrowphase in the last frame
+     */
+    int getPairCount();
+
+    /**
+     * @return Touching pairs found in the last frame
+     */
+    int getContactCount();
+
+    double getMeanFrameMicros();
+
+    double getP99FrameMicros();
+
+    /**
+     * Forget every recorded frame
+     */
+    void reset();
+}
@@ -0,0 +1,28 @@
+package profiling;
+
+/**
+ * The parts a frame is made of, in the order they run
+ */
+public enum Phase {
+    // Physics, once per step
+    FORCES("Forces"), // Forces and velocity integration
+    COLLISIONS("Collisions"), // Broadphase, narrowphase and the contact solver
+    INTEGRATION("Integration"), // Moving the bodies, sweeping fast ones and pushing overlaps apart
+    BOUNDARIES("Boundaries"),
+    SLEEPING("Sleeping"),
+
+    // Drawing, once per frame
+    CLEAR("Clear"),
+    RENDER("Render"),
+    REPAINT("Repaint");
+
+    private final String label;
+
+    Phase(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,26 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for the time one phase took in a frame
+ */
+@Name("lgengine.Phase")
+@Label("Engine Phase")
+@Description("Time spent in one phase of a frame")
+@Category("LGEngine")
+@StackTrace(false)
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+}
@@ -0,0 +1,42 @@
+package profiling;
+
+/**
+ * JMX view of the histogram of one phase
+ */
+class PhaseStats implements PhaseStatsMBean {
+    private final RollingHistogram histogram;
+
+    PhaseStats(RollingHistogram histogram) {
+        this.histogram = histogram;
+    }
+
+    @Override
+    public int getSamples() {
+        return histogram.getSize();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return histogram.getMean() / 1000;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return histogram.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getP95Micros() {
+        return histogram.getPercentile(95) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return histogram.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return histogram.getMax() / 1000.0;
+    }
+}
@@ -0,0 +1,21 @@
+package profiling;
+
+/**
+ * The time spent in one phase per frame, over the last few seconds, as shown over JMX
+ */
+public interface PhaseStatsMBean {
+    int getSamples();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP95Micros();
+
+    double getP99Micros();
+
+    /**
+     * @return The slowest frame since the last reset, even if it has left the window
+     */
+    double getMaxMicros();
+}
@@ -0,0 +1,82 @@
+package profiling;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of the last few samples of a value, older samples drop out as new ones come in
+ * <p>
+ * Recording is a single array write. Percentiles are worked out when somebody asks for them, usually a monitoring
+ * tool polling every few seconds, so the cost lands there and not on the frame.
+ */
+public class RollingHistogram {
+    private final int window;
+    private long[] samples; // Only allocated once the first sample comes in, most profilers are never turned on
+    private int next;
+    private int size;
+    private long max;
+
+    /**
+     * @param window How many of the latest samples to keep
+     */
+    public RollingHistogram(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must hold at least one sample: " + window);
+        }
+        this.window = window;
+    }
+
+    public synchronized void record(long value) {
+        if (samples == null) {
+            samples = new long[window];
+        }
+        samples[next] = value;
+        next = (next + 1) % window;
+        if (size < window) size++;
+        max = Math.max(max, value);
+    }
+
+    public synchronized void reset() {
+        next = 0;
+        size = 0;
+        max = 0;
+    }
+
+    /**
+     * @return How many samples the window holds right now
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    public synchronized double getMean() {
+        if (size == 0) return 0;
+
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += samples[i];
+        }
+        return (double) sum / size;
+    }
+
+    /**
+     * @param percentile From 0 to 100
+     * @return The smallest sample in the window that at least this percentage of samples are not above
+     */
+    public long getPercentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (size == 0) return 0;
+            sorted = Arrays.copyOf(samples, size);
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+    }
+
+    /**
+     * @return The largest sample since the last reset, even if it has left the window
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+}